@@ -0,0 +1,150 @@
+/*
+  Copyright (C) 2013 Juha-Matti Tilli
+  
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+  
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+  
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  SOFTWARE.
+ */
+package fi.iki.jmtilli.javaxmlfrag;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+/**
+   Map view of the attributes of an element.
+
+   Reads and writes go straight to the shape and values of the element.
+   The entries are iterated in the order the attributes were added.
+ */
+final class AttributeMap extends AbstractMap<String, String> {
+  private final DocumentFragment f;
+
+  public AttributeMap(DocumentFragment f)
+  {
+    this.f = f;
+  }
+  public int size()
+  {
+    return f.attrCount();
+  }
+  public boolean containsKey(Object key)
+  {
+    return f.attrIndex(key) >= 0;
+  }
+  public String get(Object key)
+  {
+    int i = f.attrIndex(key);
+    return i < 0 ? null : f.attrValue(i);
+  }
+  public String put(String key, String value)
+  {
+    if (key == null || value == null)
+    {
+      throw new NullPointerException();
+    }
+    return f.putAttr(key, value);
+  }
+  public String remove(Object key)
+  {
+    int i = f.attrIndex(key);
+    return i < 0 ? null : f.removeAttrAt(i);
+  }
+  public void clear()
+  {
+    f.clearAttrs();
+  }
+  private final class Entry implements Map.Entry<String, String> {
+    private final String key;
+    public Entry(String key)
+    {
+      this.key = key;
+    }
+    public String getKey()
+    {
+      return key;
+    }
+    public String getValue()
+    {
+      return AttributeMap.this.get(key);
+    }
+    public String setValue(String value)
+    {
+      return AttributeMap.this.put(key, value);
+    }
+    public boolean equals(Object o)
+    {
+      if (!(o instanceof Map.Entry))
+      {
+        return false;
+      }
+      Map.Entry<?,?> e = (Map.Entry<?,?>)o;
+      return key.equals(e.getKey()) && getValue().equals(e.getValue());
+    }
+    public int hashCode()
+    {
+      return key.hashCode() ^ getValue().hashCode();
+    }
+    public String toString()
+    {
+      return key + "=" + getValue();
+    }
+  };
+  public Set<Map.Entry<String, String>> entrySet()
+  {
+    return new AbstractSet<Map.Entry<String, String>>() {
+      public int size()
+      {
+        return f.attrCount();
+      }
+      public Iterator<Map.Entry<String, String>> iterator()
+      {
+        return new Iterator<Map.Entry<String, String>>() {
+          private int next = 0;
+          private boolean removable = false;
+          public boolean hasNext()
+          {
+            return next < f.attrCount();
+          }
+          public Map.Entry<String, String> next()
+          {
+            if (!hasNext())
+            {
+              throw new NoSuchElementException();
+            }
+            removable = true;
+            return new Entry(f.attrKey(next++));
+          }
+          public void remove()
+          {
+            if (!removable)
+            {
+              throw new IllegalStateException();
+            }
+            removable = false;
+            f.removeAttrAt(--next);
+          }
+        };
+      }
+      public void clear()
+      {
+        f.clearAttrs();
+      }
+    };
+  }
+}
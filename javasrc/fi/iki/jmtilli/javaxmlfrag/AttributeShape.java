@@ -0,0 +1,235 @@
+/*
+  Copyright (C) 2013 Juha-Matti Tilli
+  
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+  
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+  
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  SOFTWARE.
+ */
+package fi.iki.jmtilli.javaxmlfrag;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+/**
+   Ordered list of attribute names shared by elements having the same
+   attributes.
+
+   An element stores only its shape and an array of attribute values. The
+   shapes form a tree rooted at EMPTY: adding an attribute to an element
+   moves it to the child shape having that name appended, so all elements
+   with the same attribute names in the same order share one shape
+   instance, like hidden classes in JavaScript engines. Shapes are
+   immutable and may be shared between threads.
+
+   The tree is global and the names come from documents, so its size is
+   bounded: at most MAX_SHARED_SHAPES shapes are ever kept in it, and
+   shapes with many attributes, long names or parents with many
+   transitions are not kept. Such shapes are created for each element
+   instead. They work the same but are not shared.
+ */
+final class AttributeShape {
+  /**
+     The shape of elements without attributes.
+   */
+  public static final AttributeShape EMPTY =
+    new AttributeShape(new String[0]);
+  /**
+     The maximum number of shapes kept in the tree.
+   */
+  public static final int MAX_SHARED_SHAPES = 4096;
+  private static final int MAX_SHARED_KEYS = 32;
+  private static final int MAX_SHARED_KEY_LENGTH = 256;
+  private static final int MAX_TRANSITIONS = 64;
+  private static final AtomicInteger shared = new AtomicInteger();
+  private static final int INDEX_THRESHOLD = 8;
+
+  private final String[] keys;
+  private final HashMap<String, Integer> index;
+  private volatile int[] sorted;
+  /*
+    Child shapes by the appended name, created on the first transition.
+   */
+  private volatile ConcurrentHashMap<String, AttributeShape> transitions;
+
+  private AttributeShape(String[] keys)
+  {
+    this.keys = keys;
+    if (keys.length > INDEX_THRESHOLD)
+    {
+      index = new HashMap<String, Integer>();
+      for (int i = 0; i < keys.length; i++)
+      {
+        index.put(keys[i], i);
+      }
+    }
+    else
+    {
+      index = null;
+    }
+  }
+  /**
+     Get the number of attributes.
+
+     @return The number of attributes
+   */
+  public int size()
+  {
+    return keys.length;
+  }
+  /**
+     Get an attribute name.
+
+     @param i The position of the attribute
+     @return The name of the attribute
+   */
+  public String key(int i)
+  {
+    return keys[i];
+  }
+  /**
+     Find an attribute.
+
+     @param key The name of the attribute
+     @return The position of the attribute or -1 if not found
+   */
+  public int indexOf(Object key)
+  {
+    if (index != null)
+    {
+      Integer i = index.get(key);
+      return i == null ? -1 : i;
+    }
+    for (int i = 0; i < keys.length; i++)
+    {
+      if (keys[i] == key || keys[i].equals(key))
+      {
+        return i;
+      }
+    }
+    return -1;
+  }
+  /**
+     Get the positions of the attributes in the order of their names.
+
+     The order is computed when first needed, as the serializer writes
+     attributes sorted by name like the DOM serializer does.
+
+     @return The positions of the attributes; must not be modified
+   */
+  public int[] sortedOrder()
+  {
+    int[] order = sorted;
+    if (order != null)
+    {
+      return order;
+    }
+    order = new int[keys.length];
+    for (int i = 0; i < keys.length; i++)
+    {
+      int j = i;
+      while (j > 0 && keys[order[j-1]].compareTo(keys[i]) > 0)
+      {
+        order[j] = order[j-1];
+        j--;
+      }
+      order[j] = i;
+    }
+    sorted = order;
+    return order;
+  }
+  /**
+     Get the shape with an attribute appended.
+
+     @param key The name of the attribute, not in this shape
+     @return The shape having the attribute last
+   */
+  public AttributeShape add(String key)
+  {
+    ConcurrentHashMap<String, AttributeShape> t = transitions;
+    AttributeShape shape = t == null ? null : t.get(key);
+    AttributeShape old;
+    String[] newKeys;
+    if (shape != null)
+    {
+      return shape;
+    }
+    newKeys = Arrays.copyOf(keys, keys.length + 1);
+    newKeys[keys.length] = key;
+    shape = new AttributeShape(newKeys);
+    if (newKeys.length > MAX_SHARED_KEYS ||
+        key.length() > MAX_SHARED_KEY_LENGTH ||
+        shared.get() >= MAX_SHARED_SHAPES)
+    {
+      return shape;
+    }
+    if (t == null)
+    {
+      synchronized(this)
+      {
+        t = transitions;
+        if (t == null)
+        {
+          t = new ConcurrentHashMap<String, AttributeShape>(4);
+          transitions = t;
+        }
+      }
+    }
+    if (t.size() >= MAX_TRANSITIONS)
+    {
+      return shape;
+    }
+    if (shared.incrementAndGet() > MAX_SHARED_SHAPES)
+    {
+      shared.decrementAndGet();
+      return shape;
+    }
+    old = t.putIfAbsent(key, shape);
+    if (old != null)
+    {
+      shared.decrementAndGet();
+      return old;
+    }
+    return shape;
+  }
+  /**
+     Get the number of shapes kept in the tree.
+
+     @return The number of shared shapes, not counting EMPTY
+   */
+  static int sharedCount()
+  {
+    return shared.get();
+  }
+  /**
+     Get the shape with an attribute removed.
+
+     @param i The position of the attribute
+     @return The shape without the attribute
+   */
+  public AttributeShape remove(int i)
+  {
+    AttributeShape shape = EMPTY;
+    for (int j = 0; j < keys.length; j++)
+    {
+      if (j != i)
+      {
+        shape = shape.add(keys[j]);
+      }
+    }
+    return shape;
+  }
+}
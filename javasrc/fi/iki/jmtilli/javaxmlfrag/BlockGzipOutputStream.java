@@ -0,0 +1,222 @@
+/*
+  Copyright (C) 2013 Juha-Matti Tilli
+  
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+  
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+  
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  SOFTWARE.
+ */
+package fi.iki.jmtilli.javaxmlfrag;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+/**
+   OutputStream writing a gzip file of independent members aligned to
+   record boundaries.
+
+   The writer calls boundary() before writing each record. Everything before
+   the first boundary becomes the first member, and after that, a new member
+   is started at the first boundary after at least the block size of data.
+   Every member header has an extra field holding the compressed size of
+   the member, so that the members can be located without decompressing
+   them. The result is a valid gzip file that any gzip reader can
+   decompress, but ChunkedFragmentParser.parseGzip can also decompress and
+   parse the members in parallel.
+ */
+public final class BlockGzipOutputStream extends OutputStream {
+  /**
+     The default block size.
+   */
+  public static final int DEFAULT_BLOCK_SIZE = 1024*1024;
+  /**
+     Size of the member header.
+   */
+  static final int HEADER_SIZE = 20;
+  private static final int TRAILER_SIZE = 8;
+
+  private final OutputStream out;
+  private final int blockSize;
+  private final Deflater deflater;
+  private final CRC32 crc = new CRC32();
+  private final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+  private final byte[] dbuf = new byte[64*1024];
+  private byte[] buf;
+  private int len = 0;
+  private boolean first = true;
+  private boolean written = false;
+  private boolean closed = false;
+
+  /**
+     Create a stream.
+
+     @param out The underlying stream
+     @param blockSize The minimum uncompressed size of a member
+     @param level The compression level, as in Deflater
+   */
+  public BlockGzipOutputStream(OutputStream out, int blockSize, int level)
+  {
+    if (out == null)
+    {
+      throw new NullPointerException();
+    }
+    if (blockSize <= 0)
+    {
+      throw new IllegalArgumentException("blockSize must be positive");
+    }
+    this.out = out;
+    this.blockSize = blockSize;
+    this.buf = new byte[Math.min(blockSize, 64*1024)];
+    this.deflater = new Deflater(level, true);
+  }
+  /**
+     Create a stream with the default block size and compression level.
+
+     @param out The underlying stream
+   */
+  public BlockGzipOutputStream(OutputStream out)
+  {
+    this(out, DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION);
+  }
+
+  /**
+     Get the compressed size of a member from its header.
+
+     @param header The first HEADER_SIZE bytes of the member, from position 0
+     @return The size of the member, or -1 if the header was not written by
+             this class
+   */
+  static long memberSize(ByteBuffer header)
+  {
+    ByteBuffer b = header.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    if (b.limit() < HEADER_SIZE ||
+        (b.get(0) & 0xFF) != 0x1f || (b.get(1) & 0xFF) != 0x8b ||
+        b.get(2) != 8 || b.get(3) != 4 ||
+        b.getShort(10) != 8 || b.get(12) != 'J' || b.get(13) != 'F' ||
+        b.getShort(14) != 4)
+    {
+      return -1;
+    }
+    return b.getInt(16) & 0xFFFFFFFFL;
+  }
+  private void writeMember() throws IOException
+  {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+    header.order(ByteOrder.LITTLE_ENDIAN);
+    trailer.order(ByteOrder.LITTLE_ENDIAN);
+    crc.reset();
+    crc.update(buf, 0, len);
+    deflater.reset();
+    deflater.setInput(buf, 0, len);
+    deflater.finish();
+    compressed.reset();
+    while (!deflater.finished())
+    {
+      int n = deflater.deflate(dbuf);
+      compressed.write(dbuf, 0, n);
+    }
+    header.put((byte)0x1f).put((byte)0x8b).put((byte)8).put((byte)4);
+    header.putInt(0).put((byte)0).put((byte)255);
+    header.putShort((short)8).put((byte)'J').put((byte)'F');
+    header.putShort((short)4);
+    header.putInt(HEADER_SIZE + compressed.size() + TRAILER_SIZE);
+    trailer.putInt((int)crc.getValue()).putInt(len);
+    out.write(header.array());
+    compressed.writeTo(out);
+    out.write(trailer.array());
+    len = 0;
+    written = true;
+  }
+  /**
+     Mark a record boundary.
+
+     Call this before writing each record. The first call ends the first
+     member, and later calls end the current member if it holds at least the
+     block size of data.
+   */
+  public void boundary() throws IOException
+  {
+    if (closed)
+    {
+      throw new IOException("stream closed");
+    }
+    if (first || len >= blockSize)
+    {
+      writeMember();
+      first = false;
+    }
+  }
+  public void write(int b) throws IOException
+  {
+    write(new byte[]{(byte)b}, 0, 1);
+  }
+  public void write(byte[] b, int off, int n) throws IOException
+  {
+    if (closed)
+    {
+      throw new IOException("stream closed");
+    }
+    if (len + n > buf.length)
+    {
+      int size = buf.length;
+      while (len + n > size)
+      {
+        size *= 2;
+      }
+      byte[] newbuf = new byte[size];
+      System.arraycopy(buf, 0, newbuf, 0, len);
+      buf = newbuf;
+    }
+    System.arraycopy(b, off, buf, len, n);
+    len += n;
+  }
+  /**
+     Flush the underlying stream.
+
+     The buffered data is not written, as that would end the current member
+     elsewhere than at a record boundary.
+   */
+  public void flush() throws IOException
+  {
+    out.flush();
+  }
+  /**
+     Write the last member and close the underlying stream.
+   */
+  public void close() throws IOException
+  {
+    if (closed)
+    {
+      return;
+    }
+    try {
+      if (len > 0 || !written)
+      {
+        writeMember();
+      }
+    }
+    finally
+    {
+      closed = true;
+      deflater.end();
+      out.close();
+    }
+  }
+}
@@ -0,0 +1,75 @@
+/*
+  Copyright (C) 2013 Juha-Matti Tilli
+  
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+  
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+  
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  SOFTWARE.
+ */
+package fi.iki.jmtilli.javaxmlfrag;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+/**
+   InputStream reading the remaining bytes of a ByteBuffer.
+
+   The buffer is read through a duplicate, so its position is not modified.
+   Used with a mapped buffer, the document is read straight from the page
+   cache without copying it to the heap first.
+ */
+public final class ByteBufferInputStream extends InputStream {
+  private final ByteBuffer buf;
+  /**
+     Create a stream.
+
+     @param buf The buffer whose remaining bytes are read
+   */
+  public ByteBufferInputStream(ByteBuffer buf)
+  {
+    this.buf = buf.duplicate();
+  }
+  public int read()
+  {
+    if (!buf.hasRemaining())
+    {
+      return -1;
+    }
+    return buf.get() & 0xFF;
+  }
+  public int read(byte[] b, int off, int len)
+  {
+    if (len == 0)
+    {
+      return 0;
+    }
+    if (!buf.hasRemaining())
+    {
+      return -1;
+    }
+    len = Math.min(len, buf.remaining());
+    buf.get(b, off, len);
+    return len;
+  }
+  public long skip(long n)
+  {
+    int k = (int)Math.max(0, Math.min(n, buf.remaining()));
+    buf.position(buf.position() + k);
+    return k;
+  }
+  public int available()
+  {
+    return buf.remaining();
+  }
+}
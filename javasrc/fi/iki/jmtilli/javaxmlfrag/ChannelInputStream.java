@@ -0,0 +1,137 @@
+/*
+  Copyright (C) 2013 Juha-Matti Tilli
+  
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+  
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+  
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  SOFTWARE.
+ */
+package fi.iki.jmtilli.javaxmlfrag;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+/**
+   InputStream reading a ReadableByteChannel through a buffer of a
+   configurable size.
+
+   Large reads are done straight from the channel into the caller's array
+   without going through the buffer. Closing the stream closes the channel.
+ */
+public final class ChannelInputStream extends InputStream {
+  /**
+     The default buffer size.
+   */
+  public static final int DEFAULT_BUFFER_SIZE = 256*1024;
+  private final ReadableByteChannel ch;
+  private final ByteBuffer buf;
+  private boolean eof = false;
+
+  /**
+     Create a stream.
+
+     @param ch The channel
+     @param bufferSize The size of the buffer in bytes
+   */
+  public ChannelInputStream(ReadableByteChannel ch, int bufferSize)
+  {
+    if (ch == null)
+    {
+      throw new NullPointerException();
+    }
+    if (bufferSize <= 0)
+    {
+      throw new IllegalArgumentException("bufferSize must be positive");
+    }
+    this.ch = ch;
+    this.buf = ByteBuffer.allocate(bufferSize);
+    this.buf.flip();
+  }
+  /**
+     Create a stream with the default buffer size.
+
+     @param ch The channel
+   */
+  public ChannelInputStream(ReadableByteChannel ch)
+  {
+    this(ch, DEFAULT_BUFFER_SIZE);
+  }
+  private boolean fill() throws IOException
+  {
+    int n = 0;
+    buf.clear();
+    while (n == 0)
+    {
+      n = ch.read(buf);
+    }
+    buf.flip();
+    if (n < 0)
+    {
+      eof = true;
+      return false;
+    }
+    return true;
+  }
+  public int read() throws IOException
+  {
+    if (!buf.hasRemaining() && (eof || !fill()))
+    {
+      return -1;
+    }
+    return buf.get() & 0xFF;
+  }
+  public int read(byte[] b, int off, int len) throws IOException
+  {
+    int n;
+    if (len == 0)
+    {
+      return 0;
+    }
+    if (!buf.hasRemaining())
+    {
+      if (eof)
+      {
+        return -1;
+      }
+      if (len >= buf.capacity())
+      {
+        do {
+          n = ch.read(ByteBuffer.wrap(b, off, len));
+        } while (n == 0);
+        if (n < 0)
+        {
+          eof = true;
+        }
+        return n;
+      }
+      if (!fill())
+      {
+        return -1;
+      }
+    }
+    n = Math.min(len, buf.remaining());
+    buf.get(b, off, n);
+    return n;
+  }
+  public int available()
+  {
+    return buf.remaining();
+  }
+  public void close() throws IOException
+  {
+    ch.close();
+  }
+}
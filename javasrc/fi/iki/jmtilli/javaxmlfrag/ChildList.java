@@ -0,0 +1,221 @@
+/*
+  Copyright (C) 2013 Juha-Matti Tilli
+  
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+  
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+  
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  SOFTWARE.
+ */
+package fi.iki.jmtilli.javaxmlfrag;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+/**
+   List of the children of an element.
+
+   Works like ArrayList but can be frozen, after which it is trimmed to
+   its exact size and all mutators throw UnsupportedOperationException.
+   Every mutation, including set(), increments a version number that
+   lets the element invalidate data derived from its children.
+
+   Text appended by appendText() is kept in a buffer that is turned into
+   a text node on the next access, so appending many chunks in a row
+   takes time linear in their total length.
+ */
+final class ChildList extends AbstractList<DocumentFragment>
+  implements RandomAccess {
+  private static final DocumentFragment[] EMPTY = new DocumentFragment[0];
+  private DocumentFragment[] elements = EMPTY;
+  private int size;
+  private int version;
+  private boolean frozen;
+  private TagIndex index;
+  private StringBuilder pendingText;
+
+  public ChildList()
+  {
+  }
+  public ChildList(Collection<DocumentFragment> c)
+  {
+    addAll(c);
+  }
+  /**
+     Get the version number, which changes on every mutation.
+
+     @return The version number
+   */
+  public int version()
+  {
+    return version;
+  }
+  /**
+     Get the tag index of the element, which may be out of date.
+
+     @return The index or null
+   */
+  public TagIndex getIndex()
+  {
+    return index;
+  }
+  /**
+     Set the tag index of the element.
+
+     @param index The index
+   */
+  public void setIndex(TagIndex index)
+  {
+    this.index = index;
+  }
+  /**
+     Trim the list to its exact size and make it read-only.
+   */
+  public void freeze()
+  {
+    flushText();
+    if (elements.length != size)
+    {
+      elements = size == 0 ? EMPTY : Arrays.copyOf(elements, size);
+    }
+    frozen = true;
+  }
+  private void modify()
+  {
+    if (frozen)
+    {
+      throw new UnsupportedOperationException("frozen fragment");
+    }
+    version++;
+  }
+  /**
+     Append text after the last child, coalescing it with the text
+     children at the end of the list.
+
+     The text children at the end are replaced by one new text node when
+     the list is next accessed; the existing nodes are not modified.
+
+     @param text The text
+   */
+  public void appendText(String text)
+  {
+    StringBuilder sb = pendingText;
+    int first;
+    if (sb != null)
+    {
+      sb.append(text);
+      return;
+    }
+    first = size;
+    while (first > 0 && elements[first - 1].isTextElement())
+    {
+      first--;
+    }
+    modify();
+    sb = new StringBuilder();
+    if (first < size)
+    {
+      modCount++;
+      for (int i = first; i < size; i++)
+      {
+        sb.append(elements[i].getText());
+        elements[i] = null;
+      }
+      size = first;
+    }
+    sb.append(text);
+    pendingText = sb;
+  }
+  /*
+    Turn the buffered text into a text node. The text already was part
+    of the list, so this is not counted as a modification.
+   */
+  private void flushText()
+  {
+    StringBuilder sb = pendingText;
+    if (sb != null)
+    {
+      pendingText = null;
+      if (size == elements.length)
+      {
+        elements = Arrays.copyOf(elements, Math.max(4, 2*size));
+      }
+      elements[size++] = DocumentFragment.newText(sb.toString());
+    }
+  }
+  public int size()
+  {
+    flushText();
+    return size;
+  }
+  public DocumentFragment get(int i)
+  {
+    flushText();
+    if (i < 0 || i >= size)
+    {
+      throw new IndexOutOfBoundsException("index " + i + ", size " + size);
+    }
+    return elements[i];
+  }
+  public DocumentFragment set(int i, DocumentFragment f)
+  {
+    DocumentFragment old = get(i);
+    if (f == null)
+    {
+      throw new NullPointerException();
+    }
+    modify();
+    elements[i] = f;
+    return old;
+  }
+  public void add(int i, DocumentFragment f)
+  {
+    flushText();
+    if (i < 0 || i > size)
+    {
+      throw new IndexOutOfBoundsException("index " + i + ", size " + size);
+    }
+    if (f == null)
+    {
+      throw new NullPointerException();
+    }
+    modify();
+    modCount++;
+    if (size == elements.length)
+    {
+      elements = Arrays.copyOf(elements, Math.max(4, 2*size));
+    }
+    System.arraycopy(elements, i, elements, i + 1, size - i);
+    elements[i] = f;
+    size++;
+  }
+  public DocumentFragment remove(int i)
+  {
+    DocumentFragment old = get(i);
+    modify();
+    modCount++;
+    System.arraycopy(elements, i + 1, elements, i, size - i - 1);
+    elements[--size] = null;
+    return old;
+  }
+  public void clear()
+  {
+    pendingText = null;
+    modify();
+    modCount++;
+    Arrays.fill(elements, 0, size, null);
+    size = 0;
+  }
+}
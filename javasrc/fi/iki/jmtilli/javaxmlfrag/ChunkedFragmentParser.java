@@ -0,0 +1,622 @@
+/*
+  Copyright (C) 2013 Juha-Matti Tilli
+  
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+  
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+  
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  SOFTWARE.
+ */
+package fi.iki.jmtilli.javaxmlfrag;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import org.xml.sax.SAXException;
+/**
+   Parser that splits one large file of records into chunks parsed in
+   parallel.
+
+   The file is memory-mapped and split at N points. From each split point,
+   the parser looks for the start tag of the next record, i.e. the last tag
+   of the path preceded by a '&gt;' and whitespace only. Each chunk is then
+   parsed on its own thread, prefixed with everything before the first
+   record and followed by the end tags of the ancestors of the records. The
+   fragments are the same as those collected by a sequential parse.
+
+   This requires that the start tag of the record does not occur anywhere
+   else than at the path, e.g. in a comment, in a CDATA section or deeper
+   in the tree. If no suitable split points are found, the file is parsed
+   sequentially.
+ */
+public final class ChunkedFragmentParser {
+  private static final int QUEUE_SIZE = 1024;
+  private static final long POLL_MILLIS = 100;
+  private static final int WINDOW = 1024*1024;
+  private static final long MIN_CHUNK = 1024*1024;
+  private static final long MAX_CHUNK = 1024*1024*1024;
+  private static final int GZIP_BUFFER_SIZE = 64*1024;
+  private static final DocumentFragment END = new DocumentFragment("end");
+
+  private static class AbortedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    public AbortedException()
+    {
+      super("parsing aborted", null, false, false);
+    }
+  };
+  private static class Handler extends DocumentFragmentHandler {
+    public void startXMLElement(String uri, String localName, String qName,
+                                org.xml.sax.Attributes attributes)
+    {
+    }
+    public void endXMLElement(String uri, String localName, String qName,
+                              DocumentFragment f)
+    {
+    }
+  };
+  private static final ThreadFactory THREADS = new ThreadFactory() {
+    public Thread newThread(Runnable r)
+    {
+      Thread t = new Thread(r, "javaxmlfrag-chunk");
+      t.setDaemon(true);
+      return t;
+    }
+  };
+
+  private final SAXParserFactory fact;
+  private final int threads;
+  private final boolean ordered;
+
+  /**
+     Create a chunked parser.
+
+     @param fact A parser factory
+     @param threads The number of parser threads
+     @param ordered Whether the fragments are processed one at a time in
+                    document order in the calling thread. Otherwise, they are
+                    processed by the parser threads concurrently.
+   */
+  public ChunkedFragmentParser(SAXParserFactory fact, int threads,
+                               boolean ordered)
+  {
+    if (fact == null)
+    {
+      throw new NullPointerException();
+    }
+    if (threads <= 0)
+    {
+      throw new IllegalArgumentException("threads must be positive");
+    }
+    this.fact = fact;
+    this.threads = threads;
+    this.ordered = ordered;
+  }
+  /**
+     Create a chunked parser using the default parser factory.
+
+     @param threads The number of parser threads
+     @param ordered Whether the fragments are processed in document order
+   */
+  public ChunkedFragmentParser(int threads, boolean ordered)
+  {
+    this(SAXParserFactory.newInstance(), threads, ordered);
+  }
+  /**
+     Get the number of parser threads.
+
+     @return The number of parser threads
+   */
+  public int getThreads()
+  {
+    return threads;
+  }
+  /**
+     Get whether the fragments are processed in document order.
+
+     @return Whether the fragments are processed in document order
+   */
+  public boolean isOrdered()
+  {
+    return ordered;
+  }
+
+  private static String[] literalPath(String path)
+  {
+    String p = path.startsWith("/") ? path.substring(1) : path;
+    String[] tags = p.split("/", -1);
+    for (String tag: tags)
+    {
+      if (tag.equals("") || tag.equals("*"))
+      {
+        throw new IllegalArgumentException("path not literal: " + path);
+      }
+    }
+    return tags;
+  }
+  private static boolean isSpace(int c)
+  {
+    return c == ' ' || c == '\n' || c == '\t' || c == '\r';
+  }
+  /**
+     Find the start of a record at or after a file position.
+
+     @return The position of the record, or -1 if not found
+   */
+  private static long find(FileChannel ch, long size, long from,
+                           byte[] pattern)
+    throws IOException
+  {
+    for (long pos = from; pos < size; pos += WINDOW)
+    {
+      int len = (int)Math.min(WINDOW + pattern.length + 1, size - pos);
+      MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, pos, len);
+      for (int i = 0; i < WINDOW && i + pattern.length < len; i++)
+      {
+        int j = 0;
+        int c;
+        while (j < pattern.length && buf.get(i+j) == pattern[j])
+        {
+          j++;
+        }
+        if (j < pattern.length)
+        {
+          continue;
+        }
+        c = buf.get(i+j);
+        if (c != '>' && c != '/' && !isSpace(c))
+        {
+          continue;
+        }
+        j = i - 1;
+        while (j >= 0 && isSpace(buf.get(j)))
+        {
+          j--;
+        }
+        if (j >= 0 && buf.get(j) == '>')
+        {
+          return pos + i;
+        }
+      }
+    }
+    return -1;
+  }
+  /**
+     Find the chunk boundaries.
+
+     @return The start positions of the chunks, or null if the file cannot
+             be split
+   */
+  private long[] boundaries(FileChannel ch, long size, byte[] pattern)
+    throws IOException
+  {
+    ArrayList<Long> bounds = new ArrayList<Long>();
+    long first = find(ch, size, 0, pattern);
+    long step;
+    long last;
+    long[] result;
+    if (first < 0 || first > MAX_CHUNK)
+    {
+      return null;
+    }
+    step = Math.max(MIN_CHUNK,
+                    Math.min(MAX_CHUNK/2, (size - first) / (threads*4L)));
+    bounds.add(first);
+    last = first;
+    for (long split = first + step; split < size; split += step)
+    {
+      long b = find(ch, size, Math.max(split, last + 1), pattern);
+      if (b < 0)
+      {
+        break;
+      }
+      if (b - last > MAX_CHUNK)
+      {
+        return null;
+      }
+      bounds.add(b);
+      last = b;
+      split = Math.max(split, b);
+    }
+    if (size - last > MAX_CHUNK)
+    {
+      return null;
+    }
+    result = new long[bounds.size()];
+    for (int i = 0; i < result.length; i++)
+    {
+      result[i] = bounds.get(i);
+    }
+    return result;
+  }
+
+  private volatile Throwable failure;
+  private volatile boolean aborted;
+  /*
+    Not this: the parse methods hold the lock of this while waiting for
+    the parser threads, which would then block in fail().
+   */
+  private final Object failureLock = new Object();
+
+  private void fail(Throwable t)
+  {
+    synchronized(failureLock)
+    {
+      if (failure == null)
+      {
+        failure = t;
+      }
+    }
+    aborted = true;
+  }
+  private void put(ArrayBlockingQueue<DocumentFragment> queue,
+                   DocumentFragment f)
+    throws InterruptedException
+  {
+    while (!queue.offer(f, POLL_MILLIS, TimeUnit.MILLISECONDS))
+    {
+      if (aborted)
+      {
+        throw new AbortedException();
+      }
+    }
+  }
+  private Runnable task(final ByteBuffer header, final ByteBuffer chunk,
+                        final boolean gzip, final byte[] trailer,
+                        final String path, final FragmentProcessor proc,
+                        final ArrayBlockingQueue<DocumentFragment> queue)
+  {
+    return new Runnable() {
+      public void run()
+      {
+        Handler h = new Handler();
+        h.onFragment(path, new FragmentProcessor() {
+          public void processFragment(DocumentFragment f) throws Exception
+          {
+            if (aborted)
+            {
+              throw new AbortedException();
+            }
+            if (queue != null)
+            {
+              put(queue, f);
+            }
+            else
+            {
+              proc.processFragment(f);
+            }
+          }
+        });
+        try {
+          InputStream body = new ByteBufferInputStream(chunk);
+          if (gzip)
+          {
+            body = new GZIPInputStream(body, GZIP_BUFFER_SIZE);
+          }
+          fact.newSAXParser().parse(new SequenceInputStream(
+              Collections.enumeration(Arrays.asList(
+                new ByteBufferInputStream(header), body,
+                new ByteArrayInputStream(trailer)))), h);
+          if (queue != null)
+          {
+            put(queue, END);
+          }
+        }
+        catch (AbortedException e)
+        {
+        }
+        catch (Throwable t)
+        {
+          fail(t);
+        }
+      }
+    };
+  }
+  private void consume(ArrayBlockingQueue<DocumentFragment> queue,
+                       FragmentProcessor proc)
+    throws InterruptedException
+  {
+    for (;;)
+    {
+      DocumentFragment f = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+      if (f == null)
+      {
+        if (aborted)
+        {
+          return;
+        }
+        continue;
+      }
+      if (f == END)
+      {
+        return;
+      }
+      try {
+        proc.processFragment(f);
+      }
+      catch (RuntimeException e)
+      {
+        fail(e);
+        return;
+      }
+      catch (Exception e)
+      {
+        fail(new XMLProcessingException("fragment processing failed", e));
+        return;
+      }
+    }
+  }
+  private static void rethrow(Throwable t) throws IOException, SAXException
+  {
+    if (t instanceof IOException)
+    {
+      throw (IOException)t;
+    }
+    if (t instanceof SAXException)
+    {
+      throw (SAXException)t;
+    }
+    if (t instanceof RuntimeException)
+    {
+      throw (RuntimeException)t;
+    }
+    if (t instanceof Error)
+    {
+      throw (Error)t;
+    }
+    throw new XMLProcessingException("fragment processing failed", t);
+  }
+  private void sequential(File f, String path, FragmentProcessor proc)
+    throws ParserConfigurationException, SAXException, IOException
+  {
+    Handler h = new Handler();
+    h.onFragment(path, proc);
+    fact.newSAXParser().parse(f, h);
+  }
+
+  private static byte[] trailer(String[] tags) throws IOException
+  {
+    StringBuilder sb = new StringBuilder();
+    for (int i = tags.length - 2; i >= 0; i--)
+    {
+      sb.append("</").append(tags[i]).append(">");
+    }
+    return sb.toString().getBytes("UTF-8");
+  }
+  /**
+     Parse the chunks on the thread pool.
+
+     Each chunk but the last is followed by the trailer.
+   */
+  private void parseChunks(ByteBuffer header, List<ByteBuffer> chunks,
+                           boolean gzip, byte[] trailer, String path,
+                           FragmentProcessor proc)
+    throws SAXException, IOException
+  {
+    ExecutorService pool = Executors.newFixedThreadPool(threads, THREADS);
+    ArrayList<ArrayBlockingQueue<DocumentFragment>> queues =
+      new ArrayList<ArrayBlockingQueue<DocumentFragment>>();
+    failure = null;
+    aborted = false;
+    try {
+      for (int i = 0; i < chunks.size(); i++)
+      {
+        boolean last = i == chunks.size() - 1;
+        ArrayBlockingQueue<DocumentFragment> queue = null;
+        if (ordered)
+        {
+          queue = new ArrayBlockingQueue<DocumentFragment>(QUEUE_SIZE);
+          queues.add(queue);
+        }
+        pool.execute(task(header, chunks.get(i), gzip,
+                          last ? new byte[0] : trailer, path, proc, queue));
+      }
+      for (ArrayBlockingQueue<DocumentFragment> queue: queues)
+      {
+        if (aborted)
+        {
+          break;
+        }
+        consume(queue, proc);
+      }
+      pool.shutdown();
+      while (!pool.awaitTermination(POLL_MILLIS, TimeUnit.MILLISECONDS))
+      {
+      }
+    }
+    catch (InterruptedException e)
+    {
+      aborted = true;
+      Thread.currentThread().interrupt();
+      throw new XMLProcessingException("interrupted", e);
+    }
+    finally
+    {
+      pool.shutdown();
+    }
+    if (failure != null)
+    {
+      rethrow(failure);
+    }
+  }
+
+  /**
+     Parse the fragments matching a path from a file.
+
+     In ordered mode, the processor is called in the calling thread in
+     document order. Otherwise, it is called concurrently from the parser
+     threads and must be thread-safe. The first exception thrown by a
+     processor or a parser stops the parse and is rethrown, checked
+     processor exceptions wrapped in an XMLProcessingException.
+
+     A parser can run only one parse at a time.
+
+     @param f The file
+     @param path A literal path of the records, such as
+                 "allCustomers/customer", without wildcards
+     @param proc The processor of the fragments
+   */
+  public synchronized void parse(File f, String path, FragmentProcessor proc)
+    throws ParserConfigurationException, SAXException, IOException
+  {
+    String[] tags = literalPath(path);
+    byte[] pattern = ("<" + tags[tags.length-1]).getBytes("UTF-8");
+    FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+    try {
+      long size = ch.size();
+      long[] bounds = boundaries(ch, size, pattern);
+      ArrayList<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+      if (bounds == null)
+      {
+        sequential(f, path, proc);
+        return;
+      }
+      for (int i = 0; i < bounds.length; i++)
+      {
+        long end = i == bounds.length - 1 ? size : bounds[i+1];
+        chunks.add(ch.map(FileChannel.MapMode.READ_ONLY,
+                          bounds[i], end - bounds[i]));
+      }
+      parseChunks(ch.map(FileChannel.MapMode.READ_ONLY, 0, bounds[0]),
+                  chunks, false, trailer(tags), path, proc);
+    }
+    finally
+    {
+      ch.close();
+    }
+  }
+  /**
+     Find the members of a file written by BlockGzipOutputStream.
+
+     @return The start positions of the members followed by the file size,
+             or null if the file is not such a file
+   */
+  private static long[] members(FileChannel ch, long size) throws IOException
+  {
+    ArrayList<Long> members = new ArrayList<Long>();
+    ByteBuffer buf = ByteBuffer.allocate(BlockGzipOutputStream.HEADER_SIZE);
+    long[] result;
+    long pos = 0;
+    buf.order(ByteOrder.LITTLE_ENDIAN);
+    while (pos < size)
+    {
+      long len;
+      buf.clear();
+      while (buf.hasRemaining())
+      {
+        if (ch.read(buf, pos + buf.position()) < 0)
+        {
+          return null;
+        }
+      }
+      len = BlockGzipOutputStream.memberSize(buf);
+      if (len <= 0 || len > MAX_CHUNK)
+      {
+        return null;
+      }
+      members.add(pos);
+      pos += len;
+    }
+    if (pos != size || members.size() < 2)
+    {
+      return null;
+    }
+    members.add(size);
+    result = new long[members.size()];
+    for (int i = 0; i < result.length; i++)
+    {
+      result[i] = members.get(i);
+    }
+    return result;
+  }
+  /**
+     Parse the fragments matching a path from a gzip file written by
+     BlockGzipOutputStream.
+
+     The first member holds everything before the first record and the other
+     members start at records, so the members are decompressed and parsed
+     in parallel. Other gzip files, including single-member ones, are
+     decompressed and parsed sequentially. Otherwise, this works like
+     parse(File, String, FragmentProcessor).
+
+     @param f The gzip file
+     @param path A literal path of the records, without wildcards
+     @param proc The processor of the fragments
+   */
+  public synchronized void parseGzip(File f, String path,
+                                     FragmentProcessor proc)
+    throws ParserConfigurationException, SAXException, IOException
+  {
+    String[] tags = literalPath(path);
+    FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+    try {
+      long[] members = members(ch, ch.size());
+      ArrayList<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+      ByteArrayOutputStream header = new ByteArrayOutputStream();
+      InputStream is;
+      byte[] buf = new byte[GZIP_BUFFER_SIZE];
+      int n;
+      if (members == null)
+      {
+        Handler h = new Handler();
+        h.onFragment(path, proc);
+        fact.newSAXParser().parse(ReadAheadInputStream.openGzip(f), h);
+        return;
+      }
+      for (int i = 1; i < members.length - 1; i++)
+      {
+        chunks.add(ch.map(FileChannel.MapMode.READ_ONLY,
+                          members[i], members[i+1] - members[i]));
+      }
+      is = new GZIPInputStream(new ByteBufferInputStream(
+          ch.map(FileChannel.MapMode.READ_ONLY, 0, members[1])));
+      try {
+        while ((n = is.read(buf)) >= 0)
+        {
+          header.write(buf, 0, n);
+        }
+      }
+      finally
+      {
+        is.close();
+      }
+      parseChunks(ByteBuffer.wrap(header.toByteArray()), chunks, true,
+                  trailer(tags), path, proc);
+    }
+    finally
+    {
+      ch.close();
+    }
+  }
+}
@@ -22,9 +22,15 @@
 package fi.iki.jmtilli.javaxmlfrag;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Map;
-import java.util.HashMap;
+import java.util.Optional;
+import java.util.OptionalDouble;
+import java.util.OptionalInt;
+import java.util.OptionalLong;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Writer;
 import java.io.StringWriter;
@@ -61,12 +67,43 @@ import javax.xml.transform.stream.StreamResult;
  */
 public class DocumentFragment {
   private final String tag;
-  private final String text;
-  private final ArrayList<DocumentFragment> children;
-  private final HashMap<String, String> attributes;
+  /*
+    Text of a text element, a String or a ParsedValue.
+   */
+  private final CharSequence text;
+  private ChildList children;
+  /*
+    Text of the only child when the element contains just one text node
+    and getChildren() has not been called. Always null when children is
+    non-null. Like text, may be a ParsedValue.
+   */
+  private CharSequence leafText;
+  /*
+    Inline text being appended by addTextChild while children is null.
+    Moved to leafText by flushText() before the text is read; never
+    exposed. Text appended after child elements is buffered by ChildList.
+   */
+  private StringBuilder pendingText;
+  private AttributeShape shape = AttributeShape.EMPTY;
+  /*
+    Attribute values, each a String or a ParsedValue caching its last
+    typed parse.
+   */
+  private CharSequence[] values = NO_VALUES;
+  private static final CharSequence[] NO_VALUES = new CharSequence[0];
+  private boolean frozen;
 
   /**
      Convert the XML to a string representation.
+
+     The fragment is written by a streaming serializer when the result has
+     a writer or an output stream, and through a DOM tree and the JDK
+     Transformer otherwise. The serializer indents like the Transformer of
+     JDK 9 to 17 on every JDK, so on other JDKs the indentation of mixed
+     content differs between the two. The serializer also rejects
+     characters that XML 1.0 does not allow, such as most control
+     characters, with a TransformerException where the Transformer writes
+     them as character references.
     
      @param document_type XMLDocumentType.WHOLE or FRAGMENT
      @param result The StreamResult
@@ -81,6 +118,25 @@ public class DocumentFragment {
     TransformerFactory tf;
     Transformer t;
 
+    if (result.getWriter() != null || result.getOutputStream() != null)
+    {
+      try {
+        if (result.getWriter() != null)
+        {
+          unparse(document_type, XMLIndentation.INDENT, result.getWriter());
+        }
+        else
+        {
+          unparse(document_type, XMLIndentation.INDENT,
+                  result.getOutputStream());
+        }
+      }
+      catch (IOException e)
+      {
+        throw new TransformerException(e);
+      }
+      return;
+    }
     bf = DocumentBuilderFactory.newInstance();
     b = bf.newDocumentBuilder();
     doc = b.newDocument();
@@ -131,6 +187,117 @@ public class DocumentFragment {
     unparse(document_type, w);
     return w.toString();
   }
+  /**
+     Write the XML as UTF-8 without building a DOM tree.
+
+     The stream is flushed but not closed.
+    
+     @param document_type XMLDocumentType.WHOLE or FRAGMENT
+     @param indentation XMLIndentation.INDENT or COMPACT
+     @param os An output stream
+     @throws IOException if writing fails or the XML contains a character
+                         that XML 1.0 does not allow
+   */
+  public void unparse(XMLDocumentType document_type,
+                      XMLIndentation indentation, OutputStream os)
+    throws IOException
+  {
+    unparse(document_type, new XMLSerializer(
+        os, indentation == XMLIndentation.INDENT));
+  }
+  /**
+     Write the XML without building a DOM tree.
+
+     The writer is flushed but not closed.
+    
+     @param document_type XMLDocumentType.WHOLE or FRAGMENT
+     @param indentation XMLIndentation.INDENT or COMPACT
+     @param w A writer
+     @throws IOException if writing fails or the XML contains a character
+                         that XML 1.0 does not allow
+   */
+  public void unparse(XMLDocumentType document_type,
+                      XMLIndentation indentation, Writer w)
+    throws IOException
+  {
+    unparse(document_type, new XMLSerializer(
+        w, indentation == XMLIndentation.INDENT));
+  }
+  /**
+     Convert the XML to a string representation without building a DOM
+     tree.
+    
+     @param document_type XMLDocumentType.WHOLE or FRAGMENT
+     @param indentation XMLIndentation.INDENT or COMPACT
+     @return The string representation
+     @throws XMLProcessingException if the XML contains a character that
+                                    XML 1.0 does not allow
+   */
+  public String unparseToString(XMLDocumentType document_type,
+                                XMLIndentation indentation)
+  {
+    StringWriter w = new StringWriter();
+    try {
+      unparse(document_type, indentation, w);
+    }
+    catch (IOException e)
+    {
+      throw new XMLProcessingException("unparse failed", e);
+    }
+    return w.toString();
+  }
+  private void unparse(XMLDocumentType document_type, XMLSerializer s)
+    throws IOException
+  {
+    if (isTextElement())
+    {
+      throw new IllegalStateException("text tags can't be unparsed");
+    }
+    s.startDocument(document_type == XMLDocumentType.WHOLE);
+    serialize(s);
+    s.endDocument();
+    s.flush();
+  }
+  /*
+    Write this element and its descendants to a serializer. Inline text
+    and lazily formatted values are passed as they are stored.
+   */
+  void serialize(XMLSerializer s) throws IOException
+  {
+    if (text != null)
+    {
+      s.text(text);
+      return;
+    }
+    serializeStart(s);
+    s.endElement(tag);
+  }
+  /*
+    Write the start tag and the contents of this element but leave the
+    element open.
+   */
+  void serializeStart(XMLSerializer s) throws IOException
+  {
+    int[] order;
+    flushText();
+    s.startElement(tag);
+    order = shape.sortedOrder();
+    for (int i = 0; i < order.length; i++)
+    {
+      s.attribute(shape.key(order[i]), values[order[i]]);
+    }
+    if (children != null)
+    {
+      for (int i = 0; i < children.size(); i++)
+      {
+        children.get(i).serialize(s);
+      }
+    }
+    else if (leafText != null)
+    {
+      s.text(leafText);
+    }
+  }
   /**
      Convert the XML to a DOM node.
     
@@ -142,14 +309,14 @@ public class DocumentFragment {
     Element e;
     if (text != null)
     {
-      return doc.createTextNode(text);
+      return doc.createTextNode(getText());
     }
     e = doc.createElement(tag);
     for (Map.Entry<String, String> entry: getAttributes().entrySet())
     {
       e.setAttribute(entry.getKey(), entry.getValue());
     }
-    for (DocumentFragment child: getChildren())
+    for (DocumentFragment child: childList())
     {
       e.appendChild(child.convertToDomNode(doc));
     }
@@ -162,7 +329,13 @@ public class DocumentFragment {
      an exception if called for a text element.
 
      NB: the caller may modify the map of attributes, but may not add
-     null keys or values to the map (this isn't enforced currently).
+     null keys or values to the map. For a frozen element the map is
+     read-only.
+
+     The returned map is a view of the element's attributes, which are
+     stored as a shape shared by elements having the same attribute
+     names and a plain array of values. Iteration order is the order in
+     which the attributes were added.
     
      @return modifiable attribute map
    */
@@ -172,7 +345,96 @@ public class DocumentFragment {
     {
       throw new IllegalStateException("text tags don't have attributes");
     }
-    return attributes;
+    return new AttributeMap(this);
+  }
+  int attrCount()
+  {
+    return shape.size();
+  }
+  int attrIndex(Object key)
+  {
+    return shape.indexOf(key);
+  }
+  String attrKey(int i)
+  {
+    return shape.key(i);
+  }
+  String attrValue(int i)
+  {
+    return values[i].toString();
+  }
+  String putAttr(String key, String value)
+  {
+    int i = shape.indexOf(key);
+    String old;
+    checkMutable();
+    if (i >= 0)
+    {
+      old = values[i].toString();
+      values[i] = value;
+      return old;
+    }
+    appendAttr(key, value);
+    return null;
+  }
+  private void appendAttr(String key, CharSequence value)
+  {
+    int i = values.length;
+    shape = shape.add(key);
+    values = Arrays.copyOf(values, i + 1);
+    values[i] = value;
+  }
+  /*
+    Set an attribute to a value formatted lazily.
+   */
+  private void setAttrValue(String attr, ParsedValue value)
+  {
+    int i;
+    if (attr == null)
+    {
+      throw new NullPointerException();
+    }
+    i = attrIndexChecked(attr);
+    checkMutable();
+    if (i >= 0)
+    {
+      values[i] = value;
+      return;
+    }
+    appendAttr(attr, value);
+  }
+  /*
+    Set the text of this element to a value formatted lazily.
+   */
+  private void setThisValue(ParsedValue value)
+  {
+    clearContents();
+    if (children == null)
+    {
+      leafText = value;
+    }
+    else
+    {
+      children.add(new DocumentFragment(null, value));
+    }
+  }
+  String removeAttrAt(int i)
+  {
+    String old = values[i].toString();
+    CharSequence[] newValues;
+    checkMutable();
+    newValues = new CharSequence[values.length - 1];
+    System.arraycopy(values, 0, newValues, 0, i);
+    System.arraycopy(values, i + 1, newValues, i, newValues.length - i);
+    shape = shape.remove(i);
+    values = newValues.length == 0 ? NO_VALUES : newValues;
+    return old;
+  }
+  void clearAttrs()
+  {
+    checkMutable();
+    shape = AttributeShape.EMPTY;
+    values = NO_VALUES;
   }
   /**
      Get the children of the element.
@@ -181,7 +443,9 @@ public class DocumentFragment {
      an exception if called for a text element.
 
      NB: the caller may modify the list of children, but may not add
-     null elements to the list (this isn't enforced currently).
+     null elements to the list.
+
+     For a frozen element the returned list is read-only.
     
      @return modifiable children list
    */
@@ -191,6 +455,43 @@ public class DocumentFragment {
     {
       throw new IllegalStateException("text tags don't have children");
     }
+    flushText();
+    if (children == null)
+    {
+      if (frozen)
+      {
+        return childList();
+      }
+      children = new ChildList();
+      if (leafText != null)
+      {
+        children.add(newText(leafString()));
+        leafText = null;
+      }
+    }
+    return children;
+  }
+  /**
+     Get the children for reading without allocating a list.
+
+     Text elements and elements that never had children share the same
+     immutable empty list.
+   */
+  private List<DocumentFragment> childList()
+  {
+    flushText();
+    if (children == null)
+    {
+      if (isTextElement())
+      {
+        throw new IllegalStateException("text tags don't have children");
+      }
+      if (leafText != null)
+      {
+        return Collections.singletonList(newText(leafString()));
+      }
+      return Collections.<DocumentFragment>emptyList();
+    }
     return children;
   }
   /**
@@ -207,7 +508,7 @@ public class DocumentFragment {
   public List<DocumentFragment> getNonTextChildren()
   {
     List<DocumentFragment> nonText = new ArrayList<DocumentFragment>();
-    for (DocumentFragment frag: getChildren())
+    for (DocumentFragment frag: childList())
     {
       if (!frag.isTextElement())
       {
@@ -275,7 +576,7 @@ public class DocumentFragment {
    */
   public void setAttrByte(String attr, byte val)
   {
-    setAttrString(attr, ""+val);
+    setAttrValue(attr, ParsedValue.ofInt(val));
   }
   /**
      Set a short attribute.
@@ -288,7 +589,7 @@ public class DocumentFragment {
    */
   public void setAttrShort(String attr, short val)
   {
-    setAttrString(attr, ""+val);
+    setAttrValue(attr, ParsedValue.ofInt(val));
   }
   /**
      Set an int attribute.
@@ -301,7 +602,7 @@ public class DocumentFragment {
    */
   public void setAttrInt(String attr, int val)
   {
-    setAttrString(attr, ""+val);
+    setAttrValue(attr, ParsedValue.ofInt(val));
   }
   /**
      Set a long attribute.
@@ -314,7 +615,7 @@ public class DocumentFragment {
    */
   public void setAttrLong(String attr, long val)
   {
-    setAttrString(attr, ""+val);
+    setAttrValue(attr, ParsedValue.ofLong(val));
   }
   /**
      Set a float attribute.
@@ -327,7 +628,7 @@ public class DocumentFragment {
    */
   public void setAttrFloat(String attr, float val)
   {
-    setAttrString(attr, ""+val);
+    setAttrValue(attr, ParsedValue.ofFloat(val));
   }
   /**
      Set a double attribute.
@@ -340,7 +641,7 @@ public class DocumentFragment {
    */
   public void setAttrDouble(String attr, double val)
   {
-    setAttrString(attr, ""+val);
+    setAttrValue(attr, ParsedValue.ofDouble(val));
   }
   /**
      Set a byte attribute or remove the attribute.
@@ -495,6 +796,7 @@ public class DocumentFragment {
     {
       throw new NullPointerException();
     }
+    checkMutable();
     getChildren().add(child);
   }
   /**
@@ -520,7 +822,10 @@ public class DocumentFragment {
   /**
      Convenience method for adding a text child.
 
-     Will coalesce multiple consecutive text children into one.
+     Will coalesce multiple consecutive text children into one. The
+     coalesced text is kept in a buffer until the children are next read,
+     so adding many chunks in a row takes time linear in the total length
+     of the text. Existing text nodes are replaced, not modified.
 
      Note that text elements do not have children, so this will throw
      an exception if called for a text element.
@@ -529,13 +834,231 @@ public class DocumentFragment {
    */
   public void addTextChild(String text)
   {
-    List<DocumentFragment> children = getChildren();
-    while (   !children.isEmpty()
-           &&  children.get(children.size() - 1).isTextElement())
+    StringBuilder sb;
+    if (isTextElement())
+    {
+      throw new IllegalStateException("text tags don't have children");
+    }
+    if (text == null)
+    {
+      throw new NullPointerException();
+    }
+    checkMutable();
+    if (children != null)
+    {
+      children.appendText(text);
+      return;
+    }
+    if (pendingText != null)
+    {
+      pendingText.append(text);
+      return;
+    }
+    if (leafText == null)
+    {
+      leafText = text;
+      return;
+    }
+    sb = new StringBuilder(2*(leafText.length() + text.length()));
+    sb.append(leafText);
+    sb.append(text);
+    leafText = null;
+    pendingText = sb;
+  }
+  /*
+    Move the inline text buffered by addTextChild to leafText.
+   */
+  private void flushText()
+  {
+    StringBuilder sb = pendingText;
+    if (sb != null)
+    {
+      pendingText = null;
+      leafText = sb.toString();
+    }
+  }
+  /**
+     Get the inline text of the element as a String.
+
+     @return The text or null if the text is not stored inline
+   */
+  private String leafString()
+  {
+    CharSequence t;
+    flushText();
+    t = leafText;
+    return t == null ? null : t.toString();
+  }
+  /*
+    Typed parses of the text of this element. The text s is the String
+    returned by a string getter of this element; if it is the inline
+    leaf text, the parse is cached in leafText.
+   */
+  private ParsedValue leafParsed(String s, int kind)
+  {
+    CharSequence t = leafText;
+    if (t instanceof ParsedValue)
+    {
+      ParsedValue pv = (ParsedValue)t;
+      if (pv.kind == kind && pv.toString() == s)
+      {
+        return pv;
+      }
+    }
+    return null;
+  }
+  private void leafCache(ParsedValue pv)
+  {
+    CharSequence t = leafText;
+    if (t == pv.toString() ||
+        (t instanceof ParsedValue && t.toString() == pv.toString()))
+    {
+      leafText = pv;
+    }
+  }
+  private int intValue(String s)
+  {
+    ParsedValue pv = leafParsed(s, ParsedValue.INT);
+    if (pv == null)
+    {
+      pv = ParsedValue.ofInt(s, XMLNumbers.parseInt(s));
+      leafCache(pv);
+    }
+    return pv.intValue();
+  }
+  private long longValue(String s)
+  {
+    ParsedValue pv = leafParsed(s, ParsedValue.LONG);
+    if (pv == null)
+    {
+      pv = ParsedValue.ofLong(s, XMLNumbers.parseLong(s));
+      leafCache(pv);
+    }
+    return pv.longValue();
+  }
+  private float floatValue(String s)
+  {
+    ParsedValue pv = leafParsed(s, ParsedValue.FLOAT);
+    if (pv == null)
+    {
+      pv = ParsedValue.ofFloat(s, XMLNumbers.parseFloat(s));
+      leafCache(pv);
+    }
+    return pv.floatValue();
+  }
+  private double doubleValue(String s)
+  {
+    ParsedValue pv = leafParsed(s, ParsedValue.DOUBLE);
+    if (pv == null)
+    {
+      pv = ParsedValue.ofDouble(s, XMLNumbers.parseDouble(s));
+      leafCache(pv);
+    }
+    return pv.doubleValue();
+  }
+  private int intValue()
+  {
+    return intValue(getThisStringObjectEmptyIsEmpty());
+  }
+  private long longValue()
+  {
+    return longValue(getThisStringObjectEmptyIsEmpty());
+  }
+  private float floatValue()
+  {
+    return floatValue(getThisStringObjectEmptyIsEmpty());
+  }
+  private double doubleValue()
+  {
+    return doubleValue(getThisStringObjectEmptyIsEmpty());
+  }
+  /*
+    Typed parses of attribute values, cached in the values array.
+   */
+  private int attrIntValue(int i)
+  {
+    CharSequence v = values[i];
+    ParsedValue pv;
+    if (v instanceof ParsedValue && ((ParsedValue)v).kind == ParsedValue.INT)
+    {
+      return ((ParsedValue)v).intValue();
+    }
+    pv = ParsedValue.ofInt(v.toString(), XMLNumbers.parseInt(v.toString()));
+    values[i] = pv;
+    return pv.intValue();
+  }
+  private long attrLongValue(int i)
+  {
+    CharSequence v = values[i];
+    ParsedValue pv;
+    if (v instanceof ParsedValue && ((ParsedValue)v).kind == ParsedValue.LONG)
+    {
+      return ((ParsedValue)v).longValue();
+    }
+    pv = ParsedValue.ofLong(v.toString(),
+                            XMLNumbers.parseLong(v.toString()));
+    values[i] = pv;
+    return pv.longValue();
+  }
+  private float attrFloatValue(int i)
+  {
+    CharSequence v = values[i];
+    ParsedValue pv;
+    if (v instanceof ParsedValue &&
+        ((ParsedValue)v).kind == ParsedValue.FLOAT)
+    {
+      return ((ParsedValue)v).floatValue();
+    }
+    pv = ParsedValue.ofFloat(v.toString(),
+                             XMLNumbers.parseFloat(v.toString()));
+    values[i] = pv;
+    return pv.floatValue();
+  }
+  private double attrDoubleValue(int i)
+  {
+    CharSequence v = values[i];
+    ParsedValue pv;
+    if (v instanceof ParsedValue &&
+        ((ParsedValue)v).kind == ParsedValue.DOUBLE)
+    {
+      return ((ParsedValue)v).doubleValue();
+    }
+    pv = ParsedValue.ofDouble(v.toString(),
+                              XMLNumbers.parseDouble(v.toString()));
+    values[i] = pv;
+    return pv.doubleValue();
+  }
+  /*
+    Find an attribute, throwing for text elements like getAttributes().
+   */
+  private int attrIndexChecked(String attr)
+  {
+    if (isTextElement())
+    {
+      throw new IllegalStateException("text tags don't have attributes");
+    }
+    return attrIndex(attr);
+  }
+  private int attrIndexNotNull(String attr)
+  {
+    int i = attrIndexChecked(attr);
+    if (i < 0)
+    {
+      throw new XMLValueMissingException("no such attribute: " + attr);
+    }
+    return i;
+  }
+  /*
+    Get the child holding a value, throwing like getStringNotNull.
+   */
+  private DocumentFragment getValueElement(String element)
+  {
+    DocumentFragment e = get(element);
+    if (e == null)
     {
-      text = children.remove(children.size() - 1).getText() + text;
+      throw new XMLValueMissingException("no such tag: " + element);
     }
-    addChild(newText(text));
+    return e;
   }
   /**
      Test whether this element is a text element.
@@ -546,6 +1069,53 @@ public class DocumentFragment {
   {
     return text != null;
   }
+  /**
+     Make this element and its descendants read-only.
+
+     The lists of children are trimmed to their exact size. Afterwards
+     all mutators, including those of the lists and maps returned by
+     getChildren() and getAttributes(), throw
+     UnsupportedOperationException. The getters of a frozen tree only
+     replace a value by an immutable holder of the same value and its
+     parsed number, so once the tree has been safely published it can be
+     read by multiple threads without synchronization.
+
+     @return This element
+   */
+  public DocumentFragment freeze()
+  {
+    if (frozen)
+    {
+      return this;
+    }
+    flushText();
+    if (children != null)
+    {
+      children.freeze();
+      for (DocumentFragment child: children)
+      {
+        child.freeze();
+      }
+    }
+    frozen = true;
+    return this;
+  }
+  /**
+     Test whether this element has been frozen.
+
+     @return Whether freeze() has been called
+   */
+  public boolean isFrozen()
+  {
+    return frozen;
+  }
+  private void checkMutable()
+  {
+    if (frozen)
+    {
+      throw new UnsupportedOperationException("frozen fragment");
+    }
+  }
   /**
      Return the text of the element.
     
@@ -555,7 +1125,7 @@ public class DocumentFragment {
    */
   public String getText()
   {
-    return text;
+    return text == null ? null : text.toString();
   }
   /**
      Construct a text element.
@@ -563,7 +1133,7 @@ public class DocumentFragment {
      @param tag Placeholder, must be null.
      @param text The text of the text element.
    */
-  private DocumentFragment(String tag, String text)
+  private DocumentFragment(String tag, CharSequence text)
   {
     // tag is placeholder
     if (tag != null)
@@ -576,8 +1146,6 @@ public class DocumentFragment {
     }
     this.tag = null;
     this.text = text;
-    this.children = new ArrayList<DocumentFragment>();
-    this.attributes = new HashMap<String, String>();
   }
   /**
      Construct a text element.
@@ -601,8 +1169,6 @@ public class DocumentFragment {
     }
     this.tag = tag;
     this.text = null;
-    this.children = new ArrayList<DocumentFragment>();
-    this.attributes = new HashMap<String, String>();
   }
   /**
      Construct an element with no children
@@ -619,8 +1185,7 @@ public class DocumentFragment {
     }
     this.tag = tag;
     this.text = null;
-    this.children = new ArrayList<DocumentFragment>();
-    this.attributes = new HashMap<String, String>(attributes);
+    getAttributes().putAll(attributes);
   }
   /**
      Construct an element with no attributes
@@ -637,8 +1202,10 @@ public class DocumentFragment {
     }
     this.tag = tag;
     this.text = null;
-    this.children = new ArrayList<DocumentFragment>(children);
-    this.attributes = new HashMap<String, String>();
+    if (!children.isEmpty())
+    {
+      this.children = new ChildList(children);
+    }
   }
   /**
      Construct an element
@@ -657,8 +1224,11 @@ public class DocumentFragment {
     }
     this.tag = tag;
     this.text = null;
-    this.children = new ArrayList<DocumentFragment>(children);
-    this.attributes = new HashMap<String, String>(attributes);
+    if (!children.isEmpty())
+    {
+      this.children = new ChildList(children);
+    }
+    getAttributes().putAll(attributes);
   }
   /**
      Get the tag name of the element.
@@ -670,26 +1240,137 @@ public class DocumentFragment {
     return tag;
   }
   /**
-     Get a list of children with the specified tag
+     Get a list of children with the specified tag
+
+     @param tag The specified tag
+     @return The list of children with the specified tag
+   */
+  public ArrayList<DocumentFragment> getMulti(String tag)
+  {
+    ArrayList<DocumentFragment> l = new ArrayList<DocumentFragment>();
+    DocumentFragment[] indexed;
+    if (tag == null)
+    {
+      throw new NullPointerException();
+    }
+    indexed = lookup(tag);
+    if (indexed != null)
+    {
+      l.addAll(Arrays.asList(indexed));
+      return l;
+    }
+    for (DocumentFragment child: childList())
+    {
+      if (tag.equals(child.getTag()))
+      {
+        l.add(child);
+      }
+    }
+    return l;
+  }
+  /**
+     Get the number of children with the specified tag.
+
+     @param tag The specified tag
+     @return The number of children with the specified tag
+   */
+  public int getMultiCount(String tag)
+  {
+    DocumentFragment[] indexed;
+    int n = 0;
+    if (tag == null)
+    {
+      throw new NullPointerException();
+    }
+    indexed = lookup(tag);
+    if (indexed != null)
+    {
+      return indexed.length;
+    }
+    for (DocumentFragment child: childList())
+    {
+      if (tag.equals(child.getTag()))
+      {
+        n++;
+      }
+    }
+    return n;
+  }
+  /**
+     Get a child with the specified tag by position.
+
+     Together with getMultiCount, iterates over the children with a tag
+     without copying them to a list:
+     <pre>
+     for (int i = 0; i < f.getMultiCount("customer"); i++)
+     {
+       DocumentFragment customer = f.getMulti("customer", i);
+     }
+     </pre>
 
      @param tag The specified tag
-     @return The list of children with the specified tag
+     @param i The position among the children with the specified tag
+     @return The i:th child with the specified tag
    */
-  public ArrayList<DocumentFragment> getMulti(String tag)
+  public DocumentFragment getMulti(String tag, int i)
   {
-    ArrayList<DocumentFragment> l = new ArrayList<DocumentFragment>();
+    DocumentFragment[] indexed;
+    int n = 0;
     if (tag == null)
     {
       throw new NullPointerException();
     }
-    for (DocumentFragment child: getChildren())
+    indexed = lookup(tag);
+    if (indexed != null)
     {
-      if (tag.equals(child.getTag()))
+      if (i < 0 || i >= indexed.length)
       {
-        l.add(child);
+        throw new IndexOutOfBoundsException("index " + i + ", count " +
+                                            indexed.length);
       }
+      return indexed[i];
     }
-    return l;
+    for (DocumentFragment child: childList())
+    {
+      if (tag.equals(child.getTag()) && n++ == i)
+      {
+        return child;
+      }
+    }
+    throw new IndexOutOfBoundsException("index " + i + ", count " + n);
+  }
+  /**
+     Find the children with a tag by the tag index.
+
+     The index is built for elements having many children when the same
+     version of the child list is searched the second time, and thrown
+     away when the list is modified.
+
+     @param tag The specified tag
+     @return The children with the tag or null if there is no index
+   */
+  private DocumentFragment[] lookup(String tag)
+  {
+    ChildList c = children;
+    TagIndex idx;
+    int version;
+    if (c == null || c.size() < TagIndex.THRESHOLD)
+    {
+      return null;
+    }
+    idx = c.getIndex();
+    version = c.version();
+    if (idx == null || idx.version() != version)
+    {
+      idx = frozen ? new TagIndex(c, version) : new TagIndex(version);
+      c.setIndex(idx);
+    }
+    else if (!idx.isBuilt())
+    {
+      idx = new TagIndex(c, version);
+      c.setIndex(idx);
+    }
+    return idx.isBuilt() ? idx.get(tag) : null;
   }
   /**
      Get the only child with the specified tag.
@@ -703,11 +1384,22 @@ public class DocumentFragment {
   public DocumentFragment get(String tag)
   {
     DocumentFragment f = null;
+    DocumentFragment[] indexed;
     if (tag == null)
     {
       throw new NullPointerException();
     }
-    for (DocumentFragment child: getChildren())
+    indexed = lookup(tag);
+    if (indexed != null)
+    {
+      if (indexed.length > 1)
+      {
+        throw new XMLMultipleElementsException("multiple elements having" +
+                                               " tag " + tag);
+      }
+      return indexed.length == 0 ? null : indexed[0];
+    }
+    for (DocumentFragment child: childList())
     {
       if (!tag.equals(child.getTag()))
       {
@@ -764,11 +1456,28 @@ public class DocumentFragment {
    */
   public List<DocumentFragment> removeAll()
   {
-    List<DocumentFragment> children = getChildren();
-    List<DocumentFragment> removed = new ArrayList<DocumentFragment>(children);
-    children.clear();
+    List<DocumentFragment> removed =
+      new ArrayList<DocumentFragment>(childList());
+    clearContents();
     return removed;
   }
+  private void clearContents()
+  {
+    if (isTextElement())
+    {
+      throw new IllegalStateException("text tags don't have children");
+    }
+    checkMutable();
+    pendingText = null;
+    if (children == null)
+    {
+      leafText = null;
+    }
+    else if (!children.isEmpty())
+    {
+      children.clear();
+    }
+  }
   /**
      Remove and get a list of children with the specified tag
 
@@ -783,7 +1492,8 @@ public class DocumentFragment {
     {
       throw new NullPointerException();
     }
-    for (DocumentFragment child: getChildren())
+    checkMutable();
+    for (DocumentFragment child: childList())
     {
       if (!tag.equals(child.getTag()))
       {
@@ -794,8 +1504,11 @@ public class DocumentFragment {
         removed.add(child);
       }
     }
-    this.children.clear();
-    this.children.addAll(new_children);
+    if (!removed.isEmpty())
+    {
+      this.children.clear();
+      this.children.addAll(new_children);
+    }
     return removed;
   }
   /**
@@ -809,7 +1522,7 @@ public class DocumentFragment {
    */
   public DocumentFragment remove(String tag)
   {
-    List<DocumentFragment> children = getChildren();
+    List<DocumentFragment> children = childList();
     int saved_i = -1;
     int i = 0;
     final int num_children = children.size();
@@ -818,6 +1531,7 @@ public class DocumentFragment {
     {
       throw new NullPointerException();
     }
+    checkMutable();
     while (it.hasNext())
     {
       DocumentFragment frag = it.next();
@@ -861,14 +1575,12 @@ public class DocumentFragment {
    */
   public byte getAttrByte(String attr, byte default_value)
   {
-    try
-    {
-      return Byte.parseByte(getAttrStringNotNull(attr));
-    }
-    catch(XMLValueMissingException e)
+    String s = getAttrStringObject(attr);
+    if (s == null)
     {
       return default_value;
     }
+    return Byte.parseByte(s);
   }
   /**
      Get a byte attribute or null
@@ -878,14 +1590,12 @@ public class DocumentFragment {
    */
   public Byte getAttrByteObject(String attr)
   {
-    try
-    {
-      return Byte.valueOf(getAttrStringNotNull(attr));
-    }
-    catch(XMLValueMissingException e)
+    String s = getAttrStringObject(attr);
+    if (s == null)
     {
       return null;
     }
+    return Byte.valueOf(s);
   }
   /**
      Get a short attribute that must be non-null.
@@ -908,14 +1618,12 @@ public class DocumentFragment {
    */
   public short getAttrShort(String attr, short default_value)
   {
-    try
-    {
-      return Short.parseShort(getAttrStringNotNull(attr));
-    }
-    catch(XMLValueMissingException e)
+    String s = getAttrStringObject(attr);
+    if (s == null)
     {
       return default_value;
     }
+    return Short.parseShort(s);
   }
   /**
      Get a short attribute or null
@@ -925,14 +1633,12 @@ public class DocumentFragment {
    */
   public Short getAttrShortObject(String attr)
   {
-    try
-    {
-      return Short.valueOf(getAttrStringNotNull(attr));
-    }
-    catch(XMLValueMissingException e)
+    String s = getAttrStringObject(attr);
+    if (s == null)
     {
       return null;
     }
+    return Short.valueOf(s);
   }
   /**
      Get an integer attribute that must be non-null.
@@ -944,7 +1650,7 @@ public class DocumentFragment {
    */
   public int getAttrIntNotNull(String attr)
   {
-    return Integer.parseInt(getAttrStringNotNull(attr));
+    return attrIntValue(attrIndexNotNull(attr));
   }
   /**
      Get an integer attribute
@@ -955,14 +1661,12 @@ public class DocumentFragment {
    */
   public int getAttrInt(String attr, int default_value)
   {
-    try
-    {
-      return Integer.parseInt(getAttrStringNotNull(attr));
-    }
-    catch(XMLValueMissingException e)
+    int i = attrIndexChecked(attr);
+    if (i < 0)
     {
       return default_value;
     }
+    return attrIntValue(i);
   }
   /**
      Get an integer attribute or null
@@ -972,14 +1676,29 @@ public class DocumentFragment {
    */
   public Integer getAttrIntObject(String attr)
   {
-    try
+    int i = attrIndexChecked(attr);
+    if (i < 0)
     {
-      return Integer.valueOf(getAttrStringNotNull(attr));
+      return null;
     }
-    catch(XMLValueMissingException e)
+    return Integer.valueOf(attrIntValue(i));
+  }
+  /**
+     Get an integer attribute if it exists.
+
+     Unlike getAttrIntNotNull, does not throw if the attribute is missing.
+
+     @param attr The attribute name
+     @return The value of the attribute as an integer or empty if nonexistent
+   */
+  public OptionalInt getAttrIntOptional(String attr)
+  {
+    int i = attrIndexChecked(attr);
+    if (i < 0)
     {
-      return null;
+      return OptionalInt.empty();
     }
+    return OptionalInt.of(attrIntValue(i));
   }
   /**
      Get a long attribute that must be non-null.
@@ -991,7 +1710,7 @@ public class DocumentFragment {
    */
   public long getAttrLongNotNull(String attr)
   {
-    return Long.parseLong(getAttrStringNotNull(attr));
+    return attrLongValue(attrIndexNotNull(attr));
   }
   /**
      Get a long attribute
@@ -1002,14 +1721,12 @@ public class DocumentFragment {
    */
   public long getAttrLong(String attr, long default_value)
   {
-    try
-    {
-      return Long.parseLong(getAttrStringNotNull(attr));
-    }
-    catch(XMLValueMissingException e)
+    int i = attrIndexChecked(attr);
+    if (i < 0)
     {
       return default_value;
     }
+    return attrLongValue(i);
   }
   /**
      Get a long attribute or null
@@ -1019,14 +1736,29 @@ public class DocumentFragment {
    */
   public Long getAttrLongObject(String attr)
   {
-    try
+    int i = attrIndexChecked(attr);
+    if (i < 0)
     {
-      return Long.valueOf(getAttrStringNotNull(attr));
+      return null;
     }
-    catch(XMLValueMissingException e)
+    return Long.valueOf(attrLongValue(i));
+  }
+  /**
+     Get a long attribute if it exists.
+
+     Unlike getAttrLongNotNull, does not throw if the attribute is missing.
+
+     @param attr The attribute name
+     @return The value of the attribute as a long or empty if nonexistent
+   */
+  public OptionalLong getAttrLongOptional(String attr)
+  {
+    int i = attrIndexChecked(attr);
+    if (i < 0)
     {
-      return null;
+      return OptionalLong.empty();
     }
+    return OptionalLong.of(attrLongValue(i));
   }
   /**
      Get a float attribute that must be non-null.
@@ -1038,7 +1770,7 @@ public class DocumentFragment {
    */
   public float getAttrFloatNotNull(String attr)
   {
-    return Float.parseFloat(getAttrStringNotNull(attr));
+    return attrFloatValue(attrIndexNotNull(attr));
   }
   /**
      Get a float attribute
@@ -1049,14 +1781,12 @@ public class DocumentFragment {
    */
   public float getAttrFloat(String attr, float default_value)
   {
-    try
-    {
-      return Float.parseFloat(getAttrStringNotNull(attr));
-    }
-    catch(XMLValueMissingException e)
+    int i = attrIndexChecked(attr);
+    if (i < 0)
     {
       return default_value;
     }
+    return attrFloatValue(i);
   }
   /**
      Get a float attribute or null
@@ -1066,14 +1796,12 @@ public class DocumentFragment {
    */
   public Float getAttrFloatObject(String attr)
   {
-    try
-    {
-      return Float.valueOf(getAttrStringNotNull(attr));
-    }
-    catch(XMLValueMissingException e)
+    int i = attrIndexChecked(attr);
+    if (i < 0)
     {
       return null;
     }
+    return Float.valueOf(attrFloatValue(i));
   }
   /**
      Get a double attribute that must be non-null.
@@ -1085,7 +1813,7 @@ public class DocumentFragment {
    */
   public double getAttrDoubleNotNull(String attr)
   {
-    return Double.parseDouble(getAttrStringNotNull(attr));
+    return attrDoubleValue(attrIndexNotNull(attr));
   }
   /**
      Get a double attribute
@@ -1096,14 +1824,12 @@ public class DocumentFragment {
    */
   public double getAttrDouble(String attr, double default_value)
   {
-    try
-    {
-      return Double.parseDouble(getAttrStringNotNull(attr));
-    }
-    catch(XMLValueMissingException e)
+    int i = attrIndexChecked(attr);
+    if (i < 0)
     {
       return default_value;
     }
+    return attrDoubleValue(i);
   }
   /**
      Get a double attribute or null
@@ -1113,14 +1839,29 @@ public class DocumentFragment {
    */
   public Double getAttrDoubleObject(String attr)
   {
-    try
+    int i = attrIndexChecked(attr);
+    if (i < 0)
     {
-      return Double.valueOf(getAttrStringNotNull(attr));
+      return null;
     }
-    catch(XMLValueMissingException e)
+    return Double.valueOf(attrDoubleValue(i));
+  }
+  /**
+     Get a double attribute if it exists.
+
+     Unlike getAttrDoubleNotNull, does not throw if the attribute is missing.
+
+     @param attr The attribute name
+     @return The value of the attribute as a double or empty if nonexistent
+   */
+  public OptionalDouble getAttrDoubleOptional(String attr)
+  {
+    int i = attrIndexChecked(attr);
+    if (i < 0)
     {
-      return null;
+      return OptionalDouble.empty();
     }
+    return OptionalDouble.of(attrDoubleValue(i));
   }
   /**
      Get a string attribute that must be non-null.
@@ -1135,7 +1876,7 @@ public class DocumentFragment {
     String result = getAttrStringObject(attr);
     if (result == null)
     {
-      throw new XMLValueMissingException();
+      throw new XMLValueMissingException("no such attribute: " + attr);
     }
     return result;
   }
@@ -1163,7 +1904,25 @@ public class DocumentFragment {
    */
   public String getAttrStringObject(String attr)
   {
-    return getAttributes().get(attr);
+    int i = attrIndexChecked(attr);
+    return i < 0 ? null : attrValue(i);
+  }
+  /**
+     Get a string attribute if it exists.
+
+     Unlike getAttrStringNotNull, does not throw if the attribute is missing.
+
+     @param attr The attribute name
+     @return The value of the attribute as a string or empty if nonexistent
+   */
+  public Optional<String> getAttrStringOptional(String attr)
+  {
+    String s = getAttrStringObject(attr);
+    if (s == null)
+    {
+      return Optional.<String>empty();
+    }
+    return Optional.of(s);
   }
 
 
@@ -1184,14 +1943,12 @@ public class DocumentFragment {
    */
   public byte getThisByte(byte default_value)
   {
-    try
-    {
-      return Byte.parseByte(getThisStringNotEmpty());
-    }
-    catch(XMLValueMissingException e)
+    String s = getThisStringObjectEmptyIsNull();
+    if (s == null)
     {
       return default_value;
     }
+    return Byte.parseByte(s);
   }
   /**
      Get a byte text in this element or null.
@@ -1200,14 +1957,12 @@ public class DocumentFragment {
    */
   public Byte getThisByteObject()
   {
-    try
-    {
-      return Byte.valueOf(getThisStringNotEmpty());
-    }
-    catch(XMLValueMissingException e)
+    String s = getThisStringObjectEmptyIsNull();
+    if (s == null)
     {
       return null;
     }
+    return Byte.valueOf(s);
   }
   /**
      Get a short text that must be non-null in this element.
@@ -1226,14 +1981,12 @@ public class DocumentFragment {
    */
   public short getThisShort(short default_value)
   {
-    try
-    {
-      return Short.parseShort(getThisStringNotEmpty());
-    }
-    catch(XMLValueMissingException e)
+    String s = getThisStringObjectEmptyIsNull();
+    if (s == null)
     {
       return default_value;
     }
+    return Short.parseShort(s);
   }
   /**
      Get a short text in this element or null.
@@ -1242,14 +1995,12 @@ public class DocumentFragment {
    */
   public Short getThisShortObject()
   {
-    try
-    {
-      return Short.valueOf(getThisStringNotEmpty());
-    }
-    catch(XMLValueMissingException e)
+    String s = getThisStringObjectEmptyIsNull();
+    if (s == null)
     {
       return null;
     }
+    return Short.valueOf(s);
   }
   /**
      Get an integer text that must be non-null in this element.
@@ -1258,7 +2009,7 @@ public class DocumentFragment {
    */
   public int getThisIntNotNull()
   {
-    return Integer.parseInt(getThisStringNotEmpty());
+    return intValue(getThisStringNotEmpty());
   }
   /**
      Get an integer text in this element.
@@ -1268,14 +2019,12 @@ public class DocumentFragment {
    */
   public int getThisInt(int default_value)
   {
-    try
-    {
-      return Integer.parseInt(getThisStringNotEmpty());
-    }
-    catch(XMLValueMissingException e)
+    String s = getThisStringObjectEmptyIsNull();
+    if (s == null)
     {
       return default_value;
     }
+    return intValue(s);
   }
   /**
      Get an integer text in this element or null.
@@ -1284,14 +2033,28 @@ public class DocumentFragment {
    */
   public Integer getThisIntObject()
   {
-    try
+    String s = getThisStringObjectEmptyIsNull();
+    if (s == null)
     {
-      return Integer.valueOf(getThisStringNotEmpty());
+      return null;
     }
-    catch(XMLValueMissingException e)
+    return Integer.valueOf(intValue(s));
+  }
+  /**
+     Get an integer text in this element if it is non-empty.
+
+     Unlike getThisIntNotNull, does not throw if the text is empty.
+    
+     @return The value of the text as an integer or empty
+   */
+  public OptionalInt getThisIntOptional()
+  {
+    String s = getThisStringObjectEmptyIsNull();
+    if (s == null)
     {
-      return null;
+      return OptionalInt.empty();
     }
+    return OptionalInt.of(intValue(s));
   }
   /**
      Get a long text that must be non-null in this element.
@@ -1300,7 +2063,7 @@ public class DocumentFragment {
    */
   public long getThisLongNotNull()
   {
-    return Long.parseLong(getThisStringNotEmpty());
+    return longValue(getThisStringNotEmpty());
   }
   /**
      Get a long text in this element.
@@ -1310,14 +2073,12 @@ public class DocumentFragment {
    */
   public long getThisLong(long default_value)
   {
-    try
-    {
-      return Long.parseLong(getThisStringNotEmpty());
-    }
-    catch(XMLValueMissingException e)
+    String s = getThisStringObjectEmptyIsNull();
+    if (s == null)
     {
       return default_value;
     }
+    return longValue(s);
   }
   /**
      Get a long text in this element or null.
@@ -1326,14 +2087,28 @@ public class DocumentFragment {
    */
   public Long getThisLongObject()
   {
-    try
+    String s = getThisStringObjectEmptyIsNull();
+    if (s == null)
     {
-      return Long.valueOf(getThisStringNotEmpty());
+      return null;
     }
-    catch(XMLValueMissingException e)
+    return Long.valueOf(longValue(s));
+  }
+  /**
+     Get a long text in this element if it is non-empty.
+
+     Unlike getThisLongNotNull, does not throw if the text is empty.
+    
+     @return The value of the text as a long or empty
+   */
+  public OptionalLong getThisLongOptional()
+  {
+    String s = getThisStringObjectEmptyIsNull();
+    if (s == null)
     {
-      return null;
+      return OptionalLong.empty();
     }
+    return OptionalLong.of(longValue(s));
   }
   /**
      Get a float text that must be non-null in this element.
@@ -1342,7 +2117,7 @@ public class DocumentFragment {
    */
   public float getThisFloatNotNull()
   {
-    return Float.parseFloat(getThisStringNotEmpty());
+    return floatValue(getThisStringNotEmpty());
   }
   /**
      Get a float text in this element.
@@ -1352,14 +2127,12 @@ public class DocumentFragment {
    */
   public float getThisFloat(float default_value)
   {
-    try
-    {
-      return Float.parseFloat(getThisStringNotEmpty());
-    }
-    catch(XMLValueMissingException e)
+    String s = getThisStringObjectEmptyIsNull();
+    if (s == null)
     {
       return default_value;
     }
+    return floatValue(s);
   }
   /**
      Get a float text in this element or null.
@@ -1368,14 +2141,12 @@ public class DocumentFragment {
    */
   public Float getThisFloatObject()
   {
-    try
-    {
-      return Float.valueOf(getThisStringNotEmpty());
-    }
-    catch(XMLValueMissingException e)
+    String s = getThisStringObjectEmptyIsNull();
+    if (s == null)
     {
       return null;
     }
+    return Float.valueOf(floatValue(s));
   }
   /**
      Get a double text that must be non-null in this element.
@@ -1384,7 +2155,7 @@ public class DocumentFragment {
    */
   public double getThisDoubleNotNull()
   {
-    return Double.parseDouble(getThisStringNotEmpty());
+    return doubleValue(getThisStringNotEmpty());
   }
   /**
      Get a double text in this element.
@@ -1394,14 +2165,12 @@ public class DocumentFragment {
    */
   public double getThisDouble(double default_value)
   {
-    try
-    {
-      return Double.parseDouble(getThisStringNotEmpty());
-    }
-    catch(XMLValueMissingException e)
+    String s = getThisStringObjectEmptyIsNull();
+    if (s == null)
     {
       return default_value;
     }
+    return doubleValue(s);
   }
   /**
      Get a double text in this element or null.
@@ -1410,14 +2179,28 @@ public class DocumentFragment {
    */
   public Double getThisDoubleObject()
   {
-    try
+    String s = getThisStringObjectEmptyIsNull();
+    if (s == null)
     {
-      return Double.valueOf(getThisStringNotEmpty());
+      return null;
     }
-    catch(XMLValueMissingException e)
+    return Double.valueOf(doubleValue(s));
+  }
+  /**
+     Get a double text in this element if it is non-empty.
+
+     Unlike getThisDoubleNotNull, does not throw if the text is empty.
+    
+     @return The value of the text as a double or empty
+   */
+  public OptionalDouble getThisDoubleOptional()
+  {
+    String s = getThisStringObjectEmptyIsNull();
+    if (s == null)
     {
-      return null;
+      return OptionalDouble.empty();
     }
+    return OptionalDouble.of(doubleValue(s));
   }
   /**
      Get text in this element.
@@ -1446,7 +2229,7 @@ public class DocumentFragment {
     String result = getThisStringObjectEmptyIsNull();
     if (result == null)
     {
-      throw new XMLValueMissingException();
+      throw new XMLValueMissingException("empty text in " + tag);
     }
     return result;
   }
@@ -1466,6 +2249,22 @@ public class DocumentFragment {
     }
     return result;
   }
+  /**
+     Get text in this element if it is non-empty.
+
+     Unlike getThisStringNotEmpty, does not throw if the text is empty.
+    
+     @return The value of the text as a string or empty
+   */
+  public Optional<String> getThisStringOptional()
+  {
+    String s = getThisStringObjectEmptyIsNull();
+    if (s == null)
+    {
+      return Optional.<String>empty();
+    }
+    return Optional.of(s);
+  }
   /**
      Get text in this element.
 
@@ -1475,17 +2274,28 @@ public class DocumentFragment {
    */
   public String getThisStringObjectEmptyIsEmpty()
   {
-    String result = "";
-    DocumentFragment e = this;
-    for (DocumentFragment frag: e.getChildren())
+    StringBuilder sb;
+    List<DocumentFragment> children;
+    flushText();
+    if (leafText != null)
+    {
+      return leafString();
+    }
+    children = childList();
+    if (children.size() == 1 && children.get(0).isTextElement())
+    {
+      return children.get(0).getText();
+    }
+    sb = new StringBuilder();
+    for (DocumentFragment frag: children)
     {
-      if (frag.getText() == null)
+      if (frag.text == null)
       {
         throw new XMLException("element has a non-text child");
       }
-      result = result + frag.getText();
+      sb.append(frag.text);
     }
-    return result;
+    return sb.toString();
   }
 
 
@@ -1508,14 +2318,12 @@ public class DocumentFragment {
    */
   public byte getByte(String element, byte default_value)
   {
-    try
-    {
-      return Byte.parseByte(getStringNotNull(element));
-    }
-    catch(XMLValueMissingException e)
+    String s = getStringObject(element);
+    if (s == null)
     {
       return default_value;
     }
+    return Byte.parseByte(s);
   }
   /**
      Get a byte text in enclosing element or null.
@@ -1525,14 +2333,12 @@ public class DocumentFragment {
    */
   public Byte getByteObject(String element)
   {
-    try
-    {
-      return Byte.valueOf(getStringNotNull(element));
-    }
-    catch(XMLValueMissingException e)
+    String s = getStringObject(element);
+    if (s == null)
     {
       return null;
     }
+    return Byte.valueOf(s);
   }
   /**
      Get a short text that must be non-null in enclosing element.
@@ -1553,14 +2359,12 @@ public class DocumentFragment {
    */
   public short getShort(String element, short default_value)
   {
-    try
-    {
-      return Short.parseShort(getStringNotNull(element));
-    }
-    catch(XMLValueMissingException e)
+    String s = getStringObject(element);
+    if (s == null)
     {
       return default_value;
     }
+    return Short.parseShort(s);
   }
   /**
      Get a short text in enclosing element or null.
@@ -1570,14 +2374,12 @@ public class DocumentFragment {
    */
   public Short getShortObject(String element)
   {
-    try
-    {
-      return Short.valueOf(getStringNotNull(element));
-    }
-    catch(XMLValueMissingException e)
+    String s = getStringObject(element);
+    if (s == null)
     {
       return null;
     }
+    return Short.valueOf(s);
   }
   /**
      Get an integer text that must be non-null in enclosing element.
@@ -1587,7 +2389,7 @@ public class DocumentFragment {
    */
   public int getIntNotNull(String element)
   {
-    return Integer.parseInt(getStringNotNull(element));
+    return getValueElement(element).intValue();
   }
   /**
      Get an integer text in enclosing element.
@@ -1598,14 +2400,12 @@ public class DocumentFragment {
    */
   public int getInt(String element, int default_value)
   {
-    try
-    {
-      return Integer.parseInt(getStringNotNull(element));
-    }
-    catch(XMLValueMissingException e)
+    DocumentFragment e = get(element);
+    if (e == null)
     {
       return default_value;
     }
+    return e.intValue();
   }
   /**
      Get an integer text in enclosing element or null.
@@ -1615,14 +2415,29 @@ public class DocumentFragment {
    */
   public Integer getIntObject(String element)
   {
-    try
+    DocumentFragment e = get(element);
+    if (e == null)
     {
-      return Integer.valueOf(getStringNotNull(element));
+      return null;
     }
-    catch(XMLValueMissingException e)
+    return Integer.valueOf(e.intValue());
+  }
+  /**
+     Get an integer text in enclosing element if the element exists.
+
+     Unlike getIntNotNull, does not throw if the element is missing.
+    
+     @param element The tag of the enclosing element
+     @return The value of the text as an integer or empty
+   */
+  public OptionalInt getIntOptional(String element)
+  {
+    DocumentFragment e = get(element);
+    if (e == null)
     {
-      return null;
+      return OptionalInt.empty();
     }
+    return OptionalInt.of(e.intValue());
   }
   /**
      Get a long text that must be non-null in enclosing element.
@@ -1632,7 +2447,7 @@ public class DocumentFragment {
    */
   public long getLongNotNull(String element)
   {
-    return Long.parseLong(getStringNotNull(element));
+    return getValueElement(element).longValue();
   }
   /**
      Get a long text in enclosing element.
@@ -1643,14 +2458,12 @@ public class DocumentFragment {
    */
   public long getLong(String element, long default_value)
   {
-    try
-    {
-      return Long.parseLong(getStringNotNull(element));
-    }
-    catch(XMLValueMissingException e)
+    DocumentFragment e = get(element);
+    if (e == null)
     {
       return default_value;
     }
+    return e.longValue();
   }
   /**
      Get a long text in enclosing element or null.
@@ -1660,14 +2473,29 @@ public class DocumentFragment {
    */
   public Long getLongObject(String element)
   {
-    try
+    DocumentFragment e = get(element);
+    if (e == null)
     {
-      return Long.valueOf(getStringNotNull(element));
+      return null;
     }
-    catch(XMLValueMissingException e)
+    return Long.valueOf(e.longValue());
+  }
+  /**
+     Get a long text in enclosing element if the element exists.
+
+     Unlike getLongNotNull, does not throw if the element is missing.
+    
+     @param element The tag of the enclosing element
+     @return The value of the text as a long or empty
+   */
+  public OptionalLong getLongOptional(String element)
+  {
+    DocumentFragment e = get(element);
+    if (e == null)
     {
-      return null;
+      return OptionalLong.empty();
     }
+    return OptionalLong.of(e.longValue());
   }
   /**
      Get a float text that must be non-null in enclosing element.
@@ -1677,7 +2505,7 @@ public class DocumentFragment {
    */
   public float getFloatNotNull(String element)
   {
-    return Float.parseFloat(getStringNotNull(element));
+    return getValueElement(element).floatValue();
   }
   /**
      Get a float text in enclosing element.
@@ -1688,14 +2516,12 @@ public class DocumentFragment {
    */
   public float getFloat(String element, float default_value)
   {
-    try
-    {
-      return Float.parseFloat(getStringNotNull(element));
-    }
-    catch(XMLValueMissingException e)
+    DocumentFragment e = get(element);
+    if (e == null)
     {
       return default_value;
     }
+    return e.floatValue();
   }
   /**
      Get a float text in enclosing element or null.
@@ -1705,14 +2531,12 @@ public class DocumentFragment {
    */
   public Float getFloatObject(String element)
   {
-    try
-    {
-      return Float.valueOf(getStringNotNull(element));
-    }
-    catch(XMLValueMissingException e)
+    DocumentFragment e = get(element);
+    if (e == null)
     {
       return null;
     }
+    return Float.valueOf(e.floatValue());
   }
   /**
      Get a double text that must be non-null in enclosing element.
@@ -1722,7 +2546,7 @@ public class DocumentFragment {
    */
   public double getDoubleNotNull(String element)
   {
-    return Double.parseDouble(getStringNotNull(element));
+    return getValueElement(element).doubleValue();
   }
   /**
      Get a double text in enclosing element.
@@ -1733,14 +2557,12 @@ public class DocumentFragment {
    */
   public double getDouble(String element, double default_value)
   {
-    try
-    {
-      return Double.parseDouble(getStringNotNull(element));
-    }
-    catch(XMLValueMissingException e)
+    DocumentFragment e = get(element);
+    if (e == null)
     {
       return default_value;
     }
+    return e.doubleValue();
   }
   /**
      Get a double text in enclosing element or null.
@@ -1750,14 +2572,29 @@ public class DocumentFragment {
    */
   public Double getDoubleObject(String element)
   {
-    try
+    DocumentFragment e = get(element);
+    if (e == null)
     {
-      return Double.valueOf(getStringNotNull(element));
+      return null;
     }
-    catch(XMLValueMissingException e)
+    return Double.valueOf(e.doubleValue());
+  }
+  /**
+     Get a double text in enclosing element if the element exists.
+
+     Unlike getDoubleNotNull, does not throw if the element is missing.
+    
+     @param element The tag of the enclosing element
+     @return The value of the text as a double or empty
+   */
+  public OptionalDouble getDoubleOptional(String element)
+  {
+    DocumentFragment e = get(element);
+    if (e == null)
     {
-      return null;
+      return OptionalDouble.empty();
     }
+    return OptionalDouble.of(e.doubleValue());
   }
   /**
      Get text that must be non-null in enclosing element.
@@ -1770,7 +2607,7 @@ public class DocumentFragment {
     String result = getStringObject(element);
     if (result == null)
     {
-      throw new XMLValueMissingException();
+      throw new XMLValueMissingException("no such tag: " + element);
     }
     return result;
   }
@@ -1806,6 +2643,23 @@ public class DocumentFragment {
     }
     return e.getThisStringObjectEmptyIsEmpty();
   }
+  /**
+     Get text in enclosing element if the element exists.
+
+     Unlike getStringNotNull, does not throw if the element is missing.
+    
+     @param element The tag of the enclosing element
+     @return The value of the text as a string or empty
+   */
+  public Optional<String> getStringOptional(String element)
+  {
+    String s = getStringObject(element);
+    if (s == null)
+    {
+      return Optional.<String>empty();
+    }
+    return Optional.of(s);
+  }
   /**
      Set byte text in enclosing element.
     
@@ -1814,7 +2668,11 @@ public class DocumentFragment {
    */
   public void setByte(String element, byte val)
   {
-    setString(element, ""+val);
+    if (element == null)
+    {
+      throw new NullPointerException();
+    }
+    set(element).setThisValue(ParsedValue.ofInt(val));
   }
   /**
      Set short text in enclosing element.
@@ -1824,7 +2682,11 @@ public class DocumentFragment {
    */
   public void setShort(String element, short val)
   {
-    setString(element, ""+val);
+    if (element == null)
+    {
+      throw new NullPointerException();
+    }
+    set(element).setThisValue(ParsedValue.ofInt(val));
   }
   /**
      Set int text in enclosing element.
@@ -1834,7 +2696,11 @@ public class DocumentFragment {
    */
   public void setInt(String element, int val)
   {
-    setString(element, ""+val);
+    if (element == null)
+    {
+      throw new NullPointerException();
+    }
+    set(element).setThisValue(ParsedValue.ofInt(val));
   }
   /**
      Set long text in enclosing element.
@@ -1844,7 +2710,11 @@ public class DocumentFragment {
    */
   public void setLong(String element, long val)
   {
-    setString(element, ""+val);
+    if (element == null)
+    {
+      throw new NullPointerException();
+    }
+    set(element).setThisValue(ParsedValue.ofLong(val));
   }
   /**
      Set float text in enclosing element.
@@ -1854,7 +2724,11 @@ public class DocumentFragment {
    */
   public void setFloat(String element, float val)
   {
-    setString(element, ""+val);
+    if (element == null)
+    {
+      throw new NullPointerException();
+    }
+    set(element).setThisValue(ParsedValue.ofFloat(val));
   }
   /**
      Set double text in enclosing element.
@@ -1864,7 +2738,11 @@ public class DocumentFragment {
    */
   public void setDouble(String element, double val)
   {
-    setString(element, ""+val);
+    if (element == null)
+    {
+      throw new NullPointerException();
+    }
+    set(element).setThisValue(ParsedValue.ofDouble(val));
   }
   /**
      Set a data structure in enclosing element.
@@ -2000,7 +2878,7 @@ public class DocumentFragment {
    */
   public void setThisByte(byte val)
   {
-    setThisString(""+val);
+    setThisValue(ParsedValue.ofInt(val));
   }
   /**
      Set short text in this element.
@@ -2009,7 +2887,7 @@ public class DocumentFragment {
    */
   public void setThisShort(short val)
   {
-    setThisString(""+val);
+    setThisValue(ParsedValue.ofInt(val));
   }
   /**
      Set int text in this element.
@@ -2018,7 +2896,7 @@ public class DocumentFragment {
    */
   public void setThisInt(int val)
   {
-    setThisString(""+val);
+    setThisValue(ParsedValue.ofInt(val));
   }
   /**
      Set long text in this element.
@@ -2027,7 +2905,7 @@ public class DocumentFragment {
    */
   public void setThisLong(long val)
   {
-    setThisString(""+val);
+    setThisValue(ParsedValue.ofLong(val));
   }
   /**
      Set float text in this element.
@@ -2036,7 +2914,7 @@ public class DocumentFragment {
    */
   public void setThisFloat(float val)
   {
-    setThisString(""+val);
+    setThisValue(ParsedValue.ofFloat(val));
   }
   /**
      Set double text in this element.
@@ -2045,7 +2923,7 @@ public class DocumentFragment {
    */
   public void setThisDouble(double val)
   {
-    setThisString(""+val);
+    setThisValue(ParsedValue.ofDouble(val));
   }
   /**
      Set data structure in this element.
@@ -2197,7 +3075,7 @@ public class DocumentFragment {
   public DocumentFragment set(String element)
   {
     DocumentFragment e = getOrCreate(element);
-    e.removeAll();
+    e.clearContents();
     return e;
   }
   /**
@@ -0,0 +1,213 @@
+/*
+  Copyright (C) 2013 Juha-Matti Tilli
+  
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+  
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+  
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  SOFTWARE.
+ */
+package fi.iki.jmtilli.javaxmlfrag;
+import java.util.ArrayList;
+import java.util.Arrays;
+/**
+   Builder that constructs a DocumentFragment from parsing events.
+
+   Shared by the SAX handler, the StAX reader and the byte scanner, so that
+   all of them produce identical trees.
+ */
+final class DocumentFragmentBuilder {
+  private final StringBuilder buf = new StringBuilder();
+  private final ArrayList<DocumentFragment> frags =
+    new ArrayList<DocumentFragment>();
+  private final XMLWhitespace ws;
+  private final XMLSymbolTable symbols;
+  private boolean[] hasElements = new boolean[16];
+  private DocumentFragment f = null;
+  /**
+     Create a builder keeping all text.
+   */
+  public DocumentFragmentBuilder()
+  {
+    this(XMLWhitespace.PRESERVE);
+  }
+  /**
+     Create a builder.
+
+     @param ws The handling of whitespace text
+   */
+  public DocumentFragmentBuilder(XMLWhitespace ws)
+  {
+    this(ws, null);
+  }
+  /**
+     Create a builder interning the tag and attribute names.
+
+     @param ws The handling of whitespace text
+     @param symbols The table interning the names, or null for none
+   */
+  public DocumentFragmentBuilder(XMLWhitespace ws, XMLSymbolTable symbols)
+  {
+    if (ws == null)
+    {
+      throw new NullPointerException();
+    }
+    this.ws = ws;
+    this.symbols = symbols;
+  }
+  /**
+     Test whether the whole fragment has been built.
+
+     @return Whether the end of the outermost element has been seen
+   */
+  public boolean ready()
+  {
+    return f != null && frags.isEmpty();
+  }
+  /**
+     Get the fragment.
+
+     @return The outermost element
+   */
+  public DocumentFragment getDocumentFragment()
+  {
+    return f;
+  }
+  private boolean isWhitespace()
+  {
+    for (int i = 0; i < buf.length(); i++)
+    {
+      if (!XMLWhitespace.isWhitespace(buf.charAt(i)))
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+  /**
+     Add the buffered text to the current element.
+
+     @param beforeElement Whether a child element follows the text
+   */
+  private void flush(boolean beforeElement)
+  {
+    int top = frags.size()-1;
+    String text;
+    if (buf.length() == 0)
+    {
+      return;
+    }
+    if (ws != XMLWhitespace.PRESERVE &&
+        (beforeElement || hasElements[top]) && isWhitespace())
+    {
+      buf.setLength(0);
+      return;
+    }
+    if (ws == XMLWhitespace.TRIM && !beforeElement && !hasElements[top])
+    {
+      int start = 0;
+      int end = buf.length();
+      while (start < end && XMLWhitespace.isWhitespace(buf.charAt(start)))
+      {
+        start++;
+      }
+      while (end > start && XMLWhitespace.isWhitespace(buf.charAt(end-1)))
+      {
+        end--;
+      }
+      text = buf.substring(start, end);
+    }
+    else
+    {
+      text = buf.toString();
+    }
+    buf.setLength(0);
+    if (text.length() > 0)
+    {
+      frags.get(top).addTextChild(text);
+    }
+  }
+  /**
+     Start an element.
+
+     The attributes of the element must be given by calling attribute()
+     before any other events.
+
+     @param tag The qualified tag name
+   */
+  public void startElement(String tag)
+  {
+    DocumentFragment df;
+    if (symbols != null)
+    {
+      tag = symbols.intern(tag);
+    }
+    df = new DocumentFragment(tag);
+    if (f == null)
+    {
+      f = df;
+    }
+    if (!frags.isEmpty())
+    {
+      flush(true);
+      frags.get(frags.size()-1).add(df);
+      hasElements[frags.size()-1] = true;
+    }
+    buf.setLength(0);
+    if (frags.size() == hasElements.length)
+    {
+      hasElements = Arrays.copyOf(hasElements, 2*frags.size());
+    }
+    hasElements[frags.size()] = false;
+    frags.add(df);
+  }
+  /**
+     Add an attribute to the element started last.
+
+     @param name The qualified attribute name
+     @param value The attribute value
+   */
+  public void attribute(String name, String value)
+  {
+    DocumentFragment df = frags.get(frags.size()-1);
+    if (symbols != null)
+    {
+      name = symbols.intern(name);
+    }
+    if (df.putAttr(name, value) != null)
+    {
+      throw new Error("duplicate attribute");
+    }
+  }
+  /**
+     End the current element.
+   */
+  public void endElement()
+  {
+    flush(false);
+    frags.remove(frags.size()-1);
+  }
+  /**
+     Add character data to the current element.
+
+     @param ch The character array
+     @param start Start position of the characters within ch
+     @param length The number of characters
+   */
+  public void characters(char[] ch, int start, int length)
+  {
+    buf.append(ch, start, length);
+  }
+}
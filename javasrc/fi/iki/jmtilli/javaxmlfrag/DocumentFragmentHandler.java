@@ -21,7 +21,12 @@
  */
 package fi.iki.jmtilli.javaxmlfrag;
 import java.util.*;
+import java.util.stream.Stream;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
 import javax.xml.parsers.*;
 import org.xml.sax.*;
 /**
@@ -62,64 +67,35 @@ public abstract class DocumentFragmentHandler
       return true;
     }
   };
-  private class ConvertToDocumentFragmentHandler {
-    private final StringBuffer buf = new StringBuffer();
-    private final ArrayList<DocumentFragment> frags =
-      new ArrayList<DocumentFragment>();
-    private DocumentFragment f = null;
-    public final boolean ready()
-    {
-      return f != null && frags.isEmpty();
-    }
-    public final DocumentFragment getDocumentFragment()
-    {
-      return f;
-    }
-    public final void startElement(String uri, String localName, String qName,
-                                   Attributes attributes)
+  private static final String INPUT_BUFFER_SIZE =
+    "http://apache.org/xml/properties/input-buffer-size";
+  private DocumentFragmentBuilder h;
+  private FragmentProcessor hProc;
+  private FragmentTransformer hTransformer;
+  private FragmentSink hSink;
+  private FragmentPipeline pipeline;
+  private XMLWhitespace ws = XMLWhitespace.PRESERVE;
+  private XMLSymbolTable symbols = new XMLSymbolTable();
+  private boolean startXMLElementCallActive = false;
+  private final XMLStack s = new XMLStack();
+  private final PathAutomaton<FragmentProcessor> paths =
+    new PathAutomaton<FragmentProcessor>();
+  private final ArrayList<PathAutomaton.State<FragmentProcessor>> pathStates =
+    new ArrayList<PathAutomaton.State<FragmentProcessor>>();
+  private static class ProcessorList implements FragmentProcessor {
+    private final List<FragmentProcessor> procs;
+    public ProcessorList(List<FragmentProcessor> procs)
     {
-      HashMap<String, String> m = new HashMap<String, String>();
-      for (int i = 0; i < attributes.getLength(); i++)
-      {
-        if (m.containsKey(attributes.getQName(i)))
-        {
-          throw new Error("duplicate attribute");
-        }
-        m.put(attributes.getQName(i), attributes.getValue(i));
-      }
-      DocumentFragment df = new DocumentFragment(qName, m);
-      if (f == null)
-      {
-        f = df;
-      }
-      if (!frags.isEmpty())
-      {
-        if (buf.length() > 0)
-        {
-          frags.get(frags.size()-1).addTextChild(buf.toString());
-        }
-        frags.get(frags.size()-1).add(df);
-      }
-      buf.setLength(0);
-      frags.add(df);
+      this.procs = procs;
     }
-    public final void endElement(String uri, String localName, String qName)
+    public void processFragment(DocumentFragment f) throws Exception
     {
-      if (buf.length() > 0)
+      for (FragmentProcessor proc: procs)
       {
-        frags.get(frags.size()-1).addTextChild(buf.toString());
-        buf.setLength(0);
+        proc.processFragment(f);
       }
-      frags.remove(frags.size()-1);
-    }
-    public final void characters(char[] ch, int start, int length)
-    {
-      buf.append(ch, start, length);
     }
   };
-  private ConvertToDocumentFragmentHandler h;
-  private boolean startXMLElementCallActive = false;
-  private final XMLStack s = new XMLStack();
   /**
      Test the parsing context.
 
@@ -145,6 +121,20 @@ public abstract class DocumentFragmentHandler
      Can only be called from within startXMLElement.
    */
   public final void startFragmentCollection()
+  {
+    startFragmentCollection(ws);
+  }
+  /**
+     Start fragment collection with the given whitespace handling.
+
+     Like startFragmentCollection(), but the whitespace text of the collected
+     fragment is handled as given instead of as set for the handler.
+
+     Can only be called from within startXMLElement.
+
+     @param ws The handling of whitespace text
+   */
+  public final void startFragmentCollection(XMLWhitespace ws)
   {
     if (!startXMLElementCallActive)
     {
@@ -154,7 +144,254 @@ public abstract class DocumentFragmentHandler
     {
       throw new Error("fragment collection already started");
     }
-    h = new ConvertToDocumentFragmentHandler();
+    h = new DocumentFragmentBuilder(ws, symbols);
+  }
+  /**
+     Set how whitespace text is handled in the collected fragments.
+
+     Dropping the indentation of pretty-printed documents can halve the
+     number of nodes in the fragments. Applies to the collections started
+     after this call. The default is XMLWhitespace.PRESERVE.
+
+     @param ws The handling of whitespace text
+   */
+  public final void setWhitespace(XMLWhitespace ws)
+  {
+    if (ws == null)
+    {
+      throw new NullPointerException();
+    }
+    this.ws = ws;
+  }
+  /**
+     Get how whitespace text is handled in the collected fragments.
+
+     @return The handling of whitespace text
+   */
+  public final XMLWhitespace getWhitespace()
+  {
+    return ws;
+  }
+  /**
+     Set the table interning the tag and attribute names of the collected
+     fragments.
+
+     By default, each handler has a table of its own, so the fragments of
+     one parse share their names. Set XMLSymbolTable.getGlobal() to share
+     the names across parses, or null to not intern the names.
+
+     @param symbols The symbol table or null
+   */
+  public final void setSymbolTable(XMLSymbolTable symbols)
+  {
+    this.symbols = symbols;
+  }
+  /**
+     Get the table interning the tag and attribute names.
+
+     @return The symbol table or null
+   */
+  public final XMLSymbolTable getSymbolTable()
+  {
+    return symbols;
+  }
+  /**
+     Start fragment collection with a fragment processor.
+
+     Like startFragmentCollection(), but the collected fragment is handed to
+     the processor instead of endXMLElement, which is then called with a null
+     fragment argument. If the handler has a fragment pipeline, the processor
+     is run on the pipeline's executor, otherwise it is run immediately in
+     the parser thread.
+
+     Can only be called from within startXMLElement.
+
+     @param proc The processor of the collected fragment
+   */
+  public final void startFragmentCollection(FragmentProcessor proc)
+  {
+    if (proc == null)
+    {
+      throw new NullPointerException();
+    }
+    startFragmentCollection();
+    hProc = proc;
+  }
+  /**
+     Start fragment collection with a fragment transformer and a sink.
+
+     Like startFragmentCollection(), but the collected fragment is
+     transformed and the result is written to the sink instead of being
+     handed to endXMLElement, which is then called with a null fragment
+     argument. If the handler has a fragment pipeline, the transformer is run
+     on the pipeline's executor and the results are written to the sinks in
+     document order, otherwise both are run immediately in the parser thread.
+
+     Can only be called from within startXMLElement.
+
+     @param transformer The transformer of the collected fragment
+     @param sink The sink of the transformed fragment
+   */
+  public final void startFragmentCollection(FragmentTransformer transformer,
+                                            FragmentSink sink)
+  {
+    if (transformer == null || sink == null)
+    {
+      throw new NullPointerException();
+    }
+    startFragmentCollection();
+    hTransformer = transformer;
+    hSink = sink;
+  }
+  /**
+     Register a fragment processor for a path.
+
+     Elements matching the path are collected automatically and handed to
+     the processor as with startFragmentCollection(FragmentProcessor). The
+     paths are compiled into an automaton that moves one step per element,
+     so the cost per element does not depend on the number of registered
+     paths.
+
+     A path is a list of qualified tag names separated by "/", starting from
+     the document element, like the arguments of is(). A step "*" matches any
+     tag, and a "//" separator in front of a step matches any number of
+     intermediate elements. For example, "allCustomers/customer" is
+     equivalent to is("allCustomers", "customer"), and "//customer" matches
+     customer elements at any depth.
+
+     startXMLElement is still called for a matching element. If it starts
+     fragment collection itself, the registered processors are not called
+     for that element. If several paths match the same element, their
+     processors are called in registration order.
+
+     Paths must be registered before parsing starts.
+
+     @param path The path
+     @param proc The processor of the matching fragments
+   */
+  public final void onFragment(String path, FragmentProcessor proc)
+  {
+    if (!s.elements.isEmpty())
+    {
+      throw new IllegalStateException("parsing already started");
+    }
+    paths.add(path, proc);
+  }
+  /**
+     Set the fragment pipeline.
+
+     Fragments collected with startFragmentCollection(FragmentProcessor) or
+     startFragmentCollection(FragmentTransformer, FragmentSink) are
+     submitted to the pipeline, which processes them in parallel with the
+     parsing. The pipeline is finished in endDocument, so a failure of a
+     processor is rethrown from the parse call as an XMLProcessingException.
+     When parsing with SAXParser.parse directly, a derived class that
+     overrides endDocument must call super.endDocument(). The parse methods
+     of this class wait for the pipeline in any case, also when the parse
+     fails before the end of the document.
+
+     @param pipeline The fragment pipeline or null for processing the
+                     fragments in the parser thread
+   */
+  public final void setFragmentPipeline(FragmentPipeline pipeline)
+  {
+    this.pipeline = pipeline;
+  }
+  /**
+     Get the fragment pipeline.
+
+     @return The fragment pipeline or null if none
+   */
+  public final FragmentPipeline getFragmentPipeline()
+  {
+    return pipeline;
+  }
+  /**
+     Parse a document with this handler.
+
+     If the handler has a fragment pipeline, waits until the pipeline has
+     processed all submitted fragments before returning or throwing, even
+     if the parse failed, and rethrows a failure of a processor as an
+     XMLProcessingException. The pipeline can then be reused.
+
+     @param p The SAX parser
+     @param is The input source
+   */
+  public final void parse(SAXParser p, InputSource is)
+    throws SAXException, IOException
+  {
+    FragmentPipeline pl = pipeline;
+    Throwable t = null;
+    try {
+      p.parse(is, this);
+    }
+    finally
+    {
+      if (pl != null)
+      {
+        t = pl.await();
+      }
+    }
+    if (t != null)
+    {
+      throw new XMLProcessingException("fragment processing failed", t);
+    }
+  }
+  /**
+     Parse a document with this handler.
+
+     See parse(SAXParser, InputSource).
+
+     @param p The SAX parser
+     @param is The input stream
+   */
+  public final void parse(SAXParser p, InputStream is)
+    throws SAXException, IOException
+  {
+    parse(p, new InputSource(is));
+  }
+  private void processFragment(FragmentProcessor proc, DocumentFragment f)
+  {
+    if (pipeline != null)
+    {
+      pipeline.submit(proc, f);
+      return;
+    }
+    try {
+      proc.processFragment(f);
+    }
+    catch (RuntimeException e)
+    {
+      throw e;
+    }
+    catch (Exception e)
+    {
+      throw new XMLProcessingException("fragment processing failed", e);
+    }
+  }
+  private void transformFragment(FragmentTransformer transformer,
+                                 FragmentSink sink, DocumentFragment f)
+  {
+    if (pipeline != null)
+    {
+      pipeline.submit(transformer, sink, f);
+      return;
+    }
+    try {
+      f = transformer.transformFragment(f);
+      if (f != null)
+      {
+        sink.writeFragment(f);
+      }
+    }
+    catch (RuntimeException e)
+    {
+      throw e;
+    }
+    catch (Exception e)
+    {
+      throw new XMLProcessingException("fragment processing failed", e);
+    }
   }
   /**
      Handler for element start.
@@ -219,7 +456,21 @@ public abstract class DocumentFragmentHandler
    */
   public final void startElement(String uri, String localName, String qName,
                                  org.xml.sax.Attributes attributes) {
+    PathAutomaton.State<FragmentProcessor> state = null;
     s.push(qName);
+    if (!paths.isEmpty())
+    {
+      if (h == null)
+      {
+        state = pathStates.isEmpty() ? paths.root()
+                                     : pathStates.get(pathStates.size()-1);
+        if (state != null)
+        {
+          state = state.step(qName);
+        }
+      }
+      pathStates.add(state);
+    }
     if (h == null)
     {
       startXMLElementCallActive = true;
@@ -229,11 +480,21 @@ public abstract class DocumentFragmentHandler
       finally {
         startXMLElementCallActive = false;
       }
+      if (h == null && state != null && !state.getValues().isEmpty())
+      {
+        List<FragmentProcessor> procs = state.getValues();
+        h = new DocumentFragmentBuilder(ws, symbols);
+        hProc = procs.size() == 1 ? procs.get(0) : new ProcessorList(procs);
+      }
     }
     // Note: h may have changed here
     if (h != null)
     {
-      h.startElement(uri, localName, qName, attributes);
+      h.startElement(qName);
+      for (int i = 0; i < attributes.getLength(); i++)
+      {
+        h.attribute(attributes.getQName(i), attributes.getValue(i));
+      }
     }
   }
   /**
@@ -269,10 +530,26 @@ public abstract class DocumentFragmentHandler
   public void endElement(String uri, String localName, String qName) {
     DocumentFragment df = null;
     if (h != null) {
-      h.endElement(uri, localName, qName);
+      h.endElement();
       if (h.ready()) {
         df = h.getDocumentFragment();
         h = null;
+        if (hProc != null)
+        {
+          FragmentProcessor proc = hProc;
+          hProc = null;
+          processFragment(proc, df);
+          df = null;
+        }
+        else if (hTransformer != null)
+        {
+          FragmentTransformer transformer = hTransformer;
+          FragmentSink sink = hSink;
+          hTransformer = null;
+          hSink = null;
+          transformFragment(transformer, sink, df);
+          df = null;
+        }
       }
     }
     // Note: h may have changed here
@@ -281,6 +558,24 @@ public abstract class DocumentFragmentHandler
       endXMLElement(uri, localName, qName, df);
     }
     s.pop(qName);
+    if (!pathStates.isEmpty())
+    {
+      pathStates.remove(pathStates.size()-1);
+    }
+  }
+  /**
+     Handler for document end.
+
+     Waits until the fragment pipeline, if any, has processed all fragments.
+     A derived class that overrides this must call super.endDocument(),
+     unless the document is parsed with the parse methods of this class.
+   */
+  public void endDocument() throws SAXException
+  {
+    if (pipeline != null)
+    {
+      pipeline.finish();
+    }
   }
   private static class WholeDocumentHandler extends DocumentFragmentHandler {
     private DocumentFragment f_global;
@@ -314,13 +609,65 @@ public abstract class DocumentFragmentHandler
   /**
      Parse a whole document.
 
+     The parser is taken from the default parser pool.
+
      @param f File of the document
      @return A parse tree of the document
    */
   public static DocumentFragment parseWhole(File f)
     throws ParserConfigurationException, SAXException, IOException
   {
-    return parseWhole(SAXParserFactory.newInstance(), f);
+    return parseWhole(SAXParserPool.getDefault(), f);
+  }
+  /**
+     Parse a whole document with a parser from a pool.
+
+     @param pool A parser pool
+     @param f File of the document
+     @return A parse tree of the document
+   */
+  public static DocumentFragment parseWhole(SAXParserPool pool, File f)
+    throws ParserConfigurationException, SAXException, IOException
+  {
+    return parseWhole(pool, f, XMLWhitespace.PRESERVE);
+  }
+  /**
+     Parse a whole document with a parser from a pool.
+
+     @param pool A parser pool
+     @param f File of the document
+     @param ws The handling of whitespace text
+     @return A parse tree of the document
+   */
+  public static DocumentFragment parseWhole(SAXParserPool pool,
+                                            File f, XMLWhitespace ws)
+    throws ParserConfigurationException, SAXException, IOException
+  {
+    WholeDocumentHandler whole = new WholeDocumentHandler();
+    SAXParser p = pool.acquire();
+    whole.setWhitespace(ws);
+    try {
+      p.parse(f, whole);
+    }
+    finally
+    {
+      pool.release(p);
+    }
+    return whole.f_global;
+  }
+  /**
+     Parse a whole document.
+
+     The parser is taken from the default parser pool.
+
+     @param f File of the document
+     @param ws The handling of whitespace text
+     @return A parse tree of the document
+   */
+  public static DocumentFragment parseWhole(File f, XMLWhitespace ws)
+    throws ParserConfigurationException, SAXException, IOException
+  {
+    return parseWhole(SAXParserPool.getDefault(), f, ws);
   }
   /**
      Parse a whole document.
@@ -340,13 +687,65 @@ public abstract class DocumentFragmentHandler
   /**
      Parse a whole document.
 
+     The parser is taken from the default parser pool.
+
      @param is InputStream of the document
      @return A parse tree of the document
    */
   public static DocumentFragment parseWhole(InputStream is)
     throws ParserConfigurationException, SAXException, IOException
   {
-    return parseWhole(SAXParserFactory.newInstance(), is);
+    return parseWhole(SAXParserPool.getDefault(), is);
+  }
+  /**
+     Parse a whole document with a parser from a pool.
+
+     @param pool A parser pool
+     @param is InputStream of the document
+     @return A parse tree of the document
+   */
+  public static DocumentFragment parseWhole(SAXParserPool pool, InputStream is)
+    throws ParserConfigurationException, SAXException, IOException
+  {
+    return parseWhole(pool, is, XMLWhitespace.PRESERVE);
+  }
+  /**
+     Parse a whole document with a parser from a pool.
+
+     @param pool A parser pool
+     @param is InputStream of the document
+     @param ws The handling of whitespace text
+     @return A parse tree of the document
+   */
+  public static DocumentFragment parseWhole(SAXParserPool pool,
+                                            InputStream is, XMLWhitespace ws)
+    throws ParserConfigurationException, SAXException, IOException
+  {
+    WholeDocumentHandler whole = new WholeDocumentHandler();
+    SAXParser p = pool.acquire();
+    whole.setWhitespace(ws);
+    try {
+      p.parse(is, whole);
+    }
+    finally
+    {
+      pool.release(p);
+    }
+    return whole.f_global;
+  }
+  /**
+     Parse a whole document.
+
+     The parser is taken from the default parser pool.
+
+     @param is InputStream of the document
+     @param ws The handling of whitespace text
+     @return A parse tree of the document
+   */
+  public static DocumentFragment parseWhole(InputStream is, XMLWhitespace ws)
+    throws ParserConfigurationException, SAXException, IOException
+  {
+    return parseWhole(SAXParserPool.getDefault(), is, ws);
   }
   /**
      Parse a whole document.
@@ -366,13 +765,65 @@ public abstract class DocumentFragmentHandler
   /**
      Parse a whole document.
 
+     The parser is taken from the default parser pool.
+
      @param is InputSource of the document
      @return A parse tree of the document
    */
   public static DocumentFragment parseWhole(InputSource is)
     throws ParserConfigurationException, SAXException, IOException
   {
-    return parseWhole(SAXParserFactory.newInstance(), is);
+    return parseWhole(SAXParserPool.getDefault(), is);
+  }
+  /**
+     Parse a whole document with a parser from a pool.
+
+     @param pool A parser pool
+     @param is InputSource of the document
+     @return A parse tree of the document
+   */
+  public static DocumentFragment parseWhole(SAXParserPool pool, InputSource is)
+    throws ParserConfigurationException, SAXException, IOException
+  {
+    return parseWhole(pool, is, XMLWhitespace.PRESERVE);
+  }
+  /**
+     Parse a whole document with a parser from a pool.
+
+     @param pool A parser pool
+     @param is InputSource of the document
+     @param ws The handling of whitespace text
+     @return A parse tree of the document
+   */
+  public static DocumentFragment parseWhole(SAXParserPool pool,
+                                            InputSource is, XMLWhitespace ws)
+    throws ParserConfigurationException, SAXException, IOException
+  {
+    WholeDocumentHandler whole = new WholeDocumentHandler();
+    SAXParser p = pool.acquire();
+    whole.setWhitespace(ws);
+    try {
+      p.parse(is, whole);
+    }
+    finally
+    {
+      pool.release(p);
+    }
+    return whole.f_global;
+  }
+  /**
+     Parse a whole document.
+
+     The parser is taken from the default parser pool.
+
+     @param is InputSource of the document
+     @param ws The handling of whitespace text
+     @return A parse tree of the document
+   */
+  public static DocumentFragment parseWhole(InputSource is, XMLWhitespace ws)
+    throws ParserConfigurationException, SAXException, IOException
+  {
+    return parseWhole(SAXParserPool.getDefault(), is, ws);
   }
   /**
      Parse a whole document.
@@ -391,12 +842,565 @@ public abstract class DocumentFragmentHandler
   /**
      Parse a whole document.
 
+     The parser is taken from the default parser pool.
+
      @param uri URI of the document
      @return A parse tree of the document
    */
   public static DocumentFragment parseWhole(String uri)
     throws ParserConfigurationException, SAXException, IOException
   {
-    return parseWhole(SAXParserFactory.newInstance(), uri);
+    return parseWhole(SAXParserPool.getDefault(), uri);
+  }
+  /**
+     Parse a whole document with a parser from a pool.
+
+     @param pool A parser pool
+     @param uri URI of the document
+     @return A parse tree of the document
+   */
+  public static DocumentFragment parseWhole(SAXParserPool pool, String uri)
+    throws ParserConfigurationException, SAXException, IOException
+  {
+    return parseWhole(pool, uri, XMLWhitespace.PRESERVE);
+  }
+  /**
+     Parse a whole document with a parser from a pool.
+
+     @param pool A parser pool
+     @param uri URI of the document
+     @param ws The handling of whitespace text
+     @return A parse tree of the document
+   */
+  public static DocumentFragment parseWhole(SAXParserPool pool,
+                                            String uri, XMLWhitespace ws)
+    throws ParserConfigurationException, SAXException, IOException
+  {
+    WholeDocumentHandler whole = new WholeDocumentHandler();
+    SAXParser p = pool.acquire();
+    whole.setWhitespace(ws);
+    try {
+      p.parse(uri, whole);
+    }
+    finally
+    {
+      pool.release(p);
+    }
+    return whole.f_global;
+  }
+  /**
+     Parse a whole document.
+
+     The parser is taken from the default parser pool.
+
+     @param uri URI of the document
+     @param ws The handling of whitespace text
+     @return A parse tree of the document
+   */
+  public static DocumentFragment parseWhole(String uri, XMLWhitespace ws)
+    throws ParserConfigurationException, SAXException, IOException
+  {
+    return parseWhole(SAXParserPool.getDefault(), uri, ws);
+  }
+  /**
+     Parse a whole document into a frozen tree.
+
+     The tree is read-only and may be shared between threads, see
+     DocumentFragment.freeze(). The parser is taken from the default
+     parser pool.
+
+     @param f File of the document
+     @param ws The handling of whitespace text
+     @return A frozen parse tree of the document
+   */
+  public static DocumentFragment parseWholeFrozen(File f, XMLWhitespace ws)
+    throws ParserConfigurationException, SAXException, IOException
+  {
+    return parseWhole(SAXParserPool.getDefault(), f, ws).freeze();
+  }
+  /**
+     Parse a whole document into a frozen tree.
+
+     The tree is read-only and may be shared between threads, see
+     DocumentFragment.freeze(). The parser is taken from the default
+     parser pool.
+
+     @param is InputStream of the document
+     @param ws The handling of whitespace text
+     @return A frozen parse tree of the document
+   */
+  public static DocumentFragment parseWholeFrozen(InputStream is,
+                                                  XMLWhitespace ws)
+    throws ParserConfigurationException, SAXException, IOException
+  {
+    return parseWhole(SAXParserPool.getDefault(), is, ws).freeze();
+  }
+  /**
+     Parse a whole document into a frozen tree.
+
+     The tree is read-only and may be shared between threads, see
+     DocumentFragment.freeze(). The parser is taken from the default
+     parser pool.
+
+     @param is InputSource of the document
+     @param ws The handling of whitespace text
+     @return A frozen parse tree of the document
+   */
+  public static DocumentFragment parseWholeFrozen(InputSource is,
+                                                  XMLWhitespace ws)
+    throws ParserConfigurationException, SAXException, IOException
+  {
+    return parseWhole(SAXParserPool.getDefault(), is, ws).freeze();
+  }
+  /**
+     Parse a whole document into a frozen tree.
+
+     The tree is read-only and may be shared between threads, see
+     DocumentFragment.freeze(). The parser is taken from the default
+     parser pool.
+
+     @param uri URI of the document
+     @param ws The handling of whitespace text
+     @return A frozen parse tree of the document
+   */
+  public static DocumentFragment parseWholeFrozen(String uri, XMLWhitespace ws)
+    throws ParserConfigurationException, SAXException, IOException
+  {
+    return parseWhole(SAXParserPool.getDefault(), uri, ws).freeze();
+  }
+  /**
+     Set the size of the input buffer of a parser.
+
+     Supported by Xerces, including the parser bundled with the JDK. The
+     default buffer is small, so a larger one reduces the number of reads
+     with large documents.
+
+     @param p The parser
+     @param bufferSize The size of the buffer
+     @return Whether the parser supports setting the buffer size
+   */
+  public static boolean setInputBufferSize(SAXParser p, int bufferSize)
+  {
+    try {
+      p.setProperty(INPUT_BUFFER_SIZE, bufferSize);
+      return true;
+    }
+    catch (SAXNotRecognizedException e)
+    {
+      return false;
+    }
+    catch (SAXNotSupportedException e)
+    {
+      return false;
+    }
+  }
+  private static DocumentFragment parseWhole(SAXParserPool pool,
+                                             InputStream is, int bufferSize)
+    throws ParserConfigurationException, SAXException, IOException
+  {
+    WholeDocumentHandler whole = new WholeDocumentHandler();
+    SAXParser p = pool.acquire();
+    try {
+      setInputBufferSize(p, bufferSize);
+      p.parse(is, whole);
+    }
+    finally
+    {
+      pool.release(p);
+    }
+    return whole.f_global;
+  }
+  /**
+     Parse a whole document.
+
+     The remaining bytes of the buffer are parsed without copying them. The
+     position of the buffer is not modified.
+
+     @param fact A parser factory
+     @param buf Buffer of the document
+     @return A parse tree of the document
+   */
+  public static DocumentFragment parseWhole(SAXParserFactory fact,
+                                            ByteBuffer buf)
+    throws ParserConfigurationException, SAXException, IOException
+  {
+    return parseWhole(new SAXParserPool(fact, 1), buf);
+  }
+  /**
+     Parse a whole document.
+
+     The parser is taken from the default parser pool.
+
+     @param buf Buffer of the document
+     @return A parse tree of the document
+   */
+  public static DocumentFragment parseWhole(ByteBuffer buf)
+    throws ParserConfigurationException, SAXException, IOException
+  {
+    return parseWhole(SAXParserPool.getDefault(), buf);
+  }
+  /**
+     Parse a whole document.
+
+     The channel is read to the end but not closed.
+
+     @param fact A parser factory
+     @param ch Channel of the document
+     @param bufferSize The size of the read buffer in bytes
+     @return A parse tree of the document
+   */
+  public static DocumentFragment parseWhole(SAXParserFactory fact,
+                                            ReadableByteChannel ch,
+                                            int bufferSize)
+    throws ParserConfigurationException, SAXException, IOException
+  {
+    return parseWhole(new SAXParserPool(fact, 1), ch, bufferSize);
+  }
+  /**
+     Parse a whole document.
+
+     The parser is taken from the default parser pool.
+
+     @param ch Channel of the document
+     @param bufferSize The size of the read buffer in bytes
+     @return A parse tree of the document
+   */
+  public static DocumentFragment parseWhole(ReadableByteChannel ch,
+                                            int bufferSize)
+    throws ParserConfigurationException, SAXException, IOException
+  {
+    return parseWhole(SAXParserPool.getDefault(), ch, bufferSize);
+  }
+  /**
+     Parse a whole document.
+
+     The channel is memory-mapped from its current position to its end. If
+     that is too large to be mapped, the channel is read with a buffer of
+     the default size. The channel is not closed.
+
+     @param fact A parser factory
+     @param ch Channel of the document
+     @return A parse tree of the document
+   */
+  public static DocumentFragment parseWhole(SAXParserFactory fact,
+                                            FileChannel ch)
+    throws ParserConfigurationException, SAXException, IOException
+  {
+    return parseWhole(new SAXParserPool(fact, 1), ch);
+  }
+  /**
+     Parse a whole document.
+
+     The parser is taken from the default parser pool.
+
+     @param ch Channel of the document
+     @return A parse tree of the document
+   */
+  public static DocumentFragment parseWhole(FileChannel ch)
+    throws ParserConfigurationException, SAXException, IOException
+  {
+    return parseWhole(SAXParserPool.getDefault(), ch);
+  }
+  /**
+     Parse a whole document from a memory-mapped file.
+
+     @param fact A parser factory
+     @param f File of the document
+     @return A parse tree of the document
+   */
+  public static DocumentFragment parseWholeMapped(SAXParserFactory fact,
+                                                  File f)
+    throws ParserConfigurationException, SAXException, IOException
+  {
+    return parseWholeMapped(new SAXParserPool(fact, 1), f);
+  }
+  /**
+     Parse a whole document from a memory-mapped file.
+
+     The parser is taken from the default parser pool.
+
+     @param f File of the document
+     @return A parse tree of the document
+   */
+  public static DocumentFragment parseWholeMapped(File f)
+    throws ParserConfigurationException, SAXException, IOException
+  {
+    return parseWholeMapped(SAXParserPool.getDefault(), f);
+  }
+  /**
+     Parse a whole document.
+
+     @param fact A parser factory
+     @param f File of the document
+     @param bufferSize The size of the read buffer in bytes
+     @return A parse tree of the document
+   */
+  public static DocumentFragment parseWhole(SAXParserFactory fact, File f,
+                                            int bufferSize)
+    throws ParserConfigurationException, SAXException, IOException
+  {
+    return parseWhole(new SAXParserPool(fact, 1), f, bufferSize);
+  }
+  /**
+     Parse a whole document.
+
+     The parser is taken from the default parser pool.
+
+     @param f File of the document
+     @param bufferSize The size of the read buffer in bytes
+     @return A parse tree of the document
+   */
+  public static DocumentFragment parseWhole(File f, int bufferSize)
+    throws ParserConfigurationException, SAXException, IOException
+  {
+    return parseWhole(SAXParserPool.getDefault(), f, bufferSize);
+  }
+  /**
+     Parse a whole document with a parser from a pool.
+
+     The remaining bytes of the buffer are parsed without copying them. The
+     position of the buffer is not modified.
+
+     @param pool A parser pool
+     @param buf Buffer of the document
+     @return A parse tree of the document
+   */
+  public static DocumentFragment parseWhole(SAXParserPool pool,
+                                            ByteBuffer buf)
+    throws ParserConfigurationException, SAXException, IOException
+  {
+    return parseWhole(pool, new ByteBufferInputStream(buf),
+                      ChannelInputStream.DEFAULT_BUFFER_SIZE);
+  }
+  /**
+     Parse a whole document with a parser from a pool.
+
+     The channel is read to the end but not closed.
+
+     @param pool A parser pool
+     @param ch Channel of the document
+     @param bufferSize The size of the read buffer in bytes
+     @return A parse tree of the document
+   */
+  public static DocumentFragment parseWhole(SAXParserPool pool,
+                                            ReadableByteChannel ch,
+                                            int bufferSize)
+    throws ParserConfigurationException, SAXException, IOException
+  {
+    InputStream is = new FilterInputStream(
+        new ChannelInputStream(ch, bufferSize)) {
+      public void close()
+      {
+      }
+    };
+    return parseWhole(pool, is, bufferSize);
+  }
+  /**
+     Parse a whole document with a parser from a pool.
+
+     The channel is memory-mapped from its current position to its end. If
+     that is too large to be mapped, the channel is read with a buffer of
+     the default size. The channel is not closed.
+
+     @param pool A parser pool
+     @param ch Channel of the document
+     @return A parse tree of the document
+   */
+  public static DocumentFragment parseWhole(SAXParserPool pool,
+                                            FileChannel ch)
+    throws ParserConfigurationException, SAXException, IOException
+  {
+    long pos = ch.position();
+    long size = ch.size() - pos;
+    if (size > Integer.MAX_VALUE)
+    {
+      return parseWhole(pool, (ReadableByteChannel)ch,
+                        ChannelInputStream.DEFAULT_BUFFER_SIZE);
+    }
+    return parseWhole(pool,
+                      ch.map(FileChannel.MapMode.READ_ONLY, pos, size));
+  }
+  /**
+     Parse a whole document from a memory-mapped file with a parser from a
+     pool.
+
+     @param pool A parser pool
+     @param f File of the document
+     @return A parse tree of the document
+   */
+  public static DocumentFragment parseWholeMapped(SAXParserPool pool, File f)
+    throws ParserConfigurationException, SAXException, IOException
+  {
+    FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+    try {
+      return parseWhole(pool, ch);
+    }
+    finally
+    {
+      ch.close();
+    }
+  }
+  /**
+     Parse a whole document with a parser from a pool.
+
+     @param pool A parser pool
+     @param f File of the document
+     @param bufferSize The size of the read buffer in bytes
+     @return A parse tree of the document
+   */
+  public static DocumentFragment parseWhole(SAXParserPool pool, File f,
+                                            int bufferSize)
+    throws ParserConfigurationException, SAXException, IOException
+  {
+    FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+    try {
+      return parseWhole(pool, (ReadableByteChannel)ch, bufferSize);
+    }
+    finally
+    {
+      ch.close();
+    }
+  }
+  /**
+     Stream the fragments matching a path.
+
+     The fragments are collected lazily by a parser thread into a bounded
+     queue, so memory consumption does not depend on the document size.
+     When the stream is made parallel, the fragments are handed out in
+     batches so that the per-fragment work scales across cores while the
+     single parser feeds them. A parse failure is thrown from the stream
+     operation as an XMLProcessingException.
+
+     The stream should be closed if it is not consumed to the end, so that
+     the parser thread terminates.
+
+     @param fact A parser factory
+     @param is InputStream of the document
+     @param path The path of the fragments, as in onFragment
+     @return A stream of the fragments in document order
+   */
+  public static Stream<DocumentFragment> stream(SAXParserFactory fact,
+                                                InputStream is, String path)
+  {
+    if (is == null)
+    {
+      throw new NullPointerException();
+    }
+    return FragmentSpliterator.stream(fact, new InputSource(is), path);
+  }
+  /**
+     Stream the fragments matching a path.
+
+     See stream(SAXParserFactory, InputStream, String).
+
+     The parser is taken from the default parser pool.
+
+     @param is InputStream of the document
+     @param path The path of the fragments, as in onFragment
+     @return A stream of the fragments in document order
+   */
+  public static Stream<DocumentFragment> stream(InputStream is, String path)
+  {
+    if (is == null)
+    {
+      throw new NullPointerException();
+    }
+    return FragmentSpliterator.stream(SAXParserPool.getDefault(),
+                                      new InputSource(is), path);
+  }
+  /**
+     Stream the fragments matching a path.
+
+     The fragments are collected lazily by a parser thread into a bounded
+     queue, so memory consumption does not depend on the document size.
+     When the stream is made parallel, the fragments are handed out in
+     batches so that the per-fragment work scales across cores while the
+     single parser feeds them. A parse failure is thrown from the stream
+     operation as an XMLProcessingException.
+
+     The stream should be closed if it is not consumed to the end, so that
+     the parser thread terminates.
+
+     @param fact A parser factory
+     @param f File of the document
+     @param path The path of the fragments, as in onFragment
+     @return A stream of the fragments in document order
+   */
+  public static Stream<DocumentFragment> stream(SAXParserFactory fact,
+                                                File f, String path)
+  {
+    if (f == null)
+    {
+      throw new NullPointerException();
+    }
+    return FragmentSpliterator.stream(
+        fact, new InputSource(f.toURI().toASCIIString()), path);
+  }
+  /**
+     Stream the fragments matching a path.
+
+     See stream(SAXParserFactory, File, String).
+
+     The parser is taken from the default parser pool.
+
+     @param f File of the document
+     @param path The path of the fragments, as in onFragment
+     @return A stream of the fragments in document order
+   */
+  public static Stream<DocumentFragment> stream(File f, String path)
+  {
+    if (f == null)
+    {
+      throw new NullPointerException();
+    }
+    return FragmentSpliterator.stream(
+        SAXParserPool.getDefault(),
+        new InputSource(f.toURI().toASCIIString()), path);
+  }
+  /**
+     Stream the fragments matching a path.
+
+     The fragments are collected lazily by a parser thread into a bounded
+     queue, so memory consumption does not depend on the document size.
+     When the stream is made parallel, the fragments are handed out in
+     batches so that the per-fragment work scales across cores while the
+     single parser feeds them. A parse failure is thrown from the stream
+     operation as an XMLProcessingException.
+
+     The stream should be closed if it is not consumed to the end, so that
+     the parser thread terminates.
+
+     @param fact A parser factory
+     @param is InputSource of the document
+     @param path The path of the fragments, as in onFragment
+     @return A stream of the fragments in document order
+   */
+  public static Stream<DocumentFragment> stream(SAXParserFactory fact,
+                                                InputSource is, String path)
+  {
+    if (is == null)
+    {
+      throw new NullPointerException();
+    }
+    return FragmentSpliterator.stream(fact, is, path);
+  }
+  /**
+     Stream the fragments matching a path.
+
+     See stream(SAXParserFactory, InputSource, String).
+
+     The parser is taken from the default parser pool.
+
+     @param is InputSource of the document
+     @param path The path of the fragments, as in onFragment
+     @return A stream of the fragments in document order
+   */
+  public static Stream<DocumentFragment> stream(InputSource is, String path)
+  {
+    if (is == null)
+    {
+      throw new NullPointerException();
+    }
+    return FragmentSpliterator.stream(SAXParserPool.getDefault(), is, path);
   }
 }
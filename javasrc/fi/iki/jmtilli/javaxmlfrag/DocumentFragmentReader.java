@@ -0,0 +1,390 @@
+/*
+  Copyright (C) 2013 Juha-Matti Tilli
+  
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+  
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+  
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  SOFTWARE.
+ */
+package fi.iki.jmtilli.javaxmlfrag;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+/**
+   Pull-based reader of document fragments.
+
+   Unlike DocumentFragmentHandler, the reader does not invert control: the
+   caller asks for the next fragment when it wants one. Thus the caller can
+   stop at any time, skip parts of the document and interleave several
+   documents in one thread, for example to merge sorted inputs.
+
+   The reader is backed by a StAX XMLStreamReader. DocumentFragment objects
+   are built only for the requested elements. Everything else is skipped by
+   moving the cursor without looking at the names or contents of the
+   skipped elements.
+
+   Tag and attribute names are qualified names as in DocumentFragmentHandler.
+   When the reader creates the XMLStreamReader itself, it disables namespace
+   processing so that the names are reported as in the document.
+ */
+public class DocumentFragmentReader {
+  private final XMLStreamReader r;
+  private final ArrayList<String> tags = new ArrayList<String>();
+  private final HashMap<String, PathAutomaton<String>> automata =
+    new HashMap<String, PathAutomaton<String>>();
+  private boolean pending = false;
+  private XMLWhitespace ws = XMLWhitespace.PRESERVE;
+  private XMLSymbolTable symbols = new XMLSymbolTable();
+  private char[] nameBuf = new char[64];
+
+  /**
+     Create a reader.
+
+     @param r The underlying stream reader, positioned at the start of the
+              document or before an element
+   */
+  public DocumentFragmentReader(XMLStreamReader r)
+  {
+    if (r == null)
+    {
+      throw new NullPointerException();
+    }
+    this.r = r;
+  }
+  private static XMLInputFactory newFactory()
+  {
+    XMLInputFactory fact = XMLInputFactory.newInstance();
+    fact.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.FALSE);
+    return fact;
+  }
+  /**
+     Create a reader.
+
+     @param fact A stream reader factory
+     @param is InputStream of the document
+   */
+  public DocumentFragmentReader(XMLInputFactory fact, InputStream is)
+    throws XMLStreamException
+  {
+    this(fact.createXMLStreamReader(is));
+  }
+  /**
+     Create a reader.
+
+     @param is InputStream of the document
+   */
+  public DocumentFragmentReader(InputStream is)
+    throws XMLStreamException
+  {
+    this(newFactory(), is);
+  }
+  /**
+     Create a reader.
+
+     @param fact A stream reader factory
+     @param reader Reader of the document
+   */
+  public DocumentFragmentReader(XMLInputFactory fact, Reader reader)
+    throws XMLStreamException
+  {
+    this(fact.createXMLStreamReader(reader));
+  }
+  /**
+     Create a reader.
+
+     @param reader Reader of the document
+   */
+  public DocumentFragmentReader(Reader reader)
+    throws XMLStreamException
+  {
+    this(newFactory(), reader);
+  }
+  private String qName(String prefix, String localName)
+  {
+    int len;
+    if (prefix == null || prefix.isEmpty())
+    {
+      return symbols.intern(localName);
+    }
+    len = prefix.length() + 1 + localName.length();
+    if (len > nameBuf.length)
+    {
+      nameBuf = new char[2*len];
+    }
+    prefix.getChars(0, prefix.length(), nameBuf, 0);
+    nameBuf[prefix.length()] = ':';
+    localName.getChars(0, localName.length(), nameBuf, prefix.length() + 1);
+    return symbols.intern(nameBuf, 0, len);
+  }
+  private String name()
+  {
+    return qName(r.getPrefix(), r.getLocalName());
+  }
+  private String attributeName(int i)
+  {
+    return qName(r.getAttributePrefix(i), r.getAttributeLocalName(i));
+  }
+  /**
+     Move the cursor to the next start tag, end tag or end of document
+     without consuming it.
+
+     @return The event type at the cursor
+   */
+  private int peekEvent() throws XMLStreamException
+  {
+    for (;;)
+    {
+      int event;
+      if (!pending)
+      {
+        if (r.getEventType() != XMLStreamConstants.END_DOCUMENT)
+        {
+          r.next();
+        }
+        pending = true;
+      }
+      event = r.getEventType();
+      switch (event)
+      {
+        case XMLStreamConstants.START_ELEMENT:
+        case XMLStreamConstants.END_ELEMENT:
+        case XMLStreamConstants.END_DOCUMENT:
+          return event;
+        default:
+          pending = false;
+      }
+    }
+  }
+  /**
+     Get the tag name of the next element without consuming it.
+
+     End tags of the enclosing elements, text outside the requested
+     fragments, comments and processing instructions are skipped.
+
+     @return The qualified tag name or null at the end of the document
+   */
+  public String peekTag() throws XMLStreamException
+  {
+    for (;;)
+    {
+      switch (peekEvent())
+      {
+        case XMLStreamConstants.START_ELEMENT:
+          return name();
+        case XMLStreamConstants.END_ELEMENT:
+          tags.remove(tags.size()-1);
+          pending = false;
+          break;
+        default:
+          return null;
+      }
+    }
+  }
+  /**
+     Get the nesting depth of the next element.
+
+     Should be called after peekTag().
+
+     @return The number of enclosing elements of the next element
+   */
+  public int getDepth()
+  {
+    return tags.size();
+  }
+  /**
+     Skip the next element and all of its contents.
+
+     Does nothing at the end of the document.
+   */
+  public void skipSubtree() throws XMLStreamException
+  {
+    int depth = 0;
+    if (peekTag() == null)
+    {
+      return;
+    }
+    for (;;)
+    {
+      switch (r.getEventType())
+      {
+        case XMLStreamConstants.START_ELEMENT:
+          depth++;
+          break;
+        case XMLStreamConstants.END_ELEMENT:
+          if (--depth == 0)
+          {
+            pending = false;
+            return;
+          }
+          break;
+        default:
+          break;
+      }
+      r.next();
+    }
+  }
+  /**
+     Set how whitespace text is handled in the fragments read.
+
+     @param ws The handling of whitespace text
+   */
+  public void setWhitespace(XMLWhitespace ws)
+  {
+    if (ws == null)
+    {
+      throw new NullPointerException();
+    }
+    this.ws = ws;
+  }
+  /**
+     Set the table interning the tag and attribute names of the fragments
+     read.
+
+     By default, each reader has a table of its own.
+
+     @param symbols The symbol table
+   */
+  public void setSymbolTable(XMLSymbolTable symbols)
+  {
+    if (symbols == null)
+    {
+      throw new NullPointerException();
+    }
+    this.symbols = symbols;
+  }
+  /**
+     Read the next element as a fragment.
+
+     @return The fragment or null at the end of the document
+   */
+  public DocumentFragment readFragment() throws XMLStreamException
+  {
+    DocumentFragmentBuilder b = new DocumentFragmentBuilder(ws);
+    if (peekTag() == null)
+    {
+      return null;
+    }
+    for (;;)
+    {
+      switch (r.getEventType())
+      {
+        case XMLStreamConstants.START_ELEMENT:
+          b.startElement(name());
+          for (int i = 0; i < r.getAttributeCount(); i++)
+          {
+            b.attribute(attributeName(i), r.getAttributeValue(i));
+          }
+          break;
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.CDATA:
+          b.characters(r.getTextCharacters(), r.getTextStart(),
+                       r.getTextLength());
+          break;
+        case XMLStreamConstants.END_ELEMENT:
+          b.endElement();
+          if (b.ready())
+          {
+            pending = false;
+            return b.getDocumentFragment();
+          }
+          break;
+        default:
+          break;
+      }
+      r.next();
+    }
+  }
+  private PathAutomaton<String> automaton(String path)
+  {
+    PathAutomaton<String> a = automata.get(path);
+    if (a == null)
+    {
+      a = new PathAutomaton<String>();
+      a.add(path, path);
+      automata.put(path, a);
+    }
+    return a;
+  }
+  /**
+     Read the next element matching a path as a fragment.
+
+     The path is relative to the document element, as in
+     DocumentFragmentHandler.onFragment. Elements that cannot contain a
+     matching element are skipped without building fragments of them.
+
+     @param path The path of the fragment
+     @return The fragment or null if there are no more matching elements
+   */
+  public DocumentFragment nextFragment(String path) throws XMLStreamException
+  {
+    PathAutomaton<String> a = automaton(path);
+    ArrayList<PathAutomaton.State<String>> states =
+      new ArrayList<PathAutomaton.State<String>>();
+    PathAutomaton.State<String> state = null;
+    int base = -1;
+    for (;;)
+    {
+      PathAutomaton.State<String> next;
+      String tag = peekTag();
+      if (tag == null)
+      {
+        return null;
+      }
+      if (tags.size() < base || state == null)
+      {
+        state = a.root();
+        for (String t: tags)
+        {
+          state = state.step(t);
+        }
+        states.clear();
+        base = tags.size();
+      }
+      while (base + states.size() > tags.size())
+      {
+        state = states.remove(states.size()-1);
+      }
+      next = state.step(tag);
+      if (!next.getValues().isEmpty())
+      {
+        return readFragment();
+      }
+      if (next.isDead())
+      {
+        skipSubtree();
+        continue;
+      }
+      states.add(state);
+      state = next;
+      tags.add(tag);
+      pending = false;
+    }
+  }
+  /**
+     Close the reader.
+
+     Does not close the underlying input source.
+   */
+  public void close() throws XMLStreamException
+  {
+    r.close();
+  }
+}
@@ -0,0 +1,894 @@
+/*
+  Copyright (C) 2013 Juha-Matti Tilli
+  
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+  
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+  
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  SOFTWARE.
+ */
+package fi.iki.jmtilli.javaxmlfrag;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+/**
+   Scanner that builds document fragments directly from UTF-8 bytes.
+
+   The scanner tokenizes the bytes itself instead of going through a SAX
+   parser, so there are no SAX Attributes objects, no char[] callbacks and
+   no per-event virtual calls. It covers the well-formed subset of XML that
+   record-oriented dumps use: UTF-8 encoding, elements, attributes, the
+   predefined and numeric character references, CDATA sections, comments
+   and processing instructions.
+
+   Anything else, such as a document type declaration, another encoding or
+   a well-formedness error, makes the scanner fall back to the SAX parser,
+   which either parses the document or reports the error. Thus the results
+   are always the same as with DocumentFragmentHandler. In fragment mode,
+   the fragments already handed to the processor before the fallback are
+   not handed to it again.
+ */
+public final class DocumentFragmentScanner {
+  private static class Fallback extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    public Fallback()
+    {
+      super(null, null, false, false);
+    }
+  };
+  private static final Fallback FALLBACK = new Fallback();
+  private static final Pattern XML_DECL = Pattern.compile(
+      "\\s+version\\s*=\\s*(['\"])1\\.0\\1" +
+      "(\\s+encoding\\s*=\\s*(['\"])(?i:utf-8)\\3)?" +
+      "(\\s+standalone\\s*=\\s*(['\"])(yes|no)\\5)?\\s*");
+
+  private final ByteBuffer b;
+  private final int end;
+  private int pos;
+  private char[] cbuf = new char[256];
+  private int clen;
+  private final PathAutomaton<FragmentProcessor> paths;
+  private DocumentFragmentBuilder builder;
+  private final XMLSymbolTable symbols = new XMLSymbolTable();
+  private DocumentFragment whole;
+  private int emitted = 0;
+  private final ArrayList<String> tags = new ArrayList<String>();
+  private final ArrayList<PathAutomaton.State<FragmentProcessor>> states =
+    new ArrayList<PathAutomaton.State<FragmentProcessor>>();
+  private int[] attrStarts = new int[16];
+  private int[] attrEnds = new int[16];
+
+  private DocumentFragmentScanner(ByteBuffer b,
+                                  PathAutomaton<FragmentProcessor> paths)
+  {
+    this.b = b;
+    this.pos = b.position();
+    this.end = b.limit();
+    this.paths = paths;
+  }
+
+  /**
+     Parse a whole UTF-8 document.
+
+     @param buf The bytes of the document
+     @return A parse tree of the document
+   */
+  public static DocumentFragment parseWhole(byte[] buf)
+    throws ParserConfigurationException, SAXException, IOException
+  {
+    return parseWhole(ByteBuffer.wrap(buf));
+  }
+  /**
+     Parse a whole UTF-8 document.
+
+     The position of the buffer is not modified.
+
+     @param buf The buffer whose remaining bytes are the document
+     @return A parse tree of the document
+   */
+  public static DocumentFragment parseWhole(ByteBuffer buf)
+    throws ParserConfigurationException, SAXException, IOException
+  {
+    DocumentFragmentScanner sc = new DocumentFragmentScanner(buf, null);
+    try {
+      sc.scanDocument();
+      return sc.whole;
+    }
+    catch (Fallback e)
+    {
+      return DocumentFragmentHandler.parseWhole(new ByteBufferInputStream(buf));
+    }
+  }
+  /**
+     Parse the fragments matching a path from a UTF-8 document.
+
+     @param buf The bytes of the document
+     @param path The path of the fragments, as in
+                 DocumentFragmentHandler.onFragment
+     @param proc The processor of the fragments
+   */
+  public static void parse(byte[] buf, String path, FragmentProcessor proc)
+    throws ParserConfigurationException, SAXException, IOException
+  {
+    parse(ByteBuffer.wrap(buf), path, proc);
+  }
+  /**
+     Parse the fragments matching a path from a UTF-8 document.
+
+     The fragments are handed to the processor in document order in the
+     calling thread. The position of the buffer is not modified.
+
+     @param buf The buffer whose remaining bytes are the document
+     @param path The path of the fragments, as in
+                 DocumentFragmentHandler.onFragment
+     @param proc The processor of the fragments
+   */
+  public static void parse(ByteBuffer buf, String path,
+                           final FragmentProcessor proc)
+    throws ParserConfigurationException, SAXException, IOException
+  {
+    PathAutomaton<FragmentProcessor> paths =
+      new PathAutomaton<FragmentProcessor>();
+    DocumentFragmentScanner sc;
+    final int skip;
+    DocumentFragmentHandler handler;
+    SAXParserPool pool;
+    SAXParser p;
+    paths.add(path, proc);
+    sc = new DocumentFragmentScanner(buf, paths);
+    try {
+      sc.scanDocument();
+      return;
+    }
+    catch (Fallback e)
+    {
+      skip = sc.emitted;
+    }
+    handler = new DocumentFragmentHandler() {
+      public void startXMLElement(String uri, String localName, String qName,
+                                  Attributes attributes)
+      {
+      }
+      public void endXMLElement(String uri, String localName, String qName,
+                                DocumentFragment f)
+      {
+      }
+    };
+    handler.onFragment(path, new FragmentProcessor() {
+      private int seen = 0;
+      public void processFragment(DocumentFragment f) throws Exception
+      {
+        if (seen++ >= skip)
+        {
+          proc.processFragment(f);
+        }
+      }
+    });
+    pool = SAXParserPool.getDefault();
+    p = pool.acquire();
+    try {
+      DocumentFragmentHandler.setInputBufferSize(
+          p, ChannelInputStream.DEFAULT_BUFFER_SIZE);
+      p.parse(new ByteBufferInputStream(buf), handler);
+    }
+    finally
+    {
+      pool.release(p);
+    }
+  }
+
+  private int peek(int off)
+  {
+    int i = pos + off;
+    if (i >= end)
+    {
+      return -1;
+    }
+    return b.get(i) & 0xFF;
+  }
+  private boolean startsWith(String s)
+  {
+    if (end - pos < s.length())
+    {
+      return false;
+    }
+    for (int i = 0; i < s.length(); i++)
+    {
+      if ((b.get(pos+i) & 0xFF) != s.charAt(i))
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+  private static boolean isSpace(int c)
+  {
+    return c == ' ' || c == '\n' || c == '\t' || c == '\r';
+  }
+  private void skipSpace()
+  {
+    while (pos < end && isSpace(b.get(pos) & 0xFF))
+    {
+      pos++;
+    }
+  }
+  private void append(char c)
+  {
+    if (clen == cbuf.length)
+    {
+      cbuf = Arrays.copyOf(cbuf, 2*clen);
+    }
+    cbuf[clen++] = c;
+  }
+  private static boolean isNameStart(int c)
+  {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') ||
+           c == '_' || c == ':';
+  }
+  private static boolean isNameChar(int c)
+  {
+    return isNameStart(c) || (c >= '0' && c <= '9') || c == '-' || c == '.';
+  }
+  /**
+     Scan an ASCII name, leaving it to cbuf.
+   */
+  private void scanName()
+  {
+    int c = peek(0);
+    clen = 0;
+    if (!isNameStart(c))
+    {
+      throw FALLBACK;
+    }
+    do {
+      append((char)c);
+      pos++;
+      c = peek(0);
+    } while (isNameChar(c));
+    if (c >= 0x80)
+    {
+      throw FALLBACK;
+    }
+  }
+  private boolean nameEquals(String s)
+  {
+    if (clen != s.length())
+    {
+      return false;
+    }
+    for (int i = 0; i < clen; i++)
+    {
+      if (cbuf[i] != s.charAt(i))
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+  private static boolean isXmlChar(int c)
+  {
+    return (c >= 0x20 && c <= 0xD7FF) || c == 0x9 || c == 0xA || c == 0xD ||
+           (c >= 0xE000 && c <= 0xFFFD) || (c >= 0x10000 && c <= 0x10FFFF);
+  }
+  private void appendCodePoint(int c)
+  {
+    if (c >= 0x10000)
+    {
+      append(Character.highSurrogate(c));
+      append(Character.lowSurrogate(c));
+    }
+    else
+    {
+      append((char)c);
+    }
+  }
+  private int continuation(int off)
+  {
+    int c = peek(off);
+    if ((c & 0xC0) != 0x80)
+    {
+      throw FALLBACK;
+    }
+    return c & 0x3F;
+  }
+  /**
+     Decode a non-ASCII UTF-8 sequence at pos and append it to cbuf.
+   */
+  private void decodeMultiByte(int c)
+  {
+    int cp;
+    if (c >= 0xC2 && c <= 0xDF)
+    {
+      cp = ((c & 0x1F) << 6) | continuation(1);
+      pos += 2;
+    }
+    else if (c >= 0xE0 && c <= 0xEF)
+    {
+      cp = ((c & 0x0F) << 12) | (continuation(1) << 6) | continuation(2);
+      if (cp < 0x800)
+      {
+        throw FALLBACK;
+      }
+      pos += 3;
+    }
+    else if (c >= 0xF0 && c <= 0xF4)
+    {
+      cp = ((c & 0x07) << 18) | (continuation(1) << 12) |
+           (continuation(2) << 6) | continuation(3);
+      if (cp < 0x10000)
+      {
+        throw FALLBACK;
+      }
+      pos += 4;
+    }
+    else
+    {
+      throw FALLBACK;
+    }
+    if (!isXmlChar(cp))
+    {
+      throw FALLBACK;
+    }
+    appendCodePoint(cp);
+  }
+  /**
+     Decode a character or entity reference at pos and append it to cbuf.
+   */
+  private void scanReference()
+  {
+    int c;
+    pos++;
+    if (peek(0) == '#')
+    {
+      int cp = 0;
+      int radix = 10;
+      int digits = 0;
+      pos++;
+      if (peek(0) == 'x')
+      {
+        radix = 16;
+        pos++;
+      }
+      for (;;)
+      {
+        int d;
+        c = peek(0);
+        if (c == ';')
+        {
+          break;
+        }
+        d = Character.digit(c < 0 ? 0 : c, radix);
+        if (c >= 0x80 || d < 0 || cp > 0x10FFFF)
+        {
+          throw FALLBACK;
+        }
+        cp = cp*radix + d;
+        digits++;
+        pos++;
+      }
+      pos++;
+      if (digits == 0 || !isXmlChar(cp))
+      {
+        throw FALLBACK;
+      }
+      appendCodePoint(cp);
+      return;
+    }
+    if (startsWith("lt;"))
+    {
+      append('<');
+      pos += 3;
+    }
+    else if (startsWith("gt;"))
+    {
+      append('>');
+      pos += 3;
+    }
+    else if (startsWith("amp;"))
+    {
+      append('&');
+      pos += 4;
+    }
+    else if (startsWith("quot;"))
+    {
+      append('"');
+      pos += 5;
+    }
+    else if (startsWith("apos;"))
+    {
+      append('\'');
+      pos += 5;
+    }
+    else
+    {
+      throw FALLBACK;
+    }
+  }
+  /**
+     Scan character data up to the next '&lt;', leaving it to cbuf.
+   */
+  private void scanText()
+  {
+    clen = 0;
+    while (pos < end)
+    {
+      int c = b.get(pos) & 0xFF;
+      if (c >= 0x80)
+      {
+        decodeMultiByte(c);
+        continue;
+      }
+      switch (c)
+      {
+        case '<':
+          return;
+        case '&':
+          scanReference();
+          continue;
+        case '\r':
+          append('\n');
+          pos++;
+          if (peek(0) == '\n')
+          {
+            pos++;
+          }
+          continue;
+        case ']':
+          if (startsWith("]]>"))
+          {
+            throw FALLBACK;
+          }
+          break;
+        default:
+          if (c < 0x20 && c != '\n' && c != '\t')
+          {
+            throw FALLBACK;
+          }
+          break;
+      }
+      append((char)c);
+      pos++;
+    }
+  }
+  /**
+     Scan a CDATA section at pos, appending its contents to cbuf.
+   */
+  private void scanCData()
+  {
+    pos += 9;
+    for (;;)
+    {
+      int c = peek(0);
+      if (c < 0)
+      {
+        throw FALLBACK;
+      }
+      if (c >= 0x80)
+      {
+        decodeMultiByte(c);
+        continue;
+      }
+      if (c == ']' && startsWith("]]>"))
+      {
+        pos += 3;
+        return;
+      }
+      if (c == '\r')
+      {
+        append('\n');
+        pos++;
+        if (peek(0) == '\n')
+        {
+          pos++;
+        }
+        continue;
+      }
+      if (c < 0x20 && c != '\n' && c != '\t')
+      {
+        throw FALLBACK;
+      }
+      append((char)c);
+      pos++;
+    }
+  }
+  /**
+     Scan an attribute value at pos, leaving it to cbuf.
+   */
+  private void scanAttributeValue()
+  {
+    int quote = peek(0);
+    if (quote != '"' && quote != '\'')
+    {
+      throw FALLBACK;
+    }
+    pos++;
+    clen = 0;
+    for (;;)
+    {
+      int c = peek(0);
+      if (c < 0 || c == '<')
+      {
+        throw FALLBACK;
+      }
+      if (c == quote)
+      {
+        pos++;
+        return;
+      }
+      if (c >= 0x80)
+      {
+        decodeMultiByte(c);
+        continue;
+      }
+      if (c == '&')
+      {
+        scanReference();
+        continue;
+      }
+      if (c == '\r' && peek(1) == '\n')
+      {
+        pos++;
+        continue;
+      }
+      if (isSpace(c))
+      {
+        c = ' ';
+      }
+      else if (c < 0x20)
+      {
+        throw FALLBACK;
+      }
+      append((char)c);
+      pos++;
+    }
+  }
+  private void skipComment()
+  {
+    pos += 4;
+    for (;;)
+    {
+      if (pos + 2 >= end)
+      {
+        throw FALLBACK;
+      }
+      if (startsWith("--"))
+      {
+        if (peek(2) != '>')
+        {
+          throw FALLBACK;
+        }
+        pos += 3;
+        return;
+      }
+      pos++;
+    }
+  }
+  private void skipPI()
+  {
+    pos += 2;
+    scanName();
+    if (clen == 3 && (cbuf[0] | 0x20) == 'x' && (cbuf[1] | 0x20) == 'm' &&
+        (cbuf[2] | 0x20) == 'l')
+    {
+      throw FALLBACK;
+    }
+    for (;;)
+    {
+      if (pos + 1 >= end)
+      {
+        throw FALLBACK;
+      }
+      if (startsWith("?>"))
+      {
+        pos += 2;
+        return;
+      }
+      pos++;
+    }
+  }
+  private void scanXmlDecl()
+  {
+    StringBuilder sb = new StringBuilder();
+    pos += 5;
+    for (;;)
+    {
+      int c = peek(0);
+      if (c < 0 || c >= 0x80)
+      {
+        throw FALLBACK;
+      }
+      if (c == '?' && peek(1) == '>')
+      {
+        pos += 2;
+        break;
+      }
+      sb.append((char)c);
+      pos++;
+    }
+    if (!XML_DECL.matcher(sb).matches())
+    {
+      throw FALLBACK;
+    }
+  }
+  private void scanMisc()
+  {
+    for (;;)
+    {
+      skipSpace();
+      if (startsWith("<!--"))
+      {
+        skipComment();
+      }
+      else if (startsWith("<?"))
+      {
+        skipPI();
+      }
+      else
+      {
+        return;
+      }
+    }
+  }
+  private void scanDocument()
+  {
+    if (startsWith("\u00EF\u00BB\u00BF"))
+    {
+      pos += 3;
+    }
+    if (startsWith("<?xml") && isSpace(peek(5)))
+    {
+      scanXmlDecl();
+    }
+    scanMisc();
+    if (peek(0) != '<')
+    {
+      throw FALLBACK;
+    }
+    scanElements();
+    scanMisc();
+    if (pos != end)
+    {
+      throw FALLBACK;
+    }
+  }
+  private boolean attributeSeen(int n, int start, int stop)
+  {
+    for (int i = 0; i < n; i++)
+    {
+      if (attrEnds[i] - attrStarts[i] == stop - start)
+      {
+        int j = 0;
+        while (j < stop - start &&
+               b.get(attrStarts[i] + j) == b.get(start + j))
+        {
+          j++;
+        }
+        if (j == stop - start)
+        {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+  /**
+     Scan a start tag at pos.
+
+     @return Whether the element is empty
+   */
+  private boolean scanStartTag()
+  {
+    PathAutomaton.State<FragmentProcessor> state = null;
+    String tag;
+    int n = 0;
+    pos++;
+    scanName();
+    tag = symbols.intern(cbuf, 0, clen);
+    if (builder == null)
+    {
+      if (paths == null)
+      {
+        builder = new DocumentFragmentBuilder();
+      }
+      else
+      {
+        state = states.isEmpty() ? paths.root()
+                                 : states.get(states.size()-1);
+        if (state != null)
+        {
+          state = state.step(tag);
+          if (!state.getValues().isEmpty())
+          {
+            builder = new DocumentFragmentBuilder();
+          }
+        }
+      }
+    }
+    if (builder != null)
+    {
+      builder.startElement(tag);
+    }
+    tags.add(tag);
+    states.add(state);
+    for (;;)
+    {
+      int c = peek(0);
+      int nameStart;
+      String name;
+      if (c == '>')
+      {
+        pos++;
+        return false;
+      }
+      if (c == '/')
+      {
+        if (peek(1) != '>')
+        {
+          throw FALLBACK;
+        }
+        pos += 2;
+        return true;
+      }
+      if (!isSpace(c))
+      {
+        throw FALLBACK;
+      }
+      skipSpace();
+      c = peek(0);
+      if (c == '>' || c == '/')
+      {
+        continue;
+      }
+      nameStart = pos;
+      scanName();
+      if (attributeSeen(n, nameStart, pos))
+      {
+        throw FALLBACK;
+      }
+      if (n == attrStarts.length)
+      {
+        attrStarts = Arrays.copyOf(attrStarts, 2*n);
+        attrEnds = Arrays.copyOf(attrEnds, 2*n);
+      }
+      attrStarts[n] = nameStart;
+      attrEnds[n] = pos;
+      n++;
+      name = builder != null ? symbols.intern(cbuf, 0, clen) : null;
+      skipSpace();
+      if (peek(0) != '=')
+      {
+        throw FALLBACK;
+      }
+      pos++;
+      skipSpace();
+      scanAttributeValue();
+      if (builder != null)
+      {
+        builder.attribute(name, new String(cbuf, 0, clen));
+      }
+    }
+  }
+  private void endElement() throws Exception
+  {
+    PathAutomaton.State<FragmentProcessor> state;
+    tags.remove(tags.size()-1);
+    state = states.remove(states.size()-1);
+    if (builder == null)
+    {
+      return;
+    }
+    builder.endElement();
+    if (builder.ready())
+    {
+      DocumentFragment f = builder.getDocumentFragment();
+      builder = null;
+      if (paths == null)
+      {
+        whole = f;
+        return;
+      }
+      emitted++;
+      for (FragmentProcessor proc: state.getValues())
+      {
+        proc.processFragment(f);
+      }
+    }
+  }
+  private void scanElements()
+  {
+    try {
+      if (scanStartTag())
+      {
+        endElement();
+      }
+      while (!tags.isEmpty())
+      {
+        int c = peek(0);
+        if (c < 0)
+        {
+          throw FALLBACK;
+        }
+        if (c != '<')
+        {
+          scanText();
+          if (builder != null)
+          {
+            builder.characters(cbuf, 0, clen);
+          }
+          continue;
+        }
+        c = peek(1);
+        if (c == '/')
+        {
+          pos += 2;
+          scanName();
+          if (!nameEquals(tags.get(tags.size()-1)))
+          {
+            throw FALLBACK;
+          }
+          skipSpace();
+          if (peek(0) != '>')
+          {
+            throw FALLBACK;
+          }
+          pos++;
+          endElement();
+        }
+        else if (c == '!')
+        {
+          if (startsWith("<!--"))
+          {
+            skipComment();
+          }
+          else if (startsWith("<![CDATA["))
+          {
+            clen = 0;
+            scanCData();
+            if (builder != null)
+            {
+              builder.characters(cbuf, 0, clen);
+            }
+          }
+          else
+          {
+            throw FALLBACK;
+          }
+        }
+        else if (c == '?')
+        {
+          skipPI();
+        }
+        else if (scanStartTag())
+        {
+          endElement();
+        }
+      }
+    }
+    catch (RuntimeException e)
+    {
+      throw e;
+    }
+    catch (Exception e)
+    {
+      throw new XMLProcessingException("fragment processing failed", e);
+    }
+  }
+}
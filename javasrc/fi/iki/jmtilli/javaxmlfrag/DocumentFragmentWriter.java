@@ -0,0 +1,258 @@
+/*
+  Copyright (C) 2013 Juha-Matti Tilli
+  
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+  
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+  
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  SOFTWARE.
+ */
+package fi.iki.jmtilli.javaxmlfrag;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+/**
+   Writer of a document whose root element holds a stream of records.
+
+   The root element is opened on the first write, after which each record
+   is serialized as soon as it is written and can then be garbage
+   collected, so memory use does not depend on the size of the document.
+   Closing the writer closes the root element. The output is the same as
+   unparsing the root with all the records added to it as children.
+
+   The characters are collected to a buffer of a configurable size, and
+   the underlying stream can additionally be flushed after every given
+   number of records so that readers see complete records early. If the
+   stream is a BlockGzipOutputStream, boundary() is called before each
+   element record, so the result can be parsed in parallel with
+   ChunkedFragmentParser.parseGzip.
+
+   A writer is not thread-safe. It can be used as the sink of an ordered
+   FragmentPipeline.
+ */
+public final class DocumentFragmentWriter implements FragmentSink, Closeable {
+  private final XMLSerializer s;
+  private final OutputStream os;
+  private final Writer w;
+  private final XMLDocumentType document_type;
+  private final int flushInterval;
+  private final String rootTag;
+  private DocumentFragment root;
+  private long count = 0;
+  private boolean opened = false;
+  private boolean closed = false;
+
+  /**
+     Create a writer of UTF-8.
+
+     The attributes and children of the root are written when the root
+     element is opened. The records are written after its children.
+
+     @param os The output stream
+     @param root The root element
+     @param document_type XMLDocumentType.WHOLE or FRAGMENT
+     @param indentation XMLIndentation.INDENT or COMPACT
+     @param bufferSize The size of the buffer in characters
+     @param flushInterval Flush the stream after this many records, or
+                          0 to flush only when closing
+   */
+  public DocumentFragmentWriter(OutputStream os, DocumentFragment root,
+                                XMLDocumentType document_type,
+                                XMLIndentation indentation,
+                                int bufferSize, int flushInterval)
+  {
+    this(new XMLSerializer(os, indentation == XMLIndentation.INDENT,
+                           bufferSize),
+         os, null, root, document_type, flushInterval);
+  }
+  /**
+     Create a writer of characters.
+
+     The attributes and children of the root are written when the root
+     element is opened. The records are written after its children.
+
+     @param w The writer
+     @param root The root element
+     @param document_type XMLDocumentType.WHOLE or FRAGMENT
+     @param indentation XMLIndentation.INDENT or COMPACT
+     @param bufferSize The size of the buffer in characters
+     @param flushInterval Flush the writer after this many records, or
+                          0 to flush only when closing
+   */
+  public DocumentFragmentWriter(Writer w, DocumentFragment root,
+                                XMLDocumentType document_type,
+                                XMLIndentation indentation,
+                                int bufferSize, int flushInterval)
+  {
+    this(new XMLSerializer(w, indentation == XMLIndentation.INDENT,
+                           bufferSize),
+         null, w, root, document_type, flushInterval);
+  }
+  /**
+     Create a writer of an indented UTF-8 document with an XML
+     declaration and the default buffer size, flushing only when closing.
+
+     @param os The output stream
+     @param rootTag The tag of the root element
+   */
+  public DocumentFragmentWriter(OutputStream os, String rootTag)
+  {
+    this(os, new DocumentFragment(rootTag), XMLDocumentType.WHOLE,
+         XMLIndentation.INDENT, XMLSerializer.DEFAULT_BUFFER_SIZE, 0);
+  }
+  private DocumentFragmentWriter(XMLSerializer s, OutputStream os, Writer w,
+                                 DocumentFragment root,
+                                 XMLDocumentType document_type,
+                                 int flushInterval)
+  {
+    if (root == null || document_type == null)
+    {
+      throw new NullPointerException();
+    }
+    if (root.isTextElement())
+    {
+      throw new IllegalArgumentException("root can't be a text element");
+    }
+    if (flushInterval < 0)
+    {
+      throw new IllegalArgumentException("flushInterval can't be negative");
+    }
+    this.s = s;
+    this.os = os;
+    this.w = w;
+    this.rootTag = root.getTag();
+    this.root = root;
+    this.document_type = document_type;
+    this.flushInterval = flushInterval;
+  }
+  private void open() throws IOException
+  {
+    if (closed)
+    {
+      throw new IOException("writer closed");
+    }
+    if (opened)
+    {
+      return;
+    }
+    s.startDocument(document_type == XMLDocumentType.WHOLE);
+    root.serializeStart(s);
+    root = null;
+    opened = true;
+  }
+  /**
+     Write a record.
+
+     @param f The record, an element or a text element
+   */
+  public void write(DocumentFragment f) throws IOException
+  {
+    if (f == null)
+    {
+      throw new NullPointerException();
+    }
+    open();
+    if (os instanceof BlockGzipOutputStream && !f.isTextElement())
+    {
+      s.closeStartTag();
+      s.writeBuffer();
+      ((BlockGzipOutputStream)os).boundary();
+    }
+    f.serialize(s);
+    count++;
+    if (flushInterval > 0 && count % flushInterval == 0)
+    {
+      s.flush();
+    }
+  }
+  /**
+     Write a data structure as a record.
+
+     @param tag The tag of the record
+     @param rowable The value that will be serialized
+   */
+  public void write(String tag, XMLRowable rowable) throws IOException
+  {
+    DocumentFragment row;
+    if (rowable == null)
+    {
+      throw new NullPointerException();
+    }
+    row = new DocumentFragment(tag);
+    rowable.toXMLRow(row);
+    write(row);
+  }
+  /**
+     Write a record.
+
+     @param f The record, an element or a text element
+   */
+  public void writeFragment(DocumentFragment f) throws IOException
+  {
+    write(f);
+  }
+  /**
+     Get the number of records written.
+
+     @return The number of records
+   */
+  public long getCount()
+  {
+    return count;
+  }
+  /**
+     Write out the buffered characters and flush the underlying stream.
+   */
+  public void flush() throws IOException
+  {
+    if (closed)
+    {
+      throw new IOException("writer closed");
+    }
+    s.flush();
+  }
+  /**
+     Close the root element and the underlying stream.
+
+     If nothing has been written, the document consists of the root
+     element alone.
+   */
+  public void close() throws IOException
+  {
+    if (closed)
+    {
+      return;
+    }
+    try {
+      open();
+      s.endElement(rootTag);
+      s.endDocument();
+      s.flush();
+    }
+    finally
+    {
+      closed = true;
+      if (os != null)
+      {
+        os.close();
+      }
+      else
+      {
+        w.close();
+      }
+    }
+  }
+};
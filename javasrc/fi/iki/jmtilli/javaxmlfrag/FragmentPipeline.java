@@ -0,0 +1,407 @@
+/*
+  Copyright (C) 2013 Juha-Matti Tilli
+  
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+  
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+  
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  SOFTWARE.
+ */
+package fi.iki.jmtilli.javaxmlfrag;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+/**
+   Pipeline that processes collected document fragments on an executor.
+
+   The parser thread submits each completed fragment to the pipeline, which
+   runs the fragment processor on the executor while the parser continues.
+   At most capacity fragments may be in flight at the same time. When the
+   limit is reached, the parser thread blocks until a worker has finished
+   with a fragment, so memory consumption stays bounded even if the
+   processors are slower than the parser.
+
+   In ordered mode, the fragments are processed one at a time in document
+   order: parsing and processing overlap, but processing is not parallelized.
+   In unordered mode, the fragments are processed concurrently in no
+   particular order, which gives the maximum throughput.
+
+   Fragments submitted with a transformer and a sink are numbered in the
+   order of submission. The transformers are run concurrently regardless of
+   the mode, and the results are reordered in a buffer of at most capacity
+   fragments before being written to the sinks one at a time in submission
+   order. Thus the output is deterministic while the transform step scales
+   with the number of workers.
+
+   If a processor fails, the rest of the fragments are not processed and the
+   failure is rethrown as an XMLProcessingException from the parser thread,
+   either at the next submit or when the pipeline is finished. A
+   DocumentFragmentHandler finishes its pipeline in endDocument, and
+   DocumentFragmentHandler.parse also waits for the pipeline if the parse
+   ends early, so the failure is thrown from the parse call.
+
+   finish() and await() wait for all submitted fragments and clear the
+   failure, so a pipeline can be reused for another document after either
+   of them has returned or thrown.
+
+   The executor is owned by the caller and is never shut down by the
+   pipeline. The submit, finish and await methods may be called only from a
+   single thread at a time.
+ */
+public final class FragmentPipeline {
+  private final Executor executor;
+  private final int capacity;
+  private final boolean ordered;
+  private final Semaphore permits;
+  private final ArrayDeque<Task> queue = new ArrayDeque<Task>();
+  private boolean draining = false;
+  private volatile Throwable failure = null;
+  private final Completion[] reorder;
+  private long nextSeq = 0;
+  private long nextWrite = 0;
+  private boolean writing = false;
+
+  private class Task implements Runnable {
+    private final FragmentProcessor proc;
+    private final DocumentFragment f;
+    public Task(FragmentProcessor proc, DocumentFragment f)
+    {
+      this.proc = proc;
+      this.f = f;
+    }
+    public void run()
+    {
+      try {
+        if (failure == null)
+        {
+          proc.processFragment(f);
+        }
+      }
+      catch (Throwable t)
+      {
+        fail(t);
+      }
+      finally {
+        permits.release();
+      }
+    }
+  };
+  private static class Completion {
+    public final FragmentSink sink;
+    public final DocumentFragment f;
+    public Completion(FragmentSink sink, DocumentFragment f)
+    {
+      this.sink = sink;
+      this.f = f;
+    }
+  };
+  private class TransformTask implements Runnable {
+    private final FragmentTransformer transformer;
+    private final FragmentSink sink;
+    private final DocumentFragment f;
+    private final long seq;
+    public TransformTask(FragmentTransformer transformer, FragmentSink sink,
+                         DocumentFragment f, long seq)
+    {
+      this.transformer = transformer;
+      this.sink = sink;
+      this.f = f;
+      this.seq = seq;
+    }
+    public void run()
+    {
+      DocumentFragment result = null;
+      try {
+        if (failure == null)
+        {
+          result = transformer.transformFragment(f);
+        }
+      }
+      catch (Throwable t)
+      {
+        fail(t);
+      }
+      finally {
+        complete(seq, new Completion(sink, result));
+      }
+    }
+  };
+  private final Runnable drainer = new Runnable() {
+    public void run()
+    {
+      for (;;)
+      {
+        Task t;
+        synchronized (queue)
+        {
+          t = queue.poll();
+          if (t == null)
+          {
+            draining = false;
+            return;
+          }
+        }
+        t.run();
+      }
+    }
+  };
+
+  /**
+     Create a fragment pipeline.
+
+     @param executor The executor that runs the fragment processors
+     @param capacity The maximum number of fragments in flight
+     @param ordered Whether to process the fragments one at a time in
+                    document order
+   */
+  public FragmentPipeline(Executor executor, int capacity, boolean ordered)
+  {
+    if (executor == null)
+    {
+      throw new NullPointerException();
+    }
+    if (capacity <= 0)
+    {
+      throw new IllegalArgumentException("capacity must be positive");
+    }
+    this.executor = executor;
+    this.capacity = capacity;
+    this.ordered = ordered;
+    this.permits = new Semaphore(capacity);
+    this.reorder = new Completion[capacity];
+  }
+  /**
+     Get the maximum number of fragments in flight.
+
+     @return The capacity of the pipeline
+   */
+  public int getCapacity()
+  {
+    return capacity;
+  }
+  /**
+     Test whether the pipeline processes fragments in document order.
+
+     @return Whether the pipeline is in ordered mode
+   */
+  public boolean isOrdered()
+  {
+    return ordered;
+  }
+  private void fail(Throwable t)
+  {
+    synchronized (this)
+    {
+      if (failure == null)
+      {
+        failure = t;
+      }
+    }
+  }
+  /**
+     Throw an XMLProcessingException if a fragment processor has failed.
+   */
+  public void checkFailure()
+  {
+    Throwable t = failure;
+    if (t != null)
+    {
+      throw new XMLProcessingException("fragment processing failed", t);
+    }
+  }
+  private void acquire(int n)
+  {
+    try {
+      permits.acquire(n);
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new XMLProcessingException("interrupted", e);
+    }
+  }
+  /**
+     Submit a fragment for processing.
+
+     Blocks if the pipeline is full.
+
+     @param proc The processor of the fragment
+     @param f The fragment
+   */
+  public void submit(FragmentProcessor proc, DocumentFragment f)
+  {
+    Task task;
+    if (proc == null || f == null)
+    {
+      throw new NullPointerException();
+    }
+    checkFailure();
+    acquire(1);
+    task = new Task(proc, f);
+    if (!ordered)
+    {
+      try {
+        executor.execute(task);
+      }
+      catch (RejectedExecutionException e)
+      {
+        permits.release();
+        fail(e);
+      }
+      checkFailure();
+      return;
+    }
+    synchronized (queue)
+    {
+      queue.add(task);
+      if (draining)
+      {
+        return;
+      }
+      draining = true;
+    }
+    try {
+      executor.execute(drainer);
+    }
+    catch (RejectedExecutionException e)
+    {
+      synchronized (queue)
+      {
+        while (queue.poll() != null)
+        {
+          permits.release();
+        }
+        draining = false;
+      }
+      fail(e);
+    }
+    checkFailure();
+  }
+  /**
+     Complete the transform of a fragment and write the fragments that are
+     next in order.
+
+     Only one thread writes at a time; a thread that completes a fragment
+     while another thread is writing leaves the fragment to the writer.
+   */
+  private void complete(long seq, Completion c)
+  {
+    synchronized (reorder)
+    {
+      reorder[(int)(seq % capacity)] = c;
+      if (writing)
+      {
+        return;
+      }
+      writing = true;
+    }
+    for (;;)
+    {
+      int i;
+      synchronized (reorder)
+      {
+        i = (int)(nextWrite % capacity);
+        c = reorder[i];
+        if (c == null)
+        {
+          writing = false;
+          return;
+        }
+        reorder[i] = null;
+        nextWrite++;
+      }
+      try {
+        if (failure == null && c.f != null)
+        {
+          c.sink.writeFragment(c.f);
+        }
+      }
+      catch (Throwable t)
+      {
+        fail(t);
+      }
+      finally {
+        permits.release();
+      }
+    }
+  }
+  /**
+     Submit a fragment for transforming and writing in submission order.
+
+     Blocks if the pipeline is full.
+
+     @param transformer The transformer of the fragment
+     @param sink The sink of the transformed fragment
+     @param f The fragment
+   */
+  public void submit(FragmentTransformer transformer, FragmentSink sink,
+                     DocumentFragment f)
+  {
+    TransformTask task;
+    if (transformer == null || sink == null || f == null)
+    {
+      throw new NullPointerException();
+    }
+    checkFailure();
+    acquire(1);
+    task = new TransformTask(transformer, sink, f, nextSeq++);
+    try {
+      executor.execute(task);
+    }
+    catch (RejectedExecutionException e)
+    {
+      fail(e);
+      complete(task.seq, new Completion(sink, null));
+    }
+    checkFailure();
+  }
+  /**
+     Wait until all submitted fragments have been processed and clear the
+     failure.
+
+     Unlike finish(), does not throw if a fragment processor has failed,
+     so it can be called when the parse has already failed.
+
+     @return The first failure since the pipeline was last finished or
+             awaited, or null if none
+   */
+  public Throwable await()
+  {
+    Throwable t;
+    acquire(capacity);
+    permits.release(capacity);
+    synchronized (this)
+    {
+      t = failure;
+      failure = null;
+    }
+    return t;
+  }
+  /**
+     Wait until all submitted fragments have been processed.
+
+     Throws an XMLProcessingException if a fragment processor has failed.
+     The failure is cleared, so the pipeline can be reused.
+   */
+  public void finish()
+  {
+    Throwable t = await();
+    if (t != null)
+    {
+      throw new XMLProcessingException("fragment processing failed", t);
+    }
+  }
+}
@@ -0,0 +1,260 @@
+/*
+  Copyright (C) 2013 Juha-Matti Tilli
+  
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+  
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+  
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  SOFTWARE.
+ */
+package fi.iki.jmtilli.javaxmlfrag;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import org.xml.sax.InputSource;
+/**
+   Spliterator over the fragments collected by a parser thread.
+
+   A single parser thread collects the fragments matching a path into a
+   bounded queue, so memory consumption stays constant however large the
+   document is. When split, the spliterator hands out batches of fragments
+   taken from the queue, so a parallel stream can map the fragments on
+   several cores while the parser keeps feeding them.
+ */
+final class FragmentSpliterator implements Spliterator<DocumentFragment>,
+                                           Runnable
+{
+  private static final int QUEUE_SIZE = 1024;
+  private static final int BATCH_UNIT = 64;
+  private static final int MAX_BATCH = 1024;
+  private static final DocumentFragment END = new DocumentFragment("end");
+  private static final long POLL_MILLIS = 100;
+
+  private static class ClosedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    public ClosedException()
+    {
+      super("stream closed", null, false, false);
+    }
+  };
+  private class Handler extends DocumentFragmentHandler {
+    public void startXMLElement(String uri, String localName, String qName,
+                                org.xml.sax.Attributes attributes)
+    {
+    }
+    public void endXMLElement(String uri, String localName, String qName,
+                              DocumentFragment f)
+    {
+    }
+  };
+
+  private final ArrayBlockingQueue<DocumentFragment> queue =
+    new ArrayBlockingQueue<DocumentFragment>(QUEUE_SIZE);
+  private final SAXParserPool pool;
+  private final InputSource is;
+  private final Handler handler = new Handler();
+  private volatile boolean closed = false;
+  private volatile Throwable failure = null;
+  private boolean finished = false;
+  private int batch = 0;
+
+  private FragmentSpliterator(SAXParserPool pool, InputSource is,
+                              String path)
+  {
+    this.pool = pool;
+    this.is = is;
+    handler.onFragment(path, new FragmentProcessor() {
+      public void processFragment(DocumentFragment f)
+        throws InterruptedException
+      {
+        put(f);
+      }
+    });
+  }
+  /**
+     Create a stream of the fragments matching a path.
+
+     Starts the parser thread. The stream should be closed if it is not
+     consumed to the end, so that the parser thread terminates.
+
+     @param fact A parser factory
+     @param is InputSource of the document
+     @param path The path of the fragments, as in
+                 DocumentFragmentHandler.onFragment
+     @return A stream of the fragments in document order
+   */
+  public static Stream<DocumentFragment> stream(SAXParserFactory fact,
+                                                InputSource is, String path)
+  {
+    if (fact == null)
+    {
+      throw new NullPointerException();
+    }
+    return stream(new SAXParserPool(fact, 1), is, path);
+  }
+  /**
+     Create a stream of the fragments matching a path.
+
+     Starts the parser thread, which takes its parser from a pool. The
+     stream should be closed if it is not consumed to the end, so that the
+     parser thread terminates.
+
+     @param pool A parser pool
+     @param is InputSource of the document
+     @param path The path of the fragments, as in
+                 DocumentFragmentHandler.onFragment
+     @return A stream of the fragments in document order
+   */
+  public static Stream<DocumentFragment> stream(SAXParserPool pool,
+                                                InputSource is, String path)
+  {
+    final FragmentSpliterator spliterator;
+    Thread t;
+    if (pool == null || is == null || path == null)
+    {
+      throw new NullPointerException();
+    }
+    spliterator = new FragmentSpliterator(pool, is, path);
+    t = new Thread(spliterator, "javaxmlfrag-stream");
+    t.setDaemon(true);
+    t.start();
+    return StreamSupport.stream(spliterator, false).onClose(new Runnable() {
+      public void run()
+      {
+        spliterator.closed = true;
+      }
+    });
+  }
+  private void put(DocumentFragment f) throws InterruptedException
+  {
+    while (!queue.offer(f, POLL_MILLIS, TimeUnit.MILLISECONDS))
+    {
+      if (closed)
+      {
+        throw new ClosedException();
+      }
+    }
+  }
+  /**
+     Run the parser.
+
+     Called from the parser thread.
+   */
+  public void run()
+  {
+    try {
+      SAXParser p = pool.acquire();
+      try {
+        p.parse(is, handler);
+      }
+      finally
+      {
+        pool.release(p);
+      }
+    }
+    catch (ClosedException e)
+    {
+      return;
+    }
+    catch (Throwable t)
+    {
+      failure = t;
+    }
+    try {
+      put(END);
+    }
+    catch (ClosedException e)
+    {
+    }
+    catch (InterruptedException e)
+    {
+    }
+  }
+  private DocumentFragment take()
+  {
+    DocumentFragment f;
+    if (finished)
+    {
+      return null;
+    }
+    try {
+      f = queue.take();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new XMLProcessingException("interrupted", e);
+    }
+    if (f == END)
+    {
+      finished = true;
+      if (failure != null)
+      {
+        throw new XMLProcessingException("parsing failed", failure);
+      }
+      return null;
+    }
+    return f;
+  }
+  public boolean tryAdvance(Consumer<? super DocumentFragment> action)
+  {
+    DocumentFragment f = take();
+    if (f == null)
+    {
+      return false;
+    }
+    action.accept(f);
+    return true;
+  }
+  public void forEachRemaining(Consumer<? super DocumentFragment> action)
+  {
+    DocumentFragment f;
+    while ((f = take()) != null)
+    {
+      action.accept(f);
+    }
+  }
+  public Spliterator<DocumentFragment> trySplit()
+  {
+    DocumentFragment[] a;
+    DocumentFragment f;
+    int n = 0;
+    batch = Math.min(batch + BATCH_UNIT, MAX_BATCH);
+    a = new DocumentFragment[batch];
+    while (n < a.length && (f = take()) != null)
+    {
+      a[n++] = f;
+    }
+    if (n == 0)
+    {
+      return null;
+    }
+    return Spliterators.spliterator(a, 0, n, characteristics());
+  }
+  public long estimateSize()
+  {
+    return Long.MAX_VALUE;
+  }
+  public int characteristics()
+  {
+    return ORDERED | NONNULL;
+  }
+}
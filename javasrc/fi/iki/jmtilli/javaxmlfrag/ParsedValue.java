@@ -0,0 +1,154 @@
+/*
+  Copyright (C) 2013 Juha-Matti Tilli
+  
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+  
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+  
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  SOFTWARE.
+ */
+package fi.iki.jmtilli.javaxmlfrag;
+/**
+   A text or attribute value together with its last typed parse.
+
+   Stored by DocumentFragment in place of the String it was parsed from,
+   so repeated typed reads of the same value are a field load. Setting
+   the value replaces the holder, which invalidates the parse.
+
+   A holder of a parse keeps the parsed text in a final field, so it
+   always returns that exact text. The primitive setters store a holder
+   without text; the text is formatted when first needed, so building a
+   tree that is serialized without reading its values back never creates
+   the Strings. The formatted text is cached like String caches its hash:
+   racing threads may both format it, but always to equal Strings. Since
+   a holder that has parsed text never changes, replacing a String by
+   such a holder in a frozen tree is safe without synchronization.
+ */
+final class ParsedValue implements CharSequence {
+  public static final int INT = 0;
+  public static final int LONG = 1;
+  public static final int FLOAT = 2;
+  public static final int DOUBLE = 3;
+
+  private final String text;
+  private String formatted;
+  public final int kind;
+  private final long bits;
+
+  private ParsedValue(String text, int kind, long bits)
+  {
+    this.text = text;
+    this.kind = kind;
+    this.bits = bits;
+  }
+  public static ParsedValue ofInt(int value)
+  {
+    return new ParsedValue(null, INT, value);
+  }
+  public static ParsedValue ofLong(long value)
+  {
+    return new ParsedValue(null, LONG, value);
+  }
+  public static ParsedValue ofFloat(float value)
+  {
+    return new ParsedValue(null, FLOAT, Float.floatToRawIntBits(value));
+  }
+  public static ParsedValue ofDouble(double value)
+  {
+    return new ParsedValue(null, DOUBLE, Double.doubleToRawLongBits(value));
+  }
+  public static ParsedValue ofInt(String text, int value)
+  {
+    return new ParsedValue(text, INT, value);
+  }
+  public static ParsedValue ofLong(String text, long value)
+  {
+    return new ParsedValue(text, LONG, value);
+  }
+  public static ParsedValue ofFloat(String text, float value)
+  {
+    return new ParsedValue(text, FLOAT, Float.floatToRawIntBits(value));
+  }
+  public static ParsedValue ofDouble(String text, double value)
+  {
+    return new ParsedValue(text, DOUBLE, Double.doubleToRawLongBits(value));
+  }
+  public int intValue()
+  {
+    return (int)bits;
+  }
+  public long longValue()
+  {
+    return bits;
+  }
+  public float floatValue()
+  {
+    return Float.intBitsToFloat((int)bits);
+  }
+  public double doubleValue()
+  {
+    return Double.longBitsToDouble(bits);
+  }
+  /**
+     Test whether the text has been created.
+
+     @return Whether toString() returns without formatting
+   */
+  public boolean isFormatted()
+  {
+    return text != null || formatted != null;
+  }
+  String format()
+  {
+    switch (kind)
+    {
+      case INT:
+        return Integer.toString(intValue());
+      case LONG:
+        return Long.toString(longValue());
+      case FLOAT:
+        return Float.toString(floatValue());
+      default:
+        return Double.toString(doubleValue());
+    }
+  }
+  public int length()
+  {
+    return toString().length();
+  }
+  public char charAt(int i)
+  {
+    return toString().charAt(i);
+  }
+  public CharSequence subSequence(int start, int end)
+  {
+    return toString().subSequence(start, end);
+  }
+  public String toString()
+  {
+    String t = text;
+    if (t != null)
+    {
+      return t;
+    }
+    t = formatted;
+    if (t == null)
+    {
+      t = format();
+      formatted = t;
+    }
+    return t;
+  }
+}
@@ -0,0 +1,291 @@
+/*
+  Copyright (C) 2013 Juha-Matti Tilli
+  
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+  
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+  
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  SOFTWARE.
+ */
+package fi.iki.jmtilli.javaxmlfrag;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+/**
+   Automaton that matches element paths.
+
+   Paths are compiled into a deterministic automaton that moves one step per
+   element start, so matching costs a hash lookup per element regardless of
+   the number of paths. The states are constructed lazily as they are
+   visited.
+
+   A path is a list of tag names separated by "/", starting from the
+   document element. A step "*" matches any tag, and a "//" separator in
+   front of a step matches any number of intermediate elements. For example,
+   "allCustomers/customer" matches only customer elements directly under the
+   document element allCustomers, "allCustomers/*" matches all elements
+   directly under it and "//customer" matches customer elements at any
+   depth.
+ */
+final class PathAutomaton<T> {
+  private static class Step {
+    public final String tag;
+    public final boolean descendant;
+    public Step(String tag, boolean descendant)
+    {
+      this.tag = tag;
+      this.descendant = descendant;
+    }
+    public boolean matches(String tag)
+    {
+      return this.tag == null || this.tag.equals(tag);
+    }
+  };
+  /**
+     A state of the automaton.
+
+     Corresponds to the set of path positions that are possible after the
+     elements seen so far.
+   */
+  public static final class State<T> {
+    private final PathAutomaton<T> automaton;
+    private final int[] positions;
+    private final List<T> values;
+    private final HashMap<String, State<T>> next =
+      new HashMap<String, State<T>>();
+    private State<T> other;
+    private State(PathAutomaton<T> automaton, int[] positions, List<T> values)
+    {
+      this.automaton = automaton;
+      this.positions = positions;
+      this.values = values;
+    }
+    /**
+       Get the values of the paths that end at this state.
+
+       @return The values in registration order, empty if none
+     */
+    public List<T> getValues()
+    {
+      return values;
+    }
+    /**
+       Test whether no path can match at or below this state.
+
+       @return Whether the state is dead
+     */
+    public boolean isDead()
+    {
+      return positions.length == 0;
+    }
+    /**
+       Move to the state for a child element.
+
+       @param tag The tag name of the child element
+       @return The next state
+     */
+    public State<T> step(String tag)
+    {
+      State<T> result;
+      if (positions.length == 0)
+      {
+        return this;
+      }
+      result = next.get(tag);
+      if (result != null)
+      {
+        return result;
+      }
+      if (!automaton.alphabet.contains(tag))
+      {
+        if (other == null)
+        {
+          other = automaton.transition(positions, null);
+        }
+        return other;
+      }
+      result = automaton.transition(positions, tag);
+      next.put(tag, result);
+      return result;
+    }
+  };
+
+  private final ArrayList<Step[]> paths = new ArrayList<Step[]>();
+  private final ArrayList<T> pathValues = new ArrayList<T>();
+  private final HashSet<String> alphabet = new HashSet<String>();
+  private final HashMap<List<Integer>, State<T>> states =
+    new HashMap<List<Integer>, State<T>>();
+  private State<T> root;
+
+  private static Step[] parse(String path)
+  {
+    ArrayList<Step> steps = new ArrayList<Step>();
+    boolean descendant = false;
+    int i = 0;
+    if (path.startsWith("//"))
+    {
+      descendant = true;
+      i = 2;
+    }
+    else if (path.startsWith("/"))
+    {
+      i = 1;
+    }
+    while (i <= path.length())
+    {
+      int end = path.indexOf('/', i);
+      String tag;
+      if (end < 0)
+      {
+        end = path.length();
+      }
+      tag = path.substring(i, end);
+      if (tag.isEmpty())
+      {
+        if (descendant || end == path.length() || steps.isEmpty())
+        {
+          throw new IllegalArgumentException("invalid path: " + path);
+        }
+        descendant = true;
+      }
+      else
+      {
+        steps.add(new Step(tag.equals("*") ? null : tag, descendant));
+        descendant = false;
+      }
+      i = end + 1;
+    }
+    if (steps.isEmpty())
+    {
+      throw new IllegalArgumentException("invalid path: " + path);
+    }
+    return steps.toArray(new Step[0]);
+  }
+  /**
+     Add a path.
+
+     Invalidates all previously returned states.
+
+     @param path The path
+     @param value The value returned for elements matching the path
+   */
+  public void add(String path, T value)
+  {
+    Step[] steps;
+    if (path == null || value == null)
+    {
+      throw new NullPointerException();
+    }
+    steps = parse(path);
+    paths.add(steps);
+    pathValues.add(value);
+    for (Step step: steps)
+    {
+      if (step.tag != null)
+      {
+        alphabet.add(step.tag);
+      }
+    }
+    states.clear();
+    root = null;
+  }
+  /**
+     Test whether no paths have been added.
+
+     @return Whether the automaton is empty
+   */
+  public boolean isEmpty()
+  {
+    return paths.isEmpty();
+  }
+  /**
+     Get the state before the document element.
+
+     @return The root state
+   */
+  public State<T> root()
+  {
+    if (root == null)
+    {
+      int[] positions = new int[paths.size()];
+      for (int p = 0; p < positions.length; p++)
+      {
+        positions[p] = encode(p, 0);
+      }
+      root = state(positions);
+    }
+    return root;
+  }
+  private static int encode(int path, int step)
+  {
+    return (path << 16) | step;
+  }
+  private State<T> transition(int[] positions, String tag)
+  {
+    int[] result = new int[2*positions.length];
+    int count = 0;
+    for (int pos: positions)
+    {
+      int p = pos >>> 16;
+      int k = pos & 0xFFFF;
+      Step[] steps = paths.get(p);
+      if (k == steps.length)
+      {
+        continue;
+      }
+      if (steps[k].descendant)
+      {
+        result[count++] = pos;
+      }
+      if (steps[k].matches(tag))
+      {
+        result[count++] = encode(p, k + 1);
+      }
+    }
+    result = Arrays.copyOf(result, count);
+    Arrays.sort(result);
+    return state(result);
+  }
+  private State<T> state(int[] positions)
+  {
+    ArrayList<Integer> key = new ArrayList<Integer>();
+    ArrayList<T> values = new ArrayList<T>();
+    State<T> result;
+    int last = -1;
+    int count = 0;
+    for (int pos: positions)
+    {
+      if (pos != last)
+      {
+        positions[count++] = pos;
+        key.add(pos);
+        if ((pos & 0xFFFF) == paths.get(pos >>> 16).length)
+        {
+          values.add(pathValues.get(pos >>> 16));
+        }
+      }
+      last = pos;
+    }
+    result = states.get(key);
+    if (result == null)
+    {
+      result = new State<T>(this, Arrays.copyOf(positions, count), values);
+      states.put(key, result);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,100 @@
+/*
+  Copyright (C) 2013 Juha-Matti Tilli
+  
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+  
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+  
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  SOFTWARE.
+ */
+package fi.iki.jmtilli.javaxmlfrag;
+import java.io.*;
+import java.util.*;
+/**
+   Performance test measuring the retained heap per element of parsed
+   customer documents.
+
+   Usage: PerfTestDocumentFragmentMemory [records]
+ */
+public class PerfTestDocumentFragmentMemory {
+  private static byte[] document(int records) throws IOException
+  {
+    StringBuilder sb = new StringBuilder();
+    sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<allCustomers>\n");
+    for (int i = 0; i < records; i++)
+    {
+      sb.append("  <customer id=\"" + i + "\">\n");
+      sb.append("    <name>Customer " + i + "</name>\n");
+      sb.append("    <accountCount>" + (i % 7) + "</accountCount>\n");
+      sb.append("    <totalBalance>" + (i * 1.25) + "</totalBalance>\n");
+      sb.append("  </customer>\n");
+    }
+    sb.append("</allCustomers>\n");
+    return sb.toString().getBytes("UTF-8");
+  }
+  private static long used()
+  {
+    Runtime rt = Runtime.getRuntime();
+    for (int i = 0; i < 5; i++)
+    {
+      System.gc();
+    }
+    return rt.totalMemory() - rt.freeMemory();
+  }
+  private static int countElements(DocumentFragment f)
+  {
+    int n = 1;
+    for (DocumentFragment child: f.getChildren())
+    {
+      if (!child.isTextElement())
+      {
+        n += countElements(child);
+      }
+    }
+    return n;
+  }
+  private static void measure(String name, byte[] doc, XMLWhitespace ws,
+                              boolean freeze)
+    throws Exception
+  {
+    long before = used();
+    DocumentFragment f = DocumentFragmentHandler.parseWhole(
+        new ByteArrayInputStream(doc), ws);
+    long after;
+    if (freeze)
+    {
+      f.freeze();
+    }
+    after = used();
+    int elements = countElements(f);
+    System.out.printf("%s: %d elements, %.1f bytes per element\n",
+                      name, elements, (after - before) / (double)elements);
+    if (f.getChildren().isEmpty())
+    {
+      throw new Error();
+    }
+  }
+  /**
+     Run the performance test
+   */
+  public static void main(String[] args) throws Exception
+  {
+    int records = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+    byte[] doc = document(records);
+    measure("preserve", doc, XMLWhitespace.PRESERVE, false);
+    measure("strip", doc, XMLWhitespace.STRIP, false);
+    measure("strip, frozen", doc, XMLWhitespace.STRIP, true);
+  }
+};
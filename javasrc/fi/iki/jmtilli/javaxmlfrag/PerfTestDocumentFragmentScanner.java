@@ -0,0 +1,98 @@
+/*
+  Copyright (C) 2013 Juha-Matti Tilli
+  
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+  
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+  
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  SOFTWARE.
+ */
+package fi.iki.jmtilli.javaxmlfrag;
+import java.io.*;
+import javax.xml.parsers.*;
+import org.xml.sax.Attributes;
+/**
+   Performance test comparing DocumentFragmentScanner to the SAX path.
+
+   Usage: PerfTestDocumentFragmentScanner [records] [rounds]
+ */
+public class PerfTestDocumentFragmentScanner {
+  private static int count;
+  private static byte[] document(int records) throws IOException
+  {
+    ByteArrayOutputStream bs = new ByteArrayOutputStream();
+    Writer w = new OutputStreamWriter(bs, "UTF-8");
+    w.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<allCustomers>\n");
+    for (int i = 0; i < records; i++)
+    {
+      w.write("  <customer id=\"" + i + "\" type=\"regular\">\n");
+      w.write("    <name>Customer &amp; Sons " + i + "</name>\n");
+      w.write("    <accountCount>" + (i % 7) + "</accountCount>\n");
+      w.write("    <balance>" + (i * 1.25) + "</balance>\n");
+      w.write("  </customer>\n");
+    }
+    w.write("</allCustomers>\n");
+    w.close();
+    return bs.toByteArray();
+  }
+  private static final FragmentProcessor PROC = new FragmentProcessor() {
+    public void processFragment(DocumentFragment f)
+    {
+      count += f.getIntNotNull("accountCount");
+    }
+  };
+  private static void sax(SAXParserFactory fact, byte[] doc) throws Exception
+  {
+    DocumentFragmentHandler h = new DocumentFragmentHandler() {
+      public void startXMLElement(String uri, String localName, String qName,
+                                  Attributes attributes)
+      {
+      }
+      public void endXMLElement(String uri, String localName, String qName,
+                                DocumentFragment f)
+      {
+      }
+    };
+    h.onFragment("allCustomers/customer", PROC);
+    fact.newSAXParser().parse(new ByteArrayInputStream(doc), h);
+  }
+  private static void scanner(byte[] doc) throws Exception
+  {
+    DocumentFragmentScanner.parse(doc, "allCustomers/customer", PROC);
+  }
+  /**
+     Run the performance test
+   */
+  public static void main(String[] args) throws Exception
+  {
+    int records = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+    int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+    byte[] doc = document(records);
+    SAXParserFactory fact = SAXParserFactory.newInstance();
+    double mb = doc.length / 1e6;
+    for (int round = 0; round < rounds; round++)
+    {
+      long t0 = System.nanoTime();
+      long t1, t2;
+      sax(fact, doc);
+      t1 = System.nanoTime();
+      scanner(doc);
+      t2 = System.nanoTime();
+      System.out.printf("round %d: SAX %.1f MB/s, scanner %.1f MB/s\n",
+                        round, mb*1e9/(t1-t0), mb*1e9/(t2-t1));
+    }
+    System.out.println("checksum " + count);
+  }
+};
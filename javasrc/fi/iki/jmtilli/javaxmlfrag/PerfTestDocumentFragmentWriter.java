@@ -0,0 +1,118 @@
+/*
+  Copyright (C) 2013 Juha-Matti Tilli
+  
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+  
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+  
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  SOFTWARE.
+ */
+package fi.iki.jmtilli.javaxmlfrag;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+/**
+   Performance test of writing records one at a time with
+   DocumentFragmentWriter, compared with building the whole tree and
+   unparsing it.
+
+   The heap in use after a full garbage collection is printed at
+   checkpoints while writing, and after building the tree.
+
+   Usage: PerfTestDocumentFragmentWriter [rows] [checkpoints]
+ */
+public class PerfTestDocumentFragmentWriter {
+  private static final MemoryMXBean MEMORY =
+    ManagementFactory.getMemoryMXBean();
+
+  private static class Customer implements XMLRowable {
+    private final int id;
+    public Customer(int id)
+    {
+      this.id = id;
+    }
+    public void toXMLRow(DocumentFragment row)
+    {
+      row.setAttrInt("id", id);
+      row.setString("name", "Customer & Sons " + id);
+      row.setLong("accountNumber", 1000000000L + id);
+      row.setDouble("totalBalance", id * 1.25);
+    }
+  };
+  private static class CountingOutputStream extends OutputStream {
+    public long count;
+    public void write(int b)
+    {
+      count++;
+    }
+    public void write(byte[] b, int off, int len)
+    {
+      count += len;
+    }
+  };
+  private static long heapUsed()
+  {
+    System.gc();
+    return MEMORY.getHeapMemoryUsage().getUsed();
+  }
+  /**
+     Run the performance test
+   */
+  public static void main(String[] args) throws Exception
+  {
+    int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    int checkpoints = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+    CountingOutputStream os = new CountingOutputStream();
+    DocumentFragmentWriter w = new DocumentFragmentWriter(
+        os, new DocumentFragment("allCustomers"), XMLDocumentType.WHOLE,
+        XMLIndentation.INDENT, 64*1024, 0);
+    DocumentFragment root;
+    long base = heapUsed();
+    long t0 = System.nanoTime();
+    long t1, t2, t3, t4, t5, writerBytes;
+    for (int i = 0; i < rows; i++)
+    {
+      w.write("customer", new Customer(i));
+      if ((i + 1) % (rows / checkpoints) == 0)
+      {
+        System.out.printf("writer: %d rows, %d bytes out, heap %+.1f MB\n",
+                          i + 1, os.count, (heapUsed() - base)/1e6);
+      }
+    }
+    w.close();
+    t1 = System.nanoTime();
+    writerBytes = os.count;
+    os.count = 0;
+    t2 = System.nanoTime();
+    root = new DocumentFragment("allCustomers");
+    for (int i = 0; i < rows; i++)
+    {
+      new Customer(i).toXMLRow(root.add("customer"));
+    }
+    t3 = System.nanoTime();
+    System.out.printf("tree: %d rows, heap %+.1f MB\n", rows,
+                      (heapUsed() - base)/1e6);
+    t4 = System.nanoTime();
+    root.unparse(XMLDocumentType.WHOLE, XMLIndentation.INDENT, os);
+    t5 = System.nanoTime();
+    if (os.count != writerBytes)
+    {
+      throw new RuntimeException("outputs differ");
+    }
+    System.out.printf("writer %.1f MB/s, tree and unparse %.1f MB/s\n",
+                      writerBytes*1e3/(t1-t0),
+                      os.count*1e3/((t3-t2)+(t5-t4)));
+  }
+};
@@ -0,0 +1,78 @@
+/*
+  Copyright (C) 2013 Juha-Matti Tilli
+  
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+  
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+  
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  SOFTWARE.
+ */
+package fi.iki.jmtilli.javaxmlfrag;
+import java.io.*;
+import javax.xml.parsers.*;
+/**
+   Performance test of parsing small documents with and without the
+   parser pool.
+
+   Usage: PerfTestSAXParserPool [documents] [rounds]
+ */
+public class PerfTestSAXParserPool {
+  private static byte[] document() throws IOException
+  {
+    StringBuilder sb = new StringBuilder();
+    sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    sb.append("<customer id=\"1\">\n");
+    while (sb.length() < 1000)
+    {
+      sb.append("  <account number=\"" + sb.length() + "\">");
+      sb.append("<balance>123.45</balance></account>\n");
+    }
+    sb.append("</customer>\n");
+    return sb.toString().getBytes("UTF-8");
+  }
+  /**
+     Run the performance test
+   */
+  public static void main(String[] args) throws Exception
+  {
+    int documents = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+    int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+    byte[] doc = document();
+    int count = 0;
+    System.out.println("document size " + doc.length + " bytes");
+    for (int round = 0; round < rounds; round++)
+    {
+      long t0 = System.nanoTime();
+      long t1, t2;
+      for (int i = 0; i < documents; i++)
+      {
+        count += DocumentFragmentHandler.parseWhole(
+            SAXParserFactory.newInstance(), new ByteArrayInputStream(doc))
+          .getChildren().size();
+      }
+      t1 = System.nanoTime();
+      for (int i = 0; i < documents; i++)
+      {
+        count += DocumentFragmentHandler.parseWhole(
+            new ByteArrayInputStream(doc)).getChildren().size();
+      }
+      t2 = System.nanoTime();
+      System.out.printf("round %d: new parser %.1f us/doc, " +
+                        "pooled %.1f us/doc\n", round,
+                        (t1-t0)/1e3/documents, (t2-t1)/1e3/documents);
+    }
+    System.out.println("checksum " + count);
+  }
+};
@@ -0,0 +1,93 @@
+/*
+  Copyright (C) 2013 Juha-Matti Tilli
+  
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+  
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+  
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  SOFTWARE.
+ */
+package fi.iki.jmtilli.javaxmlfrag;
+import java.lang.management.ManagementFactory;
+/**
+   Performance test of building rows with the primitive setters, compared
+   with formatting the values to strings first.
+
+   Allocation is measured with com.sun.management.ThreadMXBean, so the
+   test needs a HotSpot JVM.
+
+   Usage: PerfTestSetters [rows] [rounds]
+ */
+public class PerfTestSetters {
+  private static final com.sun.management.ThreadMXBean THREADS =
+    (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+  private static long allocated()
+  {
+    return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+  private static DocumentFragment primitive(int rows)
+  {
+    DocumentFragment root = new DocumentFragment("allCustomers");
+    for (int i = 0; i < rows; i++)
+    {
+      DocumentFragment row = root.add("customer");
+      row.setAttrInt("id", i);
+      row.setLong("accountNumber", 1000000000L + i);
+      row.setInt("accountCount", i % 7);
+      row.setDouble("totalBalance", i * 1.25);
+    }
+    return root;
+  }
+  private static DocumentFragment strings(int rows)
+  {
+    DocumentFragment root = new DocumentFragment("allCustomers");
+    for (int i = 0; i < rows; i++)
+    {
+      DocumentFragment row = root.add("customer");
+      row.setAttrString("id", ""+i);
+      row.setString("accountNumber", ""+(1000000000L + i));
+      row.setString("accountCount", ""+(i % 7));
+      row.setString("totalBalance", ""+(i * 1.25));
+    }
+    return root;
+  }
+  /**
+     Run the performance test
+   */
+  public static void main(String[] args) throws Exception
+  {
+    int rows = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+    int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+    long count = 0;
+    for (int round = 0; round < rounds; round++)
+    {
+      long t0 = System.nanoTime();
+      long a0 = allocated();
+      long t1, t2, a1, a2;
+      count += primitive(rows).getChildren().size();
+      t1 = System.nanoTime();
+      a1 = allocated();
+      count += strings(rows).getChildren().size();
+      t2 = System.nanoTime();
+      a2 = allocated();
+      System.out.printf("round %d: setters %.1f ns/row %d B/row, " +
+                        "strings %.1f ns/row %d B/row\n", round,
+                        (t1-t0)/(double)rows, (a1-a0)/rows,
+                        (t2-t1)/(double)rows, (a2-a1)/rows);
+    }
+    System.out.println("checksum " + count);
+  }
+};
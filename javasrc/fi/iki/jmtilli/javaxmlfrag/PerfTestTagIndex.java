@@ -0,0 +1,90 @@
+/*
+  Copyright (C) 2013 Juha-Matti Tilli
+  
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+  
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+  
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  SOFTWARE.
+ */
+package fi.iki.jmtilli.javaxmlfrag;
+/**
+   Performance test of looking up children by tag on wide elements, with
+   the tag index and with a linear scan of the children.
+
+   Usage: PerfTestTagIndex [fields] [rounds]
+ */
+public class PerfTestTagIndex {
+  private static DocumentFragment linearGet(DocumentFragment f, String tag)
+  {
+    DocumentFragment result = null;
+    for (DocumentFragment child: f.getChildren())
+    {
+      if (tag.equals(child.getTag()))
+      {
+        if (result != null)
+        {
+          throw new XMLMultipleElementsException("multiple elements");
+        }
+        result = child;
+      }
+    }
+    return result;
+  }
+  /**
+     Run the performance test
+   */
+  public static void main(String[] args) throws Exception
+  {
+    int fields = args.length > 0 ? Integer.parseInt(args[0]) : 60;
+    int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+    int records = 2000000 / fields;
+    DocumentFragment record = new DocumentFragment("record");
+    String[] tags = new String[fields];
+    long count = 0;
+    for (int i = 0; i < fields; i++)
+    {
+      tags[i] = "field" + i;
+      record.add(tags[i]).setThisInt(i);
+    }
+    record.freeze();
+    for (int round = 0; round < rounds; round++)
+    {
+      long t0 = System.nanoTime();
+      long t1, t2;
+      for (int r = 0; r < records; r++)
+      {
+        for (int i = 0; i < fields; i++)
+        {
+          count += record.get(tags[i]).getThisInt(0);
+        }
+      }
+      t1 = System.nanoTime();
+      for (int r = 0; r < records; r++)
+      {
+        for (int i = 0; i < fields; i++)
+        {
+          count += linearGet(record, tags[i]).getThisInt(0);
+        }
+      }
+      t2 = System.nanoTime();
+      System.out.printf("round %d: %d fields, indexed %.1f ns/get, " +
+                        "linear %.1f ns/get\n", round, fields,
+                        (t1-t0)/(double)records/fields,
+                        (t2-t1)/(double)records/fields);
+    }
+    System.out.println("checksum " + count);
+  }
+};
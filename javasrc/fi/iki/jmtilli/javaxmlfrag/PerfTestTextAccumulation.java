@@ -0,0 +1,72 @@
+/*
+  Copyright (C) 2013 Juha-Matti Tilli
+  
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+  
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+  
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  SOFTWARE.
+ */
+package fi.iki.jmtilli.javaxmlfrag;
+/**
+   Performance test of building and reading text split into many chunks.
+
+   The chunks are added with addTextChild, both as the only content of an
+   element and after a child element.
+
+   Usage: PerfTestTextAccumulation [chunks] [rounds]
+ */
+public class PerfTestTextAccumulation {
+  /**
+     Run the performance test
+   */
+  public static void main(String[] args) throws Exception
+  {
+    int chunks = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+    int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+    long count = 0;
+    for (int round = 0; round < rounds; round++)
+    {
+      long t0 = System.nanoTime();
+      long t1, t2, t3;
+      DocumentFragment leaf = new DocumentFragment("leaf");
+      DocumentFragment mixed = new DocumentFragment("mixed");
+      DocumentFragment split = new DocumentFragment("split");
+      for (int i = 0; i < chunks; i++)
+      {
+        leaf.addTextChild("chunk of text ");
+      }
+      count += leaf.getThisStringNotEmpty().length();
+      t1 = System.nanoTime();
+      mixed.add("child");
+      for (int i = 0; i < chunks; i++)
+      {
+        mixed.addTextChild("chunk of text ");
+      }
+      count += mixed.getChildren().get(1).getText().length();
+      t2 = System.nanoTime();
+      for (int i = 0; i < chunks; i++)
+      {
+        split.getChildren().add(DocumentFragment.newText("chunk of text "));
+      }
+      count += split.getThisStringNotEmpty().length();
+      t3 = System.nanoTime();
+      System.out.printf("round %d: %d chunks, leaf %.1f ms, " +
+                        "mixed %.1f ms, split read %.1f ms\n", round, chunks,
+                        (t1-t0)/1e6, (t2-t1)/1e6, (t3-t2)/1e6);
+    }
+    System.out.println("checksum " + count);
+  }
+};
@@ -0,0 +1,124 @@
+/*
+  Copyright (C) 2013 Juha-Matti Tilli
+  
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+  
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+  
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  SOFTWARE.
+ */
+package fi.iki.jmtilli.javaxmlfrag;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import javax.xml.parsers.*;
+import javax.xml.transform.*;
+import javax.xml.transform.dom.*;
+import javax.xml.transform.stream.StreamResult;
+import org.w3c.dom.Document;
+/**
+   Performance test of unparsing with the streaming serializer, compared
+   with converting to a DOM tree and unparsing with the JDK Transformer.
+
+   Allocation is measured with com.sun.management.ThreadMXBean, so the
+   test needs a HotSpot JVM.
+
+   Usage: PerfTestUnparse [rows] [rounds]
+ */
+public class PerfTestUnparse {
+  private static final com.sun.management.ThreadMXBean THREADS =
+    (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+  private static long allocated()
+  {
+    return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+  private static DocumentFragment tree(int rows)
+  {
+    DocumentFragment root = new DocumentFragment("allCustomers");
+    for (int i = 0; i < rows; i++)
+    {
+      DocumentFragment row = root.add("customer");
+      row.setAttrInt("id", i);
+      row.setString("name", "Customer & Sons " + i);
+      row.setLong("accountNumber", 1000000000L + i);
+      row.setInt("accountCount", i % 7);
+      row.setDouble("totalBalance", i * 1.25);
+    }
+    return root;
+  }
+  private static void transformer(DocumentFragment frag, OutputStream os)
+    throws Exception
+  {
+    DocumentBuilderFactory bf = DocumentBuilderFactory.newInstance();
+    Document doc = bf.newDocumentBuilder().newDocument();
+    Transformer t = TransformerFactory.newInstance().newTransformer();
+    t.setOutputProperty(OutputKeys.INDENT, "yes");
+    t.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
+    t.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "no");
+    doc.appendChild(frag.convertToDomNode(doc));
+    t.transform(new DOMSource(doc), new StreamResult(os));
+  }
+  private static class CountingOutputStream extends OutputStream {
+    public long count;
+    public void write(int b)
+    {
+      count++;
+    }
+    public void write(byte[] b, int off, int len)
+    {
+      count += len;
+    }
+  };
+  /**
+     Run the performance test
+   */
+  public static void main(String[] args) throws Exception
+  {
+    int rows = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+    int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+    CountingOutputStream os = new CountingOutputStream();
+    for (int round = 0; round < rounds; round++)
+    {
+      DocumentFragment frag = tree(rows);
+      long t0, t1, t2, t3, a0, a1, a2, a3;
+      long n0, n1, n2;
+      t0 = System.nanoTime();
+      a0 = allocated();
+      frag.unparse(XMLDocumentType.WHOLE, XMLIndentation.INDENT, os);
+      n0 = os.count;
+      t1 = System.nanoTime();
+      a1 = allocated();
+      frag.unparse(XMLDocumentType.WHOLE, XMLIndentation.COMPACT, os);
+      n1 = os.count - n0;
+      t2 = System.nanoTime();
+      a2 = allocated();
+      transformer(frag, os);
+      n2 = os.count - n0 - n1;
+      t3 = System.nanoTime();
+      a3 = allocated();
+      os.count = 0;
+      if (n0 != n2)
+      {
+        throw new RuntimeException("outputs differ");
+      }
+      System.out.printf("round %d: serializer %.1f MB/s %.1f B/row, " +
+                        "compact %.1f MB/s %.1f B/row, " +
+                        "transformer %.1f MB/s %.1f B/row\n", round,
+                        n0*1e3/(t1-t0), (a1-a0)/(double)rows,
+                        n1*1e3/(t2-t1), (a2-a1)/(double)rows,
+                        n2*1e3/(t3-t2), (a3-a2)/(double)rows);
+    }
+  }
+};
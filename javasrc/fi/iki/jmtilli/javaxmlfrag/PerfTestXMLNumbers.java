@@ -0,0 +1,89 @@
+/*
+  Copyright (C) 2013 Juha-Matti Tilli
+  
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+  
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+  
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  SOFTWARE.
+ */
+package fi.iki.jmtilli.javaxmlfrag;
+/**
+   Performance test of the typed getters, comparing the number parsing
+   used by them with the parse methods of the JDK.
+
+   Usage: PerfTestXMLNumbers [values] [rounds]
+ */
+public class PerfTestXMLNumbers {
+  /**
+     Run the performance test
+   */
+  public static void main(String[] args) throws Exception
+  {
+    int values = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+    String[] ints = new String[values];
+    String[] doubles = new String[values];
+    DocumentFragment record = new DocumentFragment("customer");
+    double sum = 0;
+    record.setAttrInt("id", 12345);
+    record.add("accountCount").setThisInt(3);
+    record.add("totalBalance").setThisString("12345.67");
+    for (int i = 0; i < values; i++)
+    {
+      ints[i] = Integer.toString(i * 7919);
+      doubles[i] = (i % 100000) + "." + (i % 100);
+    }
+    for (int round = 0; round < rounds; round++)
+    {
+      long t0 = System.nanoTime();
+      long t1, t2, t3, t4, t5;
+      for (int i = 0; i < values; i++)
+      {
+        sum += Integer.parseInt(ints[i]);
+      }
+      t1 = System.nanoTime();
+      for (int i = 0; i < values; i++)
+      {
+        sum += XMLNumbers.parseInt(ints[i]);
+      }
+      t2 = System.nanoTime();
+      for (int i = 0; i < values; i++)
+      {
+        sum += Double.parseDouble(doubles[i]);
+      }
+      t3 = System.nanoTime();
+      for (int i = 0; i < values; i++)
+      {
+        sum += XMLNumbers.parseDouble(doubles[i]);
+      }
+      t4 = System.nanoTime();
+      for (int i = 0; i < values; i++)
+      {
+        sum += record.getAttrIntNotNull("id");
+        sum += record.getIntNotNull("accountCount");
+        sum += record.getDoubleNotNull("totalBalance");
+      }
+      t5 = System.nanoTime();
+      System.out.printf("round %d: int jdk %.1f ns, fast %.1f ns; " +
+                        "double jdk %.1f ns, fast %.1f ns; " +
+                        "3 getters %.1f ns\n", round,
+                        (t1-t0)/(double)values, (t2-t1)/(double)values,
+                        (t3-t2)/(double)values, (t4-t3)/(double)values,
+                        (t5-t4)/(double)values);
+    }
+    System.out.println("checksum " + sum);
+  }
+};
@@ -0,0 +1,299 @@
+/*
+  Copyright (C) 2013 Juha-Matti Tilli
+  
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+  
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+  
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  SOFTWARE.
+ */
+package fi.iki.jmtilli.javaxmlfrag;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.GZIPInputStream;
+/**
+   InputStream that reads its source ahead on a separate thread.
+
+   A producer thread reads the source into a ring of reusable buffers while
+   the consumer, typically a parser, reads the previously filled buffers.
+   With a GZIPInputStream as the source, I/O and decompression thus overlap
+   with parsing. The time each side spent waiting for the other is
+   recorded, telling which stage is the bottleneck.
+
+   The source is closed by the producer thread when it reaches the end of
+   the source or when this stream is closed.
+ */
+public final class ReadAheadInputStream extends InputStream {
+  /**
+     The default buffer size.
+   */
+  public static final int DEFAULT_BUFFER_SIZE = 256*1024;
+  /**
+     The default number of buffers.
+   */
+  public static final int DEFAULT_BUFFERS = 4;
+
+  private static final class Chunk {
+    public final byte[] data;
+    public int len;
+    public Chunk(int size)
+    {
+      data = new byte[size];
+    }
+  };
+  private static final Chunk END = new Chunk(0);
+
+  private final InputStream in;
+  private final ArrayBlockingQueue<Chunk> free;
+  private final ArrayBlockingQueue<Chunk> filled;
+  private final Thread producer;
+  private volatile boolean closed = false;
+  private volatile Throwable failure = null;
+  private volatile long producerWaitNanos = 0;
+  private volatile long consumerWaitNanos = 0;
+  private Chunk cur = null;
+  private int curPos = 0;
+  private boolean eof = false;
+
+  /**
+     Create a stream and start its producer thread.
+
+     @param in The source stream
+     @param bufferSize The size of each buffer in bytes
+     @param buffers The number of buffers
+   */
+  public ReadAheadInputStream(InputStream in, int bufferSize, int buffers)
+  {
+    if (in == null)
+    {
+      throw new NullPointerException();
+    }
+    if (bufferSize <= 0 || buffers <= 0)
+    {
+      throw new IllegalArgumentException(
+        "bufferSize and buffers must be positive");
+    }
+    this.in = in;
+    this.free = new ArrayBlockingQueue<Chunk>(buffers);
+    this.filled = new ArrayBlockingQueue<Chunk>(buffers + 1);
+    for (int i = 0; i < buffers; i++)
+    {
+      free.add(new Chunk(bufferSize));
+    }
+    producer = new Thread(new Runnable() {
+      public void run()
+      {
+        produce();
+      }
+    }, "javaxmlfrag-readahead");
+    producer.setDaemon(true);
+    producer.start();
+  }
+  /**
+     Create a stream with the default buffers and start its producer thread.
+
+     @param in The source stream
+   */
+  public ReadAheadInputStream(InputStream in)
+  {
+    this(in, DEFAULT_BUFFER_SIZE, DEFAULT_BUFFERS);
+  }
+  /**
+     Open a gzip-compressed file, decompressing it ahead on a separate
+     thread.
+
+     @param f The compressed file
+     @return A stream of the decompressed contents
+   */
+  public static ReadAheadInputStream openGzip(File f) throws IOException
+  {
+    InputStream is = new FileInputStream(f);
+    try {
+      return new ReadAheadInputStream(new GZIPInputStream(is, 64*1024));
+    }
+    catch (IOException e)
+    {
+      is.close();
+      throw e;
+    }
+  }
+
+  private void produce()
+  {
+    try {
+      for (;;)
+      {
+        long t0 = System.nanoTime();
+        Chunk c = free.take();
+        int n = 0;
+        boolean end = false;
+        producerWaitNanos += System.nanoTime() - t0;
+        while (n < c.data.length && !closed)
+        {
+          int k = in.read(c.data, n, c.data.length - n);
+          if (k < 0)
+          {
+            end = true;
+            break;
+          }
+          n += k;
+        }
+        if (closed)
+        {
+          return;
+        }
+        if (n > 0)
+        {
+          c.len = n;
+          filled.put(c);
+        }
+        if (end)
+        {
+          filled.put(END);
+          return;
+        }
+      }
+    }
+    catch (InterruptedException e)
+    {
+    }
+    catch (Throwable t)
+    {
+      failure = t;
+      filled.offer(END);
+    }
+    finally
+    {
+      try {
+        in.close();
+      }
+      catch (IOException e)
+      {
+      }
+    }
+  }
+  private boolean next() throws IOException
+  {
+    long t0;
+    if (eof)
+    {
+      return false;
+    }
+    if (closed)
+    {
+      throw new IOException("stream closed");
+    }
+    if (cur != null)
+    {
+      free.offer(cur);
+      cur = null;
+    }
+    t0 = System.nanoTime();
+    try {
+      cur = filled.take();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted");
+    }
+    consumerWaitNanos += System.nanoTime() - t0;
+    curPos = 0;
+    if (cur == END)
+    {
+      cur = null;
+      eof = true;
+      if (failure != null)
+      {
+        if (failure instanceof IOException)
+        {
+          throw (IOException)failure;
+        }
+        throw new IOException("read-ahead failed", failure);
+      }
+      return false;
+    }
+    return true;
+  }
+  public int read() throws IOException
+  {
+    if ((cur == null || curPos == cur.len) && !next())
+    {
+      return -1;
+    }
+    return cur.data[curPos++] & 0xFF;
+  }
+  public int read(byte[] b, int off, int len) throws IOException
+  {
+    int n;
+    if (len == 0)
+    {
+      return 0;
+    }
+    if ((cur == null || curPos == cur.len) && !next())
+    {
+      return -1;
+    }
+    n = Math.min(len, cur.len - curPos);
+    System.arraycopy(cur.data, curPos, b, off, n);
+    curPos += n;
+    return n;
+  }
+  public int available()
+  {
+    return cur == null ? 0 : cur.len - curPos;
+  }
+  /**
+     Close the stream, stopping the producer thread.
+
+     The source is closed by the producer thread once it notices the close.
+   */
+  public void close()
+  {
+    if (closed)
+    {
+      return;
+    }
+    closed = true;
+    producer.interrupt();
+  }
+  /**
+     Get the time the producer waited for the consumer to free a buffer.
+
+     A long wait means that the consumer is the bottleneck.
+
+     @return The wait time in nanoseconds
+   */
+  public long getProducerWaitNanos()
+  {
+    return producerWaitNanos;
+  }
+  /**
+     Get the time the consumer waited for the producer to fill a buffer.
+
+     A long wait means that reading or decompressing the source is the
+     bottleneck.
+
+     @return The wait time in nanoseconds
+   */
+  public long getConsumerWaitNanos()
+  {
+    return consumerWaitNanos;
+  }
+}
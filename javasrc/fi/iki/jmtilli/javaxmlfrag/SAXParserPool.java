@@ -0,0 +1,156 @@
+/*
+  Copyright (C) 2013 Juha-Matti Tilli
+  
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+  
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+  
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  SOFTWARE.
+ */
+package fi.iki.jmtilli.javaxmlfrag;
+import java.util.concurrent.ArrayBlockingQueue;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import org.xml.sax.SAXException;
+/**
+   Thread-safe pool of reusable SAX parsers created by one factory.
+
+   Creating a parser is expensive compared to parsing a small document, so
+   the parsers are reset and kept for reuse instead. At most a fixed number
+   of idle parsers are kept; parsers released beyond that are dropped.
+
+   The factory must not be reconfigured after creating the pool.
+ */
+public final class SAXParserPool {
+  /**
+     The default maximum number of idle parsers.
+   */
+  public static final int DEFAULT_MAX_IDLE = 32;
+  private static volatile SAXParserPool defaultPool;
+
+  private final SAXParserFactory fact;
+  private final ArrayBlockingQueue<SAXParser> idle;
+
+  /**
+     Create a pool.
+
+     @param fact The parser factory
+     @param maxIdle The maximum number of idle parsers kept
+   */
+  public SAXParserPool(SAXParserFactory fact, int maxIdle)
+  {
+    if (fact == null)
+    {
+      throw new NullPointerException();
+    }
+    if (maxIdle <= 0)
+    {
+      throw new IllegalArgumentException("maxIdle must be positive");
+    }
+    this.fact = fact;
+    this.idle = new ArrayBlockingQueue<SAXParser>(maxIdle);
+  }
+  /**
+     Create a pool keeping the default maximum number of idle parsers.
+
+     @param fact The parser factory
+   */
+  public SAXParserPool(SAXParserFactory fact)
+  {
+    this(fact, DEFAULT_MAX_IDLE);
+  }
+  /**
+     Get the pool of the default parser factory.
+
+     The pool is created on first use with SAXParserFactory.newInstance().
+
+     @return The default pool
+   */
+  public static SAXParserPool getDefault()
+  {
+    SAXParserPool pool = defaultPool;
+    if (pool == null)
+    {
+      synchronized(SAXParserPool.class)
+      {
+        pool = defaultPool;
+        if (pool == null)
+        {
+          pool = new SAXParserPool(SAXParserFactory.newInstance());
+          defaultPool = pool;
+        }
+      }
+    }
+    return pool;
+  }
+  /**
+     Get the parser factory.
+
+     @return The parser factory
+   */
+  public SAXParserFactory getFactory()
+  {
+    return fact;
+  }
+  /**
+     Get the number of idle parsers.
+
+     @return The number of idle parsers
+   */
+  public int getIdleCount()
+  {
+    return idle.size();
+  }
+  /**
+     Take a parser from the pool, creating it if the pool is empty.
+
+     The parser should be given back with release() after use.
+
+     @return A parser
+   */
+  public SAXParser acquire()
+    throws ParserConfigurationException, SAXException
+  {
+    SAXParser p = idle.poll();
+    if (p != null)
+    {
+      return p;
+    }
+    synchronized(fact)
+    {
+      return fact.newSAXParser();
+    }
+  }
+  /**
+     Give a parser back to the pool.
+
+     The parser is reset. If it cannot be reset or the pool is full, it is
+     dropped.
+
+     @param p A parser acquired from this pool
+   */
+  public void release(SAXParser p)
+  {
+    try {
+      p.reset();
+    }
+    catch (RuntimeException e)
+    {
+      return;
+    }
+    idle.offer(p);
+  }
+}
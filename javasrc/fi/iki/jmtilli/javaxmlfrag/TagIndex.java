@@ -0,0 +1,135 @@
+/*
+  Copyright (C) 2013 Juha-Matti Tilli
+  
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+  
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+  
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  SOFTWARE.
+ */
+package fi.iki.jmtilli.javaxmlfrag;
+import java.util.HashMap;
+import java.util.List;
+/**
+   Index from tag names to the children of an element having the tag.
+
+   An index is valid for one version of the child list. It is immutable,
+   so an index built by a reader of a frozen tree may be seen by other
+   readers without synchronization.
+ */
+final class TagIndex {
+  /**
+     The minimum number of children for which an index is built.
+   */
+  public static final int THRESHOLD = 16;
+  private static final DocumentFragment[] NONE = new DocumentFragment[0];
+
+  private final int version;
+  private final HashMap<String, DocumentFragment[]> byTag;
+
+  /**
+     Create a marker recording that a version has been searched once.
+
+     The index itself is built only if the same version is searched again,
+     so that alternating mutations and lookups don't rebuild it every time.
+
+     @param version The version of the child list
+   */
+  public TagIndex(int version)
+  {
+    this.version = version;
+    this.byTag = null;
+  }
+  /**
+     Build an index.
+
+     @param children The children of the element
+     @param version The version of the child list
+   */
+  public TagIndex(List<DocumentFragment> children, int version)
+  {
+    HashMap<String, int[]> counts = new HashMap<String, int[]>();
+    HashMap<String, DocumentFragment[]> byTag =
+      new HashMap<String, DocumentFragment[]>();
+    for (DocumentFragment child: children)
+    {
+      String tag = child.getTag();
+      int[] count;
+      if (tag == null)
+      {
+        continue;
+      }
+      count = counts.get(tag);
+      if (count == null)
+      {
+        count = new int[1];
+        counts.put(tag, count);
+      }
+      count[0]++;
+    }
+    for (DocumentFragment child: children)
+    {
+      String tag = child.getTag();
+      DocumentFragment[] a;
+      int[] count;
+      if (tag == null)
+      {
+        continue;
+      }
+      count = counts.get(tag);
+      a = byTag.get(tag);
+      if (a == null)
+      {
+        a = new DocumentFragment[count[0]];
+        byTag.put(tag, a);
+        count[0] = 0;
+      }
+      a[count[0]++] = child;
+    }
+    this.version = version;
+    this.byTag = byTag;
+  }
+  /**
+     Get the version of the child list this index was created for.
+
+     @return The version
+   */
+  public int version()
+  {
+    return version;
+  }
+  /**
+     Test whether this is an index or only a marker.
+
+     @return Whether the index has been built
+   */
+  public boolean isBuilt()
+  {
+    return byTag != null;
+  }
+  /**
+     Get the children having a tag.
+
+     The returned array must not be modified.
+
+     @param tag The tag name
+     @return The children in document order
+   */
+  public DocumentFragment[] get(String tag)
+  {
+    DocumentFragment[] a = byTag.get(tag);
+    return a == null ? NONE : a;
+  }
+}
@@ -31,5 +31,13 @@ public class UnitTestAll {
   {
     UnitTestDocumentFragment.main(args);
     UnitTestDocumentFragmentHandler.main(args);
+    UnitTestDocumentFragmentReader.main(args);
+    UnitTestDocumentFragmentScanner.main(args);
+    UnitTestDocumentFragmentWriter.main(args);
+    UnitTestChunkedFragmentParser.main(args);
+    UnitTestReadAheadInputStream.main(args);
+    UnitTestSAXParserPool.main(args);
+    UnitTestXMLSymbolTable.main(args);
+    UnitTestXMLNumbers.main(args);
   }
 };
@@ -0,0 +1,247 @@
+/*
+  Copyright (C) 2013 Juha-Matti Tilli
+  
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+  
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+  
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  SOFTWARE.
+ */
+package fi.iki.jmtilli.javaxmlfrag;
+import java.util.*;
+import java.io.*;
+import org.xml.sax.SAXException;
+/**
+   Unit test for ChunkedFragmentParser.
+ */
+public class UnitTestChunkedFragmentParser {
+  public static boolean equals(Object a, Object b)
+  {
+    if (a == null)
+    {
+      return b == null;
+    }
+    return a.equals(b);
+  }
+  private static void assertEqual(Object a, Object b)
+  {
+    if (!equals(a, b))
+    {
+      throw new RuntimeException("inequal: " + a + ", " + b);
+    }
+  }
+  private static void assertTrue(boolean b)
+  {
+    if (!b)
+    {
+      throw new RuntimeException("false");
+    }
+  }
+  private static File customers(int count) throws IOException
+  {
+    File f = File.createTempFile("customers", ".xml");
+    Writer w = new BufferedWriter(new OutputStreamWriter(
+        new FileOutputStream(f), "UTF-8"));
+    f.deleteOnExit();
+    w.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    w.write("<!DOCTYPE allCustomers>\n<allCustomers>\n");
+    for (int i = 0; i < count; i++)
+    {
+      w.write("  <customer id=\"" + i + "\">\n");
+      w.write("    <name>Customer &amp; \u00E4 " + i + "</name>\n");
+      w.write("    <accountCount>" + (i % 7) + "</accountCount>\n");
+      w.write("  </customer>\n");
+      if (i % 1000 == 0)
+      {
+        w.write("  <!-- comment -->\n  <other>x</other>\n");
+      }
+    }
+    w.write("</allCustomers>\n");
+    w.close();
+    return f;
+  }
+  private static List<String> ids(ChunkedFragmentParser p, File f, String path)
+    throws Throwable
+  {
+    final List<String> ids =
+      Collections.synchronizedList(new ArrayList<String>());
+    p.parse(f, path, new FragmentProcessor() {
+      public void processFragment(DocumentFragment f)
+      {
+        assertTrue(f.getStringNotNull("name").startsWith(
+            "Customer & \u00E4"));
+        ids.add(f.getAttrStringNotNull("id"));
+      }
+    });
+    return ids;
+  }
+
+  private static byte[] readAll(InputStream is) throws IOException
+  {
+    ByteArrayOutputStream bs = new ByteArrayOutputStream();
+    byte[] buf = new byte[4096];
+    int n;
+    while ((n = is.read(buf)) >= 0)
+    {
+      bs.write(buf, 0, n);
+    }
+    is.close();
+    return bs.toByteArray();
+  }
+  private static List<String> gzipIds(ChunkedFragmentParser p, File f)
+    throws Throwable
+  {
+    final List<String> ids =
+      Collections.synchronizedList(new ArrayList<String>());
+    p.parseGzip(f, "allCustomers/customer", new FragmentProcessor() {
+      public void processFragment(DocumentFragment f)
+      {
+        ids.add(f.getAttrStringNotNull("id"));
+      }
+    });
+    return ids;
+  }
+
+  private static void testChunked() throws Throwable
+  {
+    File f = customers(50000);
+    List<String> expected = new ArrayList<String>();
+    List<String> ids;
+    for (int i = 0; i < 50000; i++)
+    {
+      expected.add("" + i);
+    }
+    assertTrue(f.length() > 4*1024*1024);
+    assertEqual(ids(new ChunkedFragmentParser(4, true), f,
+                    "/allCustomers/customer"), expected);
+    ids = new ArrayList<String>(
+      ids(new ChunkedFragmentParser(4, false), f, "allCustomers/customer"));
+    Collections.sort(ids, new Comparator<String>() {
+      public int compare(String a, String b)
+      {
+        return Integer.parseInt(a) - Integer.parseInt(b);
+      }
+    });
+    assertEqual(ids, expected);
+    /* no records: sequential */
+    assertEqual(ids(new ChunkedFragmentParser(4, true), f, "allCustomers/x"),
+                new ArrayList<String>());
+  }
+
+  private static void testFailure() throws Throwable
+  {
+    File f = customers(50000);
+    final int[] count = new int[1];
+    try {
+      new ChunkedFragmentParser(4, true).parse(f, "allCustomers/customer",
+        new FragmentProcessor() {
+          public void processFragment(DocumentFragment f) throws IOException
+          {
+            if (++count[0] == 100)
+            {
+              throw new IOException("failed");
+            }
+          }
+        });
+      throw new RuntimeException("no failure");
+    }
+    catch (XMLProcessingException e)
+    {
+      assertEqual(e.getCause().getMessage(), "failed");
+    }
+    assertEqual(count[0], 100);
+    f = File.createTempFile("customers", ".xml");
+    f.deleteOnExit();
+    Writer w = new OutputStreamWriter(new FileOutputStream(f), "UTF-8");
+    w.write("<allCustomers>\n");
+    for (int i = 0; i < 20000; i++)
+    {
+      w.write(i == 15000 ? "  <customer id=\"" + i + "\"><name></customer>\n"
+                         : "  <customer id=\"" + i + "\"/>\n");
+    }
+    w.write("</allCustomers>\n");
+    w.close();
+    try {
+      new ChunkedFragmentParser(4, true).parse(f, "allCustomers/customer",
+        new FragmentProcessor() {
+          public void processFragment(DocumentFragment f)
+          {
+          }
+        });
+      throw new RuntimeException("no failure");
+    }
+    catch (SAXException e)
+    {
+    }
+    try {
+      new ChunkedFragmentParser(4, true).parse(f, "allCustomers/*",
+                                               null);
+      throw new RuntimeException("no failure");
+    }
+    catch (IllegalArgumentException e)
+    {
+    }
+  }
+
+  private static void testGzip() throws Throwable
+  {
+    File f = File.createTempFile("customers", ".xml.gz");
+    File plain = File.createTempFile("customers", ".xml.gz");
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    BlockGzipOutputStream os = new BlockGzipOutputStream(
+        new FileOutputStream(f), 10000, 6);
+    OutputStream plainos = new java.util.zip.GZIPOutputStream(
+        new FileOutputStream(plain));
+    List<String> ids = new ArrayList<String>();
+    byte[] b;
+    f.deleteOnExit();
+    plain.deleteOnExit();
+    b = "<?xml version='1.0'?>\n<allCustomers>\n".getBytes("UTF-8");
+    os.write(b);
+    expected.write(b);
+    for (int i = 0; i < 5000; i++)
+    {
+      b = ("  <customer id='" + i + "'><name>Customer &amp; \u00E4 " + i +
+           "</name></customer>\n").getBytes("UTF-8");
+      os.boundary();
+      os.write(b);
+      expected.write(b);
+      ids.add("" + i);
+    }
+    b = "</allCustomers>\n".getBytes("UTF-8");
+    os.write(b);
+    expected.write(b);
+    os.close();
+    plainos.write(expected.toByteArray());
+    plainos.close();
+    assertTrue(Arrays.equals(readAll(new java.util.zip.GZIPInputStream(
+        new FileInputStream(f))), expected.toByteArray()));
+    assertEqual(gzipIds(new ChunkedFragmentParser(4, true), f), ids);
+    assertEqual(new TreeSet<String>(
+                  gzipIds(new ChunkedFragmentParser(3, false), f)),
+                new TreeSet<String>(ids));
+    assertEqual(gzipIds(new ChunkedFragmentParser(4, true), plain), ids);
+  }
+
+  /**
+     Run the unit test
+   */
+  public static void main(String[] args) throws Throwable
+  {
+    testChunked();
+    testFailure();
+    testGzip();
+  }
+};
@@ -26,6 +26,9 @@ import org.w3c.dom.Document;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.DocumentBuilder;
 import java.util.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 /**
    Unit test for DocumentFragment.
  */
@@ -527,6 +530,688 @@ public class UnitTestDocumentFragment {
     assertEqual(frag.getAttrStringObject("foo"), null);
   }
 
+  private static void testAttributeShapes()
+  {
+    DocumentFragment a = new DocumentFragment("a");
+    DocumentFragment b = new DocumentFragment("b");
+    Map<String, String> expected = new HashMap<String, String>();
+    a.setAttrString("x", "1");
+    a.setAttrString("y", "2");
+    b.setAttrString("x", "3");
+    b.setAttrString("y", "4");
+    assertTrue(a.attrCount() == 2);
+    assertTrue(a.attrKey(0) == b.attrKey(0));
+    assertEqual(b.attrValue(1), "4");
+    for (int i = 0; i < 40; i++)
+    {
+      a.setAttrString("k" + i, "v" + i);
+      expected.put("k" + i, "v" + i);
+    }
+    expected.put("x", "1");
+    expected.put("y", "2");
+    assertMapEqual(a.getAttributes(), expected);
+    assertEqual(a.getAttrStringObject("k39"), "v39");
+    Iterator<Map.Entry<String, String>> it =
+      a.getAttributes().entrySet().iterator();
+    assertEqual(it.next().getKey(), "x");
+    it.remove();
+    expected.remove("x");
+    a.getAttributes().entrySet().iterator().next().setValue("22");
+    expected.put("y", "22");
+    assertMapEqual(a.getAttributes(), expected);
+    assertEqual(b.getAttrStringObject("x"), "3");
+    a.getAttributes().clear();
+    assertTrue(a.getAttributes().isEmpty());
+    assertEqual(a.getAttrStringObject("y"), null);
+    for (int i = 0; i < 64*64*64; i++)
+    {
+      DocumentFragment c = new DocumentFragment("c");
+      c.setAttrString("p" + (i & 63), "1");
+      c.setAttrString("q" + ((i >> 6) & 63), "2");
+      c.setAttrString("r" + (i >> 12), "3");
+      assertEqual(c.getAttrStringObject("q" + ((i >> 6) & 63)), "2");
+      assertEqual(c.attrKey(2), "r" + (i >> 12));
+    }
+    assertTrue(AttributeShape.sharedCount() <=
+               AttributeShape.MAX_SHARED_SHAPES);
+  }
+
+  private static void testEmptyChildren()
+  {
+    DocumentFragment frag = new DocumentFragment("frag");
+    DocumentFragment text = DocumentFragment.newText("text");
+    boolean thrown = false;
+    assertEqual(frag.get("a"), null);
+    assertTrue(frag.getMulti("a").isEmpty());
+    assertTrue(frag.removeMulti("a").isEmpty());
+    assertTrue(frag.removeAll().isEmpty());
+    assertEqual(frag.remove("a"), null);
+    assertEqual(frag.getThisStringObjectEmptyIsEmpty(), "");
+    frag = new DocumentFragment("frag", new ArrayList<DocumentFragment>());
+    frag.getChildren().add(new DocumentFragment("a"));
+    assertEqual(frag.getNotNull("a").getTag(), "a");
+    try {
+      text.getNonTextChildren();
+    }
+    catch(IllegalStateException ex)
+    {
+      thrown = true;
+    }
+    assertTrue(thrown);
+  }
+
+  private static void testLeafText()
+  {
+    DocumentFragment frag = new DocumentFragment("frag");
+    DocumentFragment name = frag.add("name");
+    List<DocumentFragment> children;
+    name.addTextChild("Clark ");
+    name.addTextChild("Henson");
+    assertEqual(frag.getStringNotNull("name"), "Clark Henson");
+    assertEqual(name.get("name"), null);
+    assertTrue(name.getNonTextChildren().isEmpty());
+    children = name.getChildren();
+    assertEqual(children.size(), 1);
+    assertEqual(children.get(0).getText(), "Clark Henson");
+    assertTrue(children == name.getChildren());
+    name.addTextChild("!");
+    assertEqual(children.size(), 1);
+    assertEqual(name.getThisStringNotEmpty(), "Clark Henson!");
+    name.add("x");
+    assertEqual(children.size(), 2);
+    name = frag.add("other");
+    name.addTextChild("text");
+    assertEqual(name.removeAll().get(0).getText(), "text");
+    assertEqual(name.getThisStringObjectEmptyIsNull(), null);
+  }
+
+  private static void assertFrozen(Runnable r)
+  {
+    boolean thrown = false;
+    try {
+      r.run();
+    }
+    catch(UnsupportedOperationException ex)
+    {
+      thrown = true;
+    }
+    assertTrue(thrown);
+  }
+
+  private static void testFreeze() throws Throwable
+  {
+    final DocumentFragment doc = DocumentFragmentHandler.parseWholeFrozen(
+        new ByteArrayInputStream(
+          ("<config><db host='h' port='5432'><name>x</name></db>" +
+           "<empty/></config>").getBytes("UTF-8")),
+        XMLWhitespace.STRIP);
+    final DocumentFragment db = doc.getNotNull("db");
+    final DocumentFragment empty = doc.getNotNull("empty");
+    Thread[] threads = new Thread[4];
+    final boolean[] ok = new boolean[threads.length];
+    assertTrue(doc.isFrozen());
+    assertTrue(db.getNotNull("name").isFrozen());
+    assertEqual(db.getAttrIntNotNull("port"), 5432);
+    assertEqual(db.getStringNotNull("name"), "x");
+    assertEqual(db.getNotNull("name").getChildren().get(0).getText(), "x");
+    assertTrue(empty.getChildren().isEmpty());
+    assertFrozen(new Runnable() {
+      public void run() { doc.add("x"); }
+    });
+    assertFrozen(new Runnable() {
+      public void run() { doc.getChildren().remove(0); }
+    });
+    assertFrozen(new Runnable() {
+      public void run() { empty.getChildren().add(db); }
+    });
+    assertFrozen(new Runnable() {
+      public void run() { db.setAttrString("host", "g"); }
+    });
+    assertFrozen(new Runnable() {
+      public void run() { db.getAttributes().remove("host"); }
+    });
+    assertFrozen(new Runnable() {
+      public void run() { db.getNotNull("name").addTextChild("y"); }
+    });
+    assertFrozen(new Runnable() {
+      public void run() { doc.removeMulti("db"); }
+    });
+    assertEqual(db.getAttrStringNotNull("host"), "h");
+    for (int i = 0; i < threads.length; i++)
+    {
+      final int id = i;
+      threads[i] = new Thread() {
+        public void run()
+        {
+          boolean result = true;
+          for (int j = 0; j < 1000; j++)
+          {
+            result &= doc.getNotNull("db").getStringNotNull("name")
+                         .equals("x");
+            result &= doc.getChildren().size() == 2;
+          }
+          ok[id] = result;
+        }
+      };
+      threads[i].start();
+    }
+    for (int i = 0; i < threads.length; i++)
+    {
+      threads[i].join();
+      assertTrue(ok[i]);
+    }
+  }
+
+  private static void testTagIndex()
+  {
+    DocumentFragment frag = new DocumentFragment("frag");
+    boolean thrown;
+    for (int i = 0; i < 100; i++)
+    {
+      frag.add("f" + i).setThisInt(i);
+      frag.add("r").setThisInt(i);
+      frag.addTextChild(" ");
+    }
+    for (int round = 0; round < 3; round++)
+    {
+      assertEqual(frag.getIntNotNull("f42"), 42);
+      assertEqual(frag.getMultiCount("r"), 100);
+      assertEqual(frag.getMulti("r").size(), 100);
+      assertEqual(frag.getMulti("r", 57).getThisInt(-1), 57);
+      assertEqual(frag.get("x"), null);
+      assertEqual(frag.getMultiCount("x"), 0);
+    }
+    frag.getChildren().set(0, new DocumentFragment("x"));
+    assertEqual(frag.get("f0"), null);
+    assertEqual(frag.getNotNull("x").getTag(), "x");
+    frag.remove("x");
+    assertEqual(frag.get("x"), null);
+    frag.add("f1");
+    thrown = false;
+    try {
+      frag.get("f1");
+    }
+    catch(XMLMultipleElementsException ex)
+    {
+      thrown = true;
+    }
+    assertTrue(thrown);
+    assertEqual(frag.removeMulti("r").size(), 100);
+    assertEqual(frag.getMultiCount("r"), 0);
+    frag.freeze();
+    assertEqual(frag.getIntNotNull("f99"), 99);
+    assertEqual(frag.getMultiCount("f1"), 2);
+    thrown = false;
+    try {
+      frag.getMulti("f1", 2);
+    }
+    catch(IndexOutOfBoundsException ex)
+    {
+      thrown = true;
+    }
+    assertTrue(thrown);
+  }
+
+  private static void testTextAccumulation()
+  {
+    DocumentFragment frag = new DocumentFragment("frag");
+    DocumentFragment held;
+    StringBuilder expected = new StringBuilder();
+    frag.add("child");
+    for (int i = 0; i < 1000; i++)
+    {
+      frag.addTextChild("" + i);
+      expected.append(i);
+    }
+    assertEqual(frag.getChildren().size(), 2);
+    assertEqual(frag.getChildren().get(1).getText(), expected.toString());
+    held = frag.getChildren().get(1);
+    frag.addTextChild("x");
+    assertEqual(held.getText(), expected.toString());
+    assertTrue(frag.getChildren().get(1) != held);
+    expected.append("x");
+    assertEqual(frag.getChildren().size(), 2);
+    assertEqual(frag.getChildren().get(1).getText(), expected.toString());
+    frag.getChildren().add(DocumentFragment.newText("y"));
+    frag.addTextChild("z");
+    expected.append("yz");
+    assertEqual(frag.getChildren().size(), 2);
+    assertEqual(frag.getChildren().get(1).getText(), expected.toString());
+    frag = new DocumentFragment("frag");
+    for (int i = 0; i < 1000; i++)
+    {
+      frag.getChildren().add(DocumentFragment.newText("" + i));
+    }
+    assertEqual(frag.getThisStringNotEmpty(), expected.substring(0, 2890));
+    frag = new DocumentFragment("frag");
+    frag.addTextChild("a");
+    frag.addTextChild("b");
+    frag.freeze();
+    assertEqual(frag.getThisStringNotEmpty(), "ab");
+    frag = new DocumentFragment("frag");
+    frag.addTextChild("a");
+    frag.addTextChild("b");
+    frag.add("e");
+    frag.addTextChild("c");
+    frag.setAttrString("x", "1");
+    frag.addTextChild("d");
+    assertEqual(frag.getChildren().size(), 3);
+    assertEqual(frag.getChildren().get(0).getText(), "ab");
+    assertEqual(frag.getChildren().get(2).getText(), "cd");
+    assertEqual(frag.unparseToString(XMLDocumentType.FRAGMENT,
+                                     XMLIndentation.COMPACT),
+                "<frag x=\"1\">ab<e/>cd</frag>");
+    frag.addTextChild("e");
+    frag.removeAll();
+    assertEqual(frag.getThisStringObjectEmptyIsEmpty(), "");
+    frag.addTextChild("f");
+    frag.addTextChild("g");
+    assertEqual(frag.unparseToString(XMLDocumentType.FRAGMENT,
+                                     XMLIndentation.COMPACT),
+                "<frag x=\"1\">fg</frag>");
+    frag.setThisInt(5);
+    frag.addTextChild("0");
+    assertEqual(frag.getThisIntNotNull(), 50);
+  }
+
+  /*
+    Time to add n chunks of text, the best of a few runs.
+   */
+  private static long textAccumulationNanos(int n, boolean mixed)
+  {
+    long best = Long.MAX_VALUE;
+    for (int round = 0; round < 3; round++)
+    {
+      long t0 = System.nanoTime();
+      DocumentFragment frag = new DocumentFragment("frag");
+      if (mixed)
+      {
+        frag.add("child");
+      }
+      for (int i = 0; i < n; i++)
+      {
+        frag.addTextChild("chunk of text ");
+      }
+      if (mixed)
+      {
+        assertEqual(frag.getChildren().get(1).getText().length(), 14*n);
+      }
+      else
+      {
+        assertEqual(frag.getThisStringNotEmpty().length(), 14*n);
+      }
+      best = Math.min(best, System.nanoTime() - t0);
+    }
+    return best;
+  }
+
+  private static void testTextAccumulationLinear()
+  {
+    for (boolean mixed: new boolean[] {false, true})
+    {
+      long small;
+      long large;
+      textAccumulationNanos(5000, mixed);
+      small = textAccumulationNanos(5000, mixed);
+      large = textAccumulationNanos(40000, mixed);
+      if (large > 24*small + 50000000L)
+      {
+        throw new RuntimeException("addTextChild not linear: " + small +
+                                   " ns for 5000, " + large +
+                                   " ns for 40000");
+      }
+    }
+  }
+
+  private static void testOptionalGetters()
+  {
+    DocumentFragment frag = new DocumentFragment("frag");
+    boolean thrown = false;
+    frag.setAttrInt("id", 5);
+    frag.setDouble("balance", 1.5);
+    frag.add("empty");
+    assertEqual(frag.getAttrIntOptional("id"), OptionalInt.of(5));
+    assertEqual(frag.getAttrIntOptional("x"), OptionalInt.empty());
+    assertEqual(frag.getAttrStringOptional("id"), Optional.of("5"));
+    assertEqual(frag.getAttrLongObject("x"), null);
+    assertEqual(frag.getDoubleOptional("balance"), OptionalDouble.of(1.5));
+    assertEqual(frag.getLongOptional("x"), OptionalLong.empty());
+    assertEqual(frag.getStringOptional("empty"), Optional.of(""));
+    assertEqual(frag.getNotNull("empty").getThisIntOptional(),
+                OptionalInt.empty());
+    assertEqual(frag.getNotNull("balance").getThisDoubleOptional(),
+                OptionalDouble.of(1.5));
+    assertEqual(frag.getNotNull("empty").getThisStringOptional(),
+                Optional.<String>empty());
+    assertEqual(frag.getNotNull("empty").getThisIntObject(), null);
+    assertEqual(frag.getInt("x", 7), 7);
+    try {
+      frag.getIntOptional("empty");
+    }
+    catch(NumberFormatException ex)
+    {
+      thrown = true;
+    }
+    assertTrue(thrown);
+    try {
+      frag.getIntNotNull("x");
+      thrown = false;
+    }
+    catch(XMLValueMissingException ex)
+    {
+      assertEqual(ex.getMessage(), "no such tag: x");
+      assertEqual(ex.getStackTrace().length, 0);
+    }
+    assertTrue(thrown);
+  }
+
+  private static void testParsedValueCache()
+  {
+    DocumentFragment frag = new DocumentFragment("frag");
+    DocumentFragment count;
+    frag.setAttrString("id", "12");
+    frag.setString("count", "7");
+    count = frag.getNotNull("count");
+    for (int i = 0; i < 3; i++)
+    {
+      assertEqual(frag.getAttrIntNotNull("id"), 12);
+      assertEqual(frag.getAttrDoubleNotNull("id"), 12.0);
+      assertEqual(frag.getAttrLongObject("id"), 12L);
+      assertEqual(frag.getIntNotNull("count"), 7);
+      assertEqual(frag.getFloatNotNull("count"), 7.0f);
+      assertEqual(count.getThisLongNotNull(), 7L);
+    }
+    assertEqual(frag.getAttrStringNotNull("id"), "12");
+    assertEqual(frag.getAttributes().get("id"), "12");
+    assertEqual(frag.getAttributes().put("id", "13"), "12");
+    assertEqual(frag.getAttrIntNotNull("id"), 13);
+    frag.setAttrInt("id", 14);
+    assertEqual(frag.getAttrIntNotNull("id"), 14);
+    count.setThisInt(8);
+    assertEqual(frag.getIntNotNull("count"), 8);
+    count.addTextChild("1");
+    assertEqual(frag.getIntNotNull("count"), 81);
+    assertEqual(count.getChildren().get(0).getText(), "81");
+    assertEqual(frag.getIntNotNull("count"), 81);
+    frag.setString("bad", "x");
+    for (int i = 0; i < 2; i++)
+    {
+      boolean thrown = false;
+      try {
+        frag.getIntNotNull("bad");
+      }
+      catch(NumberFormatException ex)
+      {
+        thrown = true;
+      }
+      assertTrue(thrown);
+    }
+    frag.freeze();
+    assertEqual(frag.getAttrIntNotNull("id"), 14);
+    assertEqual(frag.getAttrIntNotNull("id"), 14);
+    frag = new DocumentFragment("frag");
+    frag.setAttrString("id", "007");
+    frag.freeze();
+    assertEqual(frag.getAttrIntNotNull("id"), 7);
+    assertEqual(frag.getAttrStringNotNull("id"), "007");
+    assertTrue(ParsedValue.ofInt("007", 7).isFormatted());
+    assertEqual(ParsedValue.ofInt("007", 7).toString(), "007");
+    assertTrue(!ParsedValue.ofInt(7).isFormatted());
+    assertEqual(ParsedValue.ofInt(7).toString(), "7");
+  }
+
+  private static void testLazySetters()
+  {
+    DocumentFragment frag = new DocumentFragment("frag");
+    DocumentFragment mixed;
+    frag.setAttrByte("b", (byte)-128);
+    frag.setAttrLong("l", Long.MIN_VALUE);
+    frag.setAttrFloat("f", 1.1f);
+    frag.setShort("s", (short)-5);
+    frag.setInt("i", Integer.MIN_VALUE);
+    frag.setDouble("d", 1e-7);
+    frag.setDouble("d", -0.0);
+    assertEqual(frag.getAttrStringNotNull("b"), "-128");
+    assertEqual(frag.getAttrStringNotNull("l"), "" + Long.MIN_VALUE);
+    assertEqual(frag.getAttrStringNotNull("f"), "" + 1.1f);
+    assertEqual(frag.getAttrFloatNotNull("f"), 1.1f);
+    assertEqual(frag.getStringNotNull("s"), "-5");
+    assertEqual(frag.getIntNotNull("i"), Integer.MIN_VALUE);
+    assertEqual(frag.getStringNotNull("i"), "" + Integer.MIN_VALUE);
+    assertEqual(frag.getStringNotNull("d"), "-0.0");
+    assertEqual(frag.getMultiCount("d"), 1);
+    assertEqual(frag.getNotNull("d").getChildren().get(0).getText(), "-0.0");
+    mixed = frag.add("mixed");
+    mixed.add("child");
+    mixed.setThisLong(42L);
+    assertEqual(mixed.getChildren().size(), 1);
+    assertEqual(mixed.getThisLongNotNull(), 42L);
+    mixed.addTextChild("0");
+    assertEqual(mixed.getThisStringNotEmpty(), "420");
+    frag.setAttrDouble("l", 2.5);
+    assertEqual(frag.getAttrStringNotNull("l"), "2.5");
+    assertEqual(frag.getAttributes().size(), 3);
+  }
+
+  private static final String[] SERIALIZER_TEXTS = {
+    "", "a", "b c", " ", "\n", "\n\n", "\t", "\r", "\r\n", "&", "<", ">",
+    "]]>", "\"", "'", "\u00e9", "\u2028", "\u007f", "\u0085",
+    "\ud83d\ude00", "\u20ac"
+  };
+  private static String randomText(Random r)
+  {
+    StringBuilder sb = new StringBuilder();
+    int n = r.nextInt(4);
+    for (int i = 0; i < n; i++)
+    {
+      sb.append(SERIALIZER_TEXTS[r.nextInt(SERIALIZER_TEXTS.length)]);
+    }
+    return sb.toString();
+  }
+  private static void randomChildren(Random r, DocumentFragment frag,
+                                     int depth)
+  {
+    int n = r.nextInt(5);
+    String[] attrs = {"x", "y", "a", "z"};
+    for (String attr: attrs)
+    {
+      if (r.nextInt(3) == 0)
+      {
+        frag.setAttrString(attr, randomText(r));
+      }
+    }
+    if (r.nextInt(10) == 0)
+    {
+      frag.setAttrString("xml:space",
+                         r.nextBoolean() ? "preserve" : "default");
+    }
+    if (r.nextInt(8) == 0)
+    {
+      frag.setAttrInt("n", r.nextInt());
+    }
+    for (int i = 0; i < n; i++)
+    {
+      switch (r.nextInt(6))
+      {
+        case 0:
+        case 1:
+          frag.addTextChild(randomText(r));
+          break;
+        case 2:
+          frag.getChildren().add(DocumentFragment.newText(randomText(r)));
+          break;
+        case 3:
+          frag.add("leaf").setThisDouble(r.nextGaussian());
+          break;
+        default:
+          if (depth < 4)
+          {
+            randomChildren(r, frag.add("e" + r.nextInt(3)), depth + 1);
+          }
+          break;
+      }
+    }
+  }
+  private static final String DECLARATION =
+    "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>";
+  private static String lines(String s)
+  {
+    return s.replace("\n", System.lineSeparator());
+  }
+  /*
+    The compact output must parse back to a tree with the same output, and
+    the indented output must be well-formed.
+   */
+  private static void assertRoundTrip(DocumentFragment frag)
+    throws Throwable
+  {
+    String compact = frag.unparseToString(XMLDocumentType.WHOLE,
+                                          XMLIndentation.COMPACT);
+    String indented = frag.unparseToString(XMLDocumentType.WHOLE,
+                                           XMLIndentation.INDENT);
+    DocumentFragment parsed = DocumentFragmentHandler.parseWhole(
+        new ByteArrayInputStream(compact.getBytes("UTF-8")));
+    assertEqual(parsed.unparseToString(XMLDocumentType.WHOLE,
+                                       XMLIndentation.COMPACT), compact);
+    DocumentFragmentHandler.parseWhole(
+        new ByteArrayInputStream(indented.getBytes("UTF-8")));
+  }
+  private static void assertSerialized(DocumentFragment frag,
+                                       String indented, String compact)
+    throws Throwable
+  {
+    ByteArrayOutputStream bs = new ByteArrayOutputStream();
+    indented = lines(indented);
+    compact = lines(compact);
+    assertEqual(frag.unparseToString(XMLDocumentType.FRAGMENT,
+                                     XMLIndentation.INDENT), indented);
+    assertEqual(frag.unparseToString(XMLDocumentType.FRAGMENT), indented);
+    assertEqual(frag.unparseToString(XMLDocumentType.WHOLE,
+                                     XMLIndentation.INDENT),
+                DECLARATION + System.lineSeparator() + indented);
+    assertEqual(frag.unparseToString(XMLDocumentType.FRAGMENT,
+                                     XMLIndentation.COMPACT), compact);
+    assertEqual(frag.unparseToString(XMLDocumentType.WHOLE,
+                                     XMLIndentation.COMPACT),
+                DECLARATION + compact);
+    frag.unparse(XMLDocumentType.FRAGMENT, bs);
+    assertEqual(new String(bs.toByteArray(), "UTF-8"), indented);
+    assertRoundTrip(frag);
+  }
+  private static void assertUnparseFails(DocumentFragment frag)
+    throws Throwable
+  {
+    for (XMLIndentation indentation: XMLIndentation.values())
+    {
+      boolean thrown = false;
+      try {
+        frag.unparseToString(XMLDocumentType.FRAGMENT, indentation);
+      }
+      catch(XMLProcessingException ex)
+      {
+        thrown = true;
+      }
+      assertTrue(thrown);
+      thrown = false;
+      try {
+        frag.unparse(XMLDocumentType.FRAGMENT, indentation,
+                     new ByteArrayOutputStream());
+      }
+      catch(IOException ex)
+      {
+        thrown = true;
+      }
+      assertTrue(thrown);
+    }
+  }
+  private static void testSerializer() throws Throwable
+  {
+    Random r = new Random(24);
+    DocumentFragment frag = new DocumentFragment("root");
+    DocumentFragment pre;
+    StringBuilder sb = new StringBuilder();
+    StringBuilder escaped = new StringBuilder();
+    String attrs =
+      " a=\"1\" b=\"x&amp;&lt;&gt;&quot;'&#10;&#9;&#13;\u00e9" +
+      "\u007f\u0085 ]]&gt;\"";
+    assertSerialized(frag, "<root/>\n", "<root/>");
+    frag.setAttrString("b", "x&<>\"'\n\t\r\u00e9\u007f\u0085 ]]>");
+    frag.setAttrString("a", "1");
+    assertSerialized(frag, "<root" + attrs + "/>\n",
+                     "<root" + attrs + "/>");
+    frag.addTextChild("");
+    assertSerialized(frag, "<root" + attrs + "/>\n",
+                     "<root" + attrs + "/>");
+    frag.addTextChild("\n  ");
+    frag.add("a").setThisString("x");
+    frag.addTextChild("\n  ");
+    frag.add("b");
+    frag.addTextChild("\n");
+    assertSerialized(frag,
+                     "<root" + attrs + ">\n    \n  <a>x</a>\n    \n" +
+                     "  <b/>\n  \n</root>\n",
+                     "<root" + attrs + ">\n  <a>x</a>\n  <b/>\n</root>");
+    pre = frag.add("pre");
+    pre.setAttrString("xml:space", "preserve");
+    pre.add("c").add("d").addTextChild("t");
+    pre.addTextChild("\n ");
+    assertSerialized(frag,
+                     "<root" + attrs + ">\n    \n  <a>x</a>\n    \n" +
+                     "  <b/>\n  \n  <pre xml:space=\"preserve\">" +
+                     "<c><d>t</d></c>\n </pre>\n</root>\n",
+                     "<root" + attrs + ">\n  <a>x</a>\n  <b/>\n" +
+                     "<pre xml:space=\"preserve\"><c><d>t</d></c>\n " +
+                     "</pre></root>");
+    frag = new DocumentFragment("t");
+    frag.addTextChild("a\r\n\t&<>\"']]>\u007f\u0085\u00e9\ud83d\ude00");
+    frag.add("e");
+    frag.addTextChild("\n\nx");
+    assertSerialized(frag,
+                     "<t>\n  a&#13;\n\t&amp;&lt;&gt;\"']]&gt;&#127;&#133;" +
+                     "\u00e9&#128512;\n  <e/>\n  x\n</t>\n",
+                     "<t>a&#13;\n\t&amp;&lt;&gt;\"']]&gt;&#127;&#133;" +
+                     "\u00e9&#128512;<e/>\n\nx</t>");
+    frag = new DocumentFragment("root");
+    frag.setAttrLong("l", Long.MIN_VALUE);
+    frag.setInt("i", -42);
+    frag.setFloat("f", 1.5f);
+    assertSerialized(frag.freeze(),
+                     "<root l=\"" + Long.MIN_VALUE + "\">\n  <i>-42</i>\n" +
+                     "  <f>1.5</f>\n</root>\n",
+                     "<root l=\"" + Long.MIN_VALUE + "\"><i>-42</i>" +
+                     "<f>1.5</f></root>");
+    while (sb.length() < 20000)
+    {
+      sb.append("\u00e9\ud83d\ude00&x");
+      escaped.append("\u00e9&#128512;&amp;x");
+    }
+    frag = new DocumentFragment("long");
+    frag.setAttrString("v", sb.toString());
+    frag.addTextChild(sb.toString());
+    frag.add("\u00e9\u4e2d");
+    assertSerialized(frag,
+                     "<long v=\"" + escaped + "\">\n  " + escaped +
+                     "\n  <\u00e9\u4e2d/>\n</long>\n",
+                     "<long v=\"" + escaped + "\">" + escaped +
+                     "<\u00e9\u4e2d/></long>");
+    for (String bad: new String[] {"\u0000", "\u0001", "\u001f", "\ufffe",
+                                   "\uffff", "\ud800", "a\udc00b"})
+    {
+      frag = new DocumentFragment("root");
+      frag.addTextChild(bad);
+      assertUnparseFails(frag);
+      frag = new DocumentFragment("root");
+      frag.setAttrString("a", bad);
+      assertUnparseFails(frag);
+    }
+    for (int i = 0; i < 300; i++)
+    {
+      frag = new DocumentFragment("root");
+      randomChildren(r, frag, 0);
+      assertRoundTrip(frag);
+    }
+  }
+
   private static void testSetAttrTypeConv()
   {
     DocumentFragment frag = new DocumentFragment("frag");
@@ -717,6 +1402,17 @@ public class UnitTestDocumentFragment {
     testGetNonTextChildren();
     testAddSet();
     testRemoveAttr();
+    testAttributeShapes();
+    testEmptyChildren();
+    testLeafText();
+    testFreeze();
+    testTagIndex();
+    testTextAccumulation();
+    testTextAccumulationLinear();
+    testOptionalGetters();
+    testParsedValueCache();
+    testLazySetters();
+    testSerializer();
     testSetAttrTypeConv();
     testThisVsNonThisGetNullness();
     testSetAttrNull();
@@ -21,7 +21,13 @@
  */
 package fi.iki.jmtilli.javaxmlfrag;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.stream.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import javax.xml.parsers.*;
 /**
    Unit test for DocumentFragmentHandler.
  */
@@ -359,6 +365,437 @@ public class UnitTestDocumentFragmentHandler {
     assertTrue(docFragEquals(tag, tag_parsed));
   }
 
+  private static byte[] customers(int count) throws Throwable
+  {
+    StringBuilder sb = new StringBuilder();
+    sb.append("<allCustomers>\n");
+    for (int i = 0; i < count; i++)
+    {
+      sb.append("  <customer id=\"" + i + "\">\n");
+      sb.append("    <name>Customer " + i + "</name>\n");
+      sb.append("    <accountCount>" + (i % 5) + "</accountCount>\n");
+      sb.append("  </customer>\n");
+    }
+    sb.append("</allCustomers>\n");
+    return sb.toString().getBytes("UTF-8");
+  }
+
+  private static class PipelineHandler extends DocumentFragmentHandler {
+    private final FragmentProcessor proc;
+    public PipelineHandler(FragmentProcessor proc)
+    {
+      this.proc = proc;
+    }
+    public void startXMLElement(String uri, String localName, String qName,
+                                org.xml.sax.Attributes attributes)
+    {
+      if (is("allCustomers", "customer"))
+      {
+        startFragmentCollection(proc);
+      }
+    }
+    public void endXMLElement(String uri, String localName, String qName,
+                              DocumentFragment f)
+    {
+      assertEqual(f, null);
+    }
+  };
+
+  private static void testFragmentPipeline() throws Throwable
+  {
+    final int count = 1000;
+    final AtomicLong sum = new AtomicLong();
+    final List<Integer> order =
+      Collections.synchronizedList(new ArrayList<Integer>());
+    ExecutorService exec = Executors.newFixedThreadPool(4);
+    SAXParser p = SAXParserFactory.newInstance().newSAXParser();
+    PipelineHandler handler;
+    FragmentPipeline pipeline;
+    boolean thrown;
+    try {
+      handler = new PipelineHandler(new FragmentProcessor() {
+        public void processFragment(DocumentFragment f)
+        {
+          sum.addAndGet(f.getAttrIntNotNull("id"));
+        }
+      });
+      handler.setFragmentPipeline(new FragmentPipeline(exec, 16, false));
+      p.parse(new ByteArrayInputStream(customers(count)), handler);
+      assertEqual(sum.get(), (long)count*(count-1)/2);
+
+      handler = new PipelineHandler(new FragmentProcessor() {
+        public void processFragment(DocumentFragment f)
+        {
+          order.add(f.getAttrIntNotNull("id"));
+        }
+      });
+      handler.setFragmentPipeline(new FragmentPipeline(exec, 16, true));
+      p.reset();
+      p.parse(new ByteArrayInputStream(customers(count)), handler);
+      assertEqual(order.size(), count);
+      for (int i = 0; i < count; i++)
+      {
+        assertEqual(order.get(i), i);
+      }
+
+      handler = new PipelineHandler(new FragmentProcessor() {
+        public void processFragment(DocumentFragment f) throws Exception
+        {
+          if (f.getAttrIntNotNull("id") == 500)
+          {
+            throw new IOException("customer 500");
+          }
+        }
+      });
+      pipeline = new FragmentPipeline(exec, 16, false);
+      handler.setFragmentPipeline(pipeline);
+      thrown = false;
+      try {
+        p.reset();
+        handler.parse(p, new ByteArrayInputStream(customers(count)));
+      }
+      catch (XMLProcessingException e)
+      {
+        assertTrue(e.getCause() instanceof IOException);
+        thrown = true;
+      }
+      assertTrue(thrown);
+
+      sum.set(0);
+      handler = new PipelineHandler(new FragmentProcessor() {
+        public void processFragment(DocumentFragment f)
+          throws InterruptedException
+        {
+          Thread.sleep(1);
+          sum.addAndGet(f.getAttrIntNotNull("id"));
+        }
+      }) {
+        public void endDocument()
+        {
+        }
+      };
+      handler.setFragmentPipeline(pipeline);
+      p.reset();
+      handler.parse(p, new ByteArrayInputStream(customers(100)));
+      assertEqual(sum.get(), 100L*99/2);
+
+      sum.set(0);
+      p.reset();
+      thrown = false;
+      try {
+        byte[] doc = customers(100);
+        handler.parse(p, new ByteArrayInputStream(doc, 0, doc.length - 5));
+      }
+      catch (org.xml.sax.SAXException e)
+      {
+        thrown = true;
+      }
+      assertTrue(thrown);
+      assertEqual(sum.get(), 100L*99/2);
+      assertEqual(pipeline.await(), null);
+    }
+    finally {
+      exec.shutdown();
+    }
+  }
+
+  private static class TransformHandler extends DocumentFragmentHandler {
+    private final FragmentTransformer transformer;
+    private final FragmentSink sink;
+    public TransformHandler(FragmentTransformer transformer,
+                            FragmentSink sink)
+    {
+      this.transformer = transformer;
+      this.sink = sink;
+    }
+    public void startXMLElement(String uri, String localName, String qName,
+                                org.xml.sax.Attributes attributes)
+    {
+      if (is("allCustomers", "customer"))
+      {
+        startFragmentCollection(transformer, sink);
+      }
+    }
+    public void endXMLElement(String uri, String localName, String qName,
+                              DocumentFragment f)
+    {
+      assertEqual(f, null);
+    }
+  };
+
+  private static void testOrderedTransform() throws Throwable
+  {
+    final int count = 1000;
+    final List<Integer> order = new ArrayList<Integer>();
+    final List<String> names = new ArrayList<String>();
+    FragmentTransformer transformer = new FragmentTransformer() {
+      public DocumentFragment transformFragment(DocumentFragment f)
+        throws Exception
+      {
+        int id = f.getAttrIntNotNull("id");
+        if (id % 7 == 0)
+        {
+          Thread.sleep(1);
+        }
+        if (id % 10 == 9)
+        {
+          return null;
+        }
+        f.setString("name", f.getStringNotNull("name").toUpperCase());
+        return f;
+      }
+    };
+    FragmentSink sink = new FragmentSink() {
+      public void writeFragment(DocumentFragment f)
+      {
+        order.add(f.getAttrIntNotNull("id"));
+        names.add(f.getStringNotNull("name"));
+      }
+    };
+    ExecutorService exec = Executors.newFixedThreadPool(4);
+    SAXParser p = SAXParserFactory.newInstance().newSAXParser();
+    TransformHandler handler;
+    try {
+      handler = new TransformHandler(transformer, sink);
+      handler.setFragmentPipeline(new FragmentPipeline(exec, 8, false));
+      p.parse(new ByteArrayInputStream(customers(count)), handler);
+      assertEqual(order.size(), count - count/10);
+      for (int i = 0, id = 0; i < order.size(); i++, id++)
+      {
+        if (id % 10 == 9)
+        {
+          id++;
+        }
+        assertEqual(order.get(i), id);
+        assertEqual(names.get(i), "CUSTOMER " + id);
+      }
+      List<Integer> parallelOrder = new ArrayList<Integer>(order);
+      order.clear();
+      names.clear();
+      p.reset();
+      p.parse(new ByteArrayInputStream(customers(count)),
+              new TransformHandler(transformer, sink));
+      assertEqual(order, parallelOrder);
+    }
+    finally {
+      exec.shutdown();
+    }
+  }
+
+  private static class RegistryHandler extends DocumentFragmentHandler {
+    public void startXMLElement(String uri, String localName, String qName,
+                                org.xml.sax.Attributes attributes)
+    {
+    }
+    public void endXMLElement(String uri, String localName, String qName,
+                              DocumentFragment f)
+    {
+      assertEqual(f, null);
+    }
+  };
+
+  private static class Collector implements FragmentProcessor {
+    public final List<DocumentFragment> frags =
+      new ArrayList<DocumentFragment>();
+    public void processFragment(DocumentFragment f)
+    {
+      frags.add(f);
+    }
+  };
+
+  private static void testOnFragment() throws Throwable
+  {
+    String doc = "<a><b><c>1</c><b><c>2</c></b></b><d><c>3</c></d><c>4</c></a>";
+    SAXParser p = SAXParserFactory.newInstance().newSAXParser();
+    RegistryHandler handler = new RegistryHandler();
+    Collector ac = new Collector();
+    Collector wc = new Collector();
+    Collector desc = new Collector();
+    Collector bdesc = new Collector();
+    Collector none = new Collector();
+    boolean thrown;
+
+    handler.onFragment("a/c", ac);
+    handler.onFragment("*/c", wc);
+    handler.onFragment("x//c", none);
+    p.parse(new ByteArrayInputStream(doc.getBytes("UTF-8")), handler);
+    assertEqual(ac.frags.size(), 1);
+    assertEqual(ac.frags.get(0).getThisStringNotEmpty(), "4");
+    assertListHasSameObjects(ac.frags, wc.frags);
+    assertEqual(none.frags.size(), 0);
+
+    handler = new RegistryHandler();
+    handler.onFragment("//c", desc);
+    handler.onFragment("a//b/c", bdesc);
+    p.reset();
+    p.parse(new ByteArrayInputStream(doc.getBytes("UTF-8")), handler);
+    assertEqual(desc.frags.size(), 4);
+    for (int i = 0; i < 4; i++)
+    {
+      assertEqual(desc.frags.get(i).getThisIntNotNull(), i+1);
+    }
+    assertEqual(bdesc.frags.size(), 2);
+    assertTrue(bdesc.frags.get(0) == desc.frags.get(0));
+    assertTrue(bdesc.frags.get(1) == desc.frags.get(1));
+
+    for (String path: new String[]{"", "/", "//", "a/", "a///b", "a//"})
+    {
+      thrown = false;
+      try {
+        handler.onFragment(path, none);
+      }
+      catch (IllegalArgumentException e)
+      {
+        thrown = true;
+      }
+      assertTrue(thrown);
+    }
+  }
+
+  private static void testStream() throws Throwable
+  {
+    final int count = 5000;
+    List<Integer> ids;
+    Stream<DocumentFragment> st;
+    boolean thrown;
+
+    st = DocumentFragmentHandler.stream(
+        new ByteArrayInputStream(customers(count)), "allCustomers/customer");
+    assertEqual(st.mapToLong(f -> f.getAttrIntNotNull("id")).sum(),
+                (long)count*(count-1)/2);
+
+    st = DocumentFragmentHandler.stream(
+        new ByteArrayInputStream(customers(count)), "allCustomers/customer");
+    ids = st.parallel().map(f -> f.getAttrIntNotNull("id"))
+            .collect(Collectors.toList());
+    assertEqual(ids.size(), count);
+    for (int i = 0; i < count; i++)
+    {
+      assertEqual(ids.get(i), i);
+    }
+
+    try (Stream<DocumentFragment> st2 = DocumentFragmentHandler.stream(
+             new ByteArrayInputStream(customers(count)), "//name"))
+    {
+      assertEqual(st2.limit(3).map(f -> f.getThisStringNotEmpty())
+                     .collect(Collectors.toList()),
+                  Arrays.asList("Customer 0", "Customer 1", "Customer 2"));
+    }
+
+    thrown = false;
+    st = DocumentFragmentHandler.stream(
+        new ByteArrayInputStream("<a><b/><b></a>".getBytes("UTF-8")), "a/b");
+    try {
+      st.count();
+    }
+    catch (XMLProcessingException e)
+    {
+      assertTrue(e.getCause() instanceof org.xml.sax.SAXException);
+      thrown = true;
+    }
+    assertTrue(thrown);
+  }
+
+  private static void testChannels() throws Throwable
+  {
+    byte[] doc = customers(2000);
+    DocumentFragment expected =
+      DocumentFragmentHandler.parseWhole(new ByteArrayInputStream(doc));
+    File f = File.createTempFile("customers", ".xml");
+    FileOutputStream os = new FileOutputStream(f);
+    ByteBuffer buf = ByteBuffer.allocateDirect(doc.length + 3);
+    FileChannel ch;
+    f.deleteOnExit();
+    os.write(doc);
+    os.close();
+    buf.put("abc".getBytes("UTF-8"));
+    buf.put(doc);
+    buf.flip();
+    buf.position(3);
+    assertTrue(docFragEquals(expected,
+                             DocumentFragmentHandler.parseWhole(buf)));
+    assertEqual(buf.position(), 3);
+    assertTrue(docFragEquals(expected,
+                             DocumentFragmentHandler.parseWholeMapped(f)));
+    assertTrue(docFragEquals(expected,
+                             DocumentFragmentHandler.parseWhole(f, 7)));
+    ch = FileChannel.open(f.toPath());
+    assertTrue(docFragEquals(expected,
+                             DocumentFragmentHandler.parseWhole(ch)));
+    ch.position(0);
+    assertTrue(docFragEquals(expected, DocumentFragmentHandler.parseWhole(
+        Channels.newChannel(Channels.newInputStream(ch)), 100)));
+    assertTrue(ch.isOpen());
+    ch.close();
+    assertTrue(DocumentFragmentHandler.setInputBufferSize(
+        SAXParserFactory.newInstance().newSAXParser(), 1024*1024));
+  }
+
+  private static void testWhitespace() throws Throwable
+  {
+    String doc = "<a>\n  <b>  x y \n</b>\n  <c> </c>\n" +
+                 "  <p>Hello <i>w</i> !</p>\n</a>";
+    DocumentFragment f;
+    final List<DocumentFragment> frags = new ArrayList<DocumentFragment>();
+    DocumentFragmentHandler h;
+    DocumentFragmentReader r;
+
+    f = DocumentFragmentHandler.parseWhole(
+        new ByteArrayInputStream(doc.getBytes("UTF-8")));
+    assertEqual(f.getChildren().size(), 7);
+
+    f = DocumentFragmentHandler.parseWhole(
+        new ByteArrayInputStream(doc.getBytes("UTF-8")), XMLWhitespace.STRIP);
+    assertEqual(f.getChildren().size(), 3);
+    assertEqual(f.getStringNotNull("b"), "  x y \n");
+    assertEqual(f.getNotNull("c").getChildren().size(), 1);
+    assertEqual(f.getNotNull("p").getChildren().size(), 3);
+
+    f = DocumentFragmentHandler.parseWhole(
+        new ByteArrayInputStream(doc.getBytes("UTF-8")), XMLWhitespace.TRIM);
+    assertEqual(f.getChildren().size(), 3);
+    assertEqual(f.getStringNotNull("b"), "x y");
+    assertEqual(f.getNotNull("c").getChildren().size(), 0);
+    assertEqual(f.getNotNull("p").getChildren().size(), 3);
+    assertEqual(f.getNotNull("p").getChildren().get(2).getText(), " !");
+
+    h = new DocumentFragmentHandler() {
+      public void startXMLElement(String uri, String localName, String qName,
+                                  org.xml.sax.Attributes attributes)
+      {
+        if (is("a", "c"))
+        {
+          startFragmentCollection(XMLWhitespace.TRIM);
+        }
+      }
+      public void endXMLElement(String uri, String localName, String qName,
+                                DocumentFragment f)
+      {
+        if (f != null)
+        {
+          frags.add(f);
+        }
+      }
+    };
+    h.setWhitespace(XMLWhitespace.STRIP);
+    h.onFragment("a/b", new FragmentProcessor() {
+      public void processFragment(DocumentFragment f)
+      {
+        frags.add(f);
+      }
+    });
+    SAXParserFactory.newInstance().newSAXParser().parse(
+        new ByteArrayInputStream(doc.getBytes("UTF-8")), h);
+    assertEqual(frags.size(), 2);
+    assertEqual(frags.get(0).getThisString(""), "  x y \n");
+    assertEqual(frags.get(1).getChildren().size(), 0);
+
+    r = new DocumentFragmentReader(
+        new ByteArrayInputStream(doc.getBytes("UTF-8")));
+    r.setWhitespace(XMLWhitespace.STRIP);
+    assertEqual(r.readFragment().getChildren().size(), 3);
+  }
+
   /**
      Run the unit test
    */
@@ -366,5 +803,11 @@ public class UnitTestDocumentFragmentHandler {
   {
     testDocumentFragmentHandler();
     testParseWhole();
+    testFragmentPipeline();
+    testOrderedTransform();
+    testOnFragment();
+    testStream();
+    testChannels();
+    testWhitespace();
   }
 };
@@ -0,0 +1,201 @@
+/*
+  Copyright (C) 2013 Juha-Matti Tilli
+  
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+  
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+  
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  SOFTWARE.
+ */
+package fi.iki.jmtilli.javaxmlfrag;
+import java.util.*;
+import java.io.*;
+/**
+   Unit test for DocumentFragmentReader.
+ */
+public class UnitTestDocumentFragmentReader {
+  public static boolean equals(Object a, Object b)
+  {
+    if (a == null)
+    {
+      return b == null;
+    }
+    return a.equals(b);
+  }
+  private static void assertEqual(Object a, Object b)
+  {
+    if (!equals(a, b))
+    {
+      throw new RuntimeException("inequal: " + a + ", " + b);
+    }
+  }
+  private static void assertTrue(boolean b)
+  {
+    if (!b)
+    {
+      throw new RuntimeException("false");
+    }
+  }
+  private static boolean docFragEquals(DocumentFragment a, DocumentFragment b)
+  {
+    if (a == null)
+    {
+      return b == null;
+    }
+    if (b == null)
+    {
+      return false;
+    }
+    if (a.isTextElement() != b.isTextElement())
+    {
+      return false;
+    }
+    if (!equals(a.getTag(), b.getTag()))
+    {
+      return false;
+    }
+    if (!equals(a.getText(), b.getText()))
+    {
+      return false;
+    }
+    if (!a.isTextElement())
+    {
+      if (!a.getAttributes().equals(b.getAttributes()))
+      {
+        return false;
+      }
+      List<DocumentFragment> children1 = a.getChildren();
+      List<DocumentFragment> children2 = b.getChildren();
+      Iterator<DocumentFragment> iter2 = children2.iterator();
+      if (children1.size() != children2.size())
+      {
+        return false;
+      }
+      for (DocumentFragment frag1: children1)
+      {
+        DocumentFragment frag2 = iter2.next();
+        if (!docFragEquals(frag1, frag2))
+        {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+  private static DocumentFragmentReader reader(String doc) throws Throwable
+  {
+    return new DocumentFragmentReader(
+        new ByteArrayInputStream(doc.getBytes("UTF-8")));
+  }
+
+  private static final String DOC =
+    "<?xml version='1.0'?>\n" +
+    "<!-- customers -->\n" +
+    "<allCustomers xmlns:x='urn:x'>\n" +
+    "  <customer id='1' x:type='a'>\n" +
+    "    <name>Clark &amp; <![CDATA[Henson]]></name>\n" +
+    "    <x:accountCount>1</x:accountCount>\n" +
+    "  </customer>\n" +
+    "  <other><customer id='9'/></other>\n" +
+    "  <customer id='2'>\n" +
+    "    <name>Elnora Ericson</name>\n" +
+    "    <x:accountCount>3</x:accountCount>\n" +
+    "  </customer>\n" +
+    "</allCustomers>\n";
+
+  private static void testNextFragment() throws Throwable
+  {
+    DocumentFragment whole = DocumentFragmentHandler.parseWhole(
+        new ByteArrayInputStream(DOC.getBytes("UTF-8")));
+    List<DocumentFragment> customers = whole.getMulti("customer");
+    DocumentFragmentReader r = reader(DOC);
+    DocumentFragment f;
+
+    f = r.nextFragment("allCustomers/customer");
+    assertTrue(docFragEquals(f, customers.get(0)));
+    assertEqual(f.getStringNotNull("name"), "Clark & Henson");
+    assertEqual(f.getAttrStringNotNull("x:type"), "a");
+    assertEqual(f.getIntNotNull("x:accountCount"), 1);
+    f = r.nextFragment("allCustomers/customer");
+    assertTrue(docFragEquals(f, customers.get(1)));
+    assertEqual(r.nextFragment("allCustomers/customer"), null);
+    assertEqual(r.nextFragment("allCustomers/customer"), null);
+    r.close();
+
+    r = reader(DOC);
+    assertEqual(r.nextFragment("//customer").getAttrIntNotNull("id"), 1);
+    assertEqual(r.nextFragment("//customer").getAttrIntNotNull("id"), 9);
+    assertEqual(r.nextFragment("//customer").getAttrIntNotNull("id"), 2);
+    assertEqual(r.nextFragment("//customer"), null);
+
+    r = reader(DOC);
+    assertTrue(docFragEquals(r.nextFragment("*"), whole));
+    assertEqual(r.nextFragment("*"), null);
+  }
+
+  private static void testPeekSkip() throws Throwable
+  {
+    DocumentFragmentReader r = reader(DOC);
+    assertEqual(r.peekTag(), "allCustomers");
+    assertEqual(r.getDepth(), 0);
+    assertEqual(r.nextFragment("allCustomers/customer")
+                 .getAttrIntNotNull("id"), 1);
+    assertEqual(r.peekTag(), "other");
+    assertEqual(r.getDepth(), 1);
+    r.skipSubtree();
+    assertEqual(r.peekTag(), "customer");
+    assertEqual(r.readFragment().getAttrIntNotNull("id"), 2);
+    assertEqual(r.peekTag(), null);
+    assertEqual(r.readFragment(), null);
+    r.skipSubtree();
+    assertEqual(r.peekTag(), null);
+  }
+
+  private static void testMerge() throws Throwable
+  {
+    DocumentFragmentReader r1 =
+      reader("<a><r k='1'/><r k='4'/><r k='5'/></a>");
+    DocumentFragmentReader r2 =
+      reader("<a><r k='2'/><r k='3'/><r k='6'/><r k='7'/></a>");
+    DocumentFragment f1 = r1.nextFragment("a/r");
+    DocumentFragment f2 = r2.nextFragment("a/r");
+    List<Integer> merged = new ArrayList<Integer>();
+    while (f1 != null || f2 != null)
+    {
+      if (f2 == null ||
+          (f1 != null && f1.getAttrIntNotNull("k") < f2.getAttrIntNotNull("k")))
+      {
+        merged.add(f1.getAttrIntNotNull("k"));
+        f1 = r1.nextFragment("a/r");
+      }
+      else
+      {
+        merged.add(f2.getAttrIntNotNull("k"));
+        f2 = r2.nextFragment("a/r");
+      }
+    }
+    assertEqual(merged, Arrays.asList(1, 2, 3, 4, 5, 6, 7));
+  }
+
+  /**
+     Run the unit test
+   */
+  public static void main(String[] args) throws Throwable
+  {
+    testNextFragment();
+    testPeekSkip();
+    testMerge();
+  }
+};
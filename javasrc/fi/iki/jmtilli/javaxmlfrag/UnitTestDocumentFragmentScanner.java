@@ -0,0 +1,193 @@
+/*
+  Copyright (C) 2013 Juha-Matti Tilli
+  
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+  
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+  
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  SOFTWARE.
+ */
+package fi.iki.jmtilli.javaxmlfrag;
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import org.xml.sax.SAXException;
+/**
+   Unit test for DocumentFragmentScanner.
+ */
+public class UnitTestDocumentFragmentScanner {
+  public static boolean equals(Object a, Object b)
+  {
+    if (a == null)
+    {
+      return b == null;
+    }
+    return a.equals(b);
+  }
+  private static void assertEqual(Object a, Object b)
+  {
+    if (!equals(a, b))
+    {
+      throw new RuntimeException("inequal: " + a + ", " + b);
+    }
+  }
+  private static void assertTrue(boolean b)
+  {
+    if (!b)
+    {
+      throw new RuntimeException("false");
+    }
+  }
+  private static boolean docFragEquals(DocumentFragment a, DocumentFragment b)
+  {
+    if (a == null)
+    {
+      return b == null;
+    }
+    if (b == null)
+    {
+      return false;
+    }
+    if (a.isTextElement() != b.isTextElement())
+    {
+      return false;
+    }
+    if (!equals(a.getTag(), b.getTag()))
+    {
+      return false;
+    }
+    if (!equals(a.getText(), b.getText()))
+    {
+      return false;
+    }
+    if (!a.isTextElement())
+    {
+      if (!a.getAttributes().equals(b.getAttributes()))
+      {
+        return false;
+      }
+      List<DocumentFragment> children1 = a.getChildren();
+      List<DocumentFragment> children2 = b.getChildren();
+      Iterator<DocumentFragment> iter2 = children2.iterator();
+      if (children1.size() != children2.size())
+      {
+        return false;
+      }
+      for (DocumentFragment frag1: children1)
+      {
+        DocumentFragment frag2 = iter2.next();
+        if (!docFragEquals(frag1, frag2))
+        {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+  private static void assertSameAsSAX(byte[] doc) throws Throwable
+  {
+    DocumentFragment sax =
+      DocumentFragmentHandler.parseWhole(new ByteArrayInputStream(doc));
+    DocumentFragment scanned = DocumentFragmentScanner.parseWhole(doc);
+    ByteBuffer direct = ByteBuffer.allocateDirect(doc.length + 2);
+    assertTrue(docFragEquals(sax, scanned));
+    direct.put((byte)' ');
+    direct.put(doc);
+    direct.flip();
+    direct.get();
+    assertTrue(docFragEquals(sax,
+                             DocumentFragmentScanner.parseWhole(direct)));
+    assertEqual(direct.position(), 1);
+  }
+  private static void assertSameAsSAX(String doc) throws Throwable
+  {
+    assertSameAsSAX(doc.getBytes("UTF-8"));
+  }
+  private static void assertError(String doc) throws Throwable
+  {
+    try {
+      DocumentFragmentScanner.parseWhole(doc.getBytes("UTF-8"));
+    }
+    catch (SAXException e)
+    {
+      return;
+    }
+    throw new RuntimeException("no error: " + doc);
+  }
+
+  private static void testWhole() throws Throwable
+  {
+    assertSameAsSAX("<a/>");
+    assertSameAsSAX("\uFEFF<?xml version=\"1.0\" encoding=\"utf-8\"?>" +
+                    "<a x = 'y'  z=\"&lt;&#65;&#x20AC;&#x1F600;\"></a>");
+    assertSameAsSAX("<?xml version='1.0' standalone='yes' ?>\r\n" +
+                    "<!-- c --><?pi data?>\n" +
+                    "<a b='1\r\n2\t3&#13;'>x\r\ny\rz<![CDATA[<&>]]>" +
+                    "<b>\u00E4\u20AC\uD83D\uDE00 &amp;&quot;&apos;&gt;</b>" +
+                    "<!-- - > --><?p?><c/>tail</a>\n<!-- end -->\n");
+    assertSameAsSAX("<allCustomers>\n  <customer id='1'>\n" +
+                    "    <name>Clark Henson</name>\n" +
+                    "  </customer>\n</allCustomers>");
+    /* unsupported by the scanner but valid */
+    assertSameAsSAX("<!DOCTYPE a [<!ENTITY e 'ent'>]><a>&e;</a>");
+    assertSameAsSAX("<?xml version='1.0' encoding='ISO-8859-1'?><a>\u00E4</a>"
+                    .getBytes("ISO-8859-1"));
+    assertSameAsSAX("<\u00E4 \u00F6='1'>x</\u00E4>");
+    /* errors */
+    assertError("<a>");
+    assertError("<a></b>");
+    assertError("<a x='1' x='2'/>");
+    assertError("<a>&foo;</a>");
+    assertError("<a>]]></a>");
+    assertError("<a/><b/>");
+    assertError("<a>\u0001</a>");
+    assertError("<a><!-- -- --></a>");
+  }
+
+  private static void testFragments() throws Throwable
+  {
+    final List<String> ids = new ArrayList<String>();
+    FragmentProcessor proc = new FragmentProcessor() {
+      public void processFragment(DocumentFragment f)
+      {
+        ids.add(f.getAttrStringNotNull("id"));
+      }
+    };
+    DocumentFragmentScanner.parse(
+        ("<all><c id='1'><c id='x'/></c><d><c id='y'/></d>" +
+         "<c id='2'/></all>").getBytes("UTF-8"), "all/c", proc);
+    assertEqual(ids, Arrays.asList("1", "2"));
+    ids.clear();
+    DocumentFragmentScanner.parse(
+        ("<all><c id='1'/><d><c id='2'/></d><c id='3'/></all>")
+        .getBytes("UTF-8"), "//c", proc);
+    assertEqual(ids, Arrays.asList("1", "2", "3"));
+    /* fallback after the first fragment must not repeat it */
+    ids.clear();
+    DocumentFragmentScanner.parse(
+        ("<all><c id='1'/><c id='2'/><\u00E4/><c id='3'/></all>")
+        .getBytes("UTF-8"), "all/c", proc);
+    assertEqual(ids, Arrays.asList("1", "2", "3"));
+  }
+
+  /**
+     Run the unit test
+   */
+  public static void main(String[] args) throws Throwable
+  {
+    testWhole();
+    testFragments();
+  }
+};
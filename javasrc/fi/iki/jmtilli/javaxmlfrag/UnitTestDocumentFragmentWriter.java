@@ -0,0 +1,196 @@
+/*
+  Copyright (C) 2013 Juha-Matti Tilli
+  
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+  
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+  
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  SOFTWARE.
+ */
+package fi.iki.jmtilli.javaxmlfrag;
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+/**
+   Unit test for DocumentFragmentWriter.
+ */
+public class UnitTestDocumentFragmentWriter {
+  private static void assertEqual(Object a, Object b)
+  {
+    if (a == null ? b != null : !a.equals(b))
+    {
+      throw new RuntimeException("inequal: " + a + ", " + b);
+    }
+  }
+  private static void assertTrue(boolean b)
+  {
+    if (!b)
+    {
+      throw new RuntimeException("false");
+    }
+  }
+  private static class Customer implements XMLRowable {
+    private final int id;
+    public Customer(int id)
+    {
+      this.id = id;
+    }
+    public void toXMLRow(DocumentFragment row)
+    {
+      row.setAttrInt("id", id);
+      row.setString("name", "Customer & \u00e4 " + id);
+      row.setDouble("balance", id * 0.5);
+    }
+  };
+  private static class FlushCountingStream extends ByteArrayOutputStream {
+    public int flushes = 0;
+    public boolean closed = false;
+    public void flush()
+    {
+      flushes++;
+    }
+    public void close()
+    {
+      closed = true;
+    }
+  };
+  private static DocumentFragment root()
+  {
+    DocumentFragment root = new DocumentFragment("allCustomers");
+    root.setAttrString("version", "2");
+    root.addTextChild("\n  ");
+    root.add("header").setString("created", "today");
+    return root;
+  }
+
+  private static void testSameAsUnparse() throws Throwable
+  {
+    for (XMLDocumentType type: XMLDocumentType.values())
+    {
+      for (XMLIndentation indentation: XMLIndentation.values())
+      {
+        DocumentFragment whole = root();
+        FlushCountingStream bs = new FlushCountingStream();
+        DocumentFragmentWriter w = new DocumentFragmentWriter(
+            bs, root(), type, indentation, 16, 0);
+        for (int i = 0; i < 100; i++)
+        {
+          DocumentFragment row = new DocumentFragment("customer");
+          new Customer(i).toXMLRow(row);
+          whole.add(row);
+          if (i % 2 == 0)
+          {
+            w.write("customer", new Customer(i));
+          }
+          else
+          {
+            w.writeFragment(row);
+          }
+          if (i % 10 == 0)
+          {
+            whole.add(DocumentFragment.newText("\n"));
+            w.write(DocumentFragment.newText("\n"));
+          }
+        }
+        w.close();
+        w.close();
+        assertTrue(bs.closed);
+        assertEqual(w.getCount(), 110L);
+        assertEqual(new String(bs.toByteArray(), "UTF-8"),
+                    whole.unparseToString(type, indentation));
+      }
+    }
+  }
+
+  private static void testEmpty() throws Throwable
+  {
+    StringWriter sw = new StringWriter();
+    DocumentFragment root = new DocumentFragment("empty");
+    new DocumentFragmentWriter(sw, root, XMLDocumentType.WHOLE,
+                               XMLIndentation.INDENT, 1024, 0).close();
+    assertEqual(sw.toString(),
+                root.unparseToString(XMLDocumentType.WHOLE,
+                                     XMLIndentation.INDENT));
+  }
+
+  private static void testFlush() throws Throwable
+  {
+    FlushCountingStream bs = new FlushCountingStream();
+    DocumentFragmentWriter w = new DocumentFragmentWriter(
+        bs, new DocumentFragment("rows"), XMLDocumentType.FRAGMENT,
+        XMLIndentation.COMPACT, 1024, 3);
+    for (int i = 0; i < 7; i++)
+    {
+      w.write("row", new Customer(i));
+    }
+    assertEqual(bs.flushes, 2);
+    assertTrue(bs.toString("UTF-8").endsWith("</row>"));
+    w.flush();
+    assertEqual(bs.flushes, 3);
+    w.close();
+    assertEqual(bs.flushes, 4);
+    try {
+      w.write("row", new Customer(8));
+      throw new RuntimeException("written after close");
+    }
+    catch (IOException e)
+    {
+    }
+  }
+
+  private static void testGzip() throws Throwable
+  {
+    File f = File.createTempFile("customers", ".xml.gz");
+    DocumentFragmentWriter w;
+    long size;
+    final List<String> ids = new ArrayList<String>();
+    f.deleteOnExit();
+    w = new DocumentFragmentWriter(
+        new BlockGzipOutputStream(new FileOutputStream(f), 10000, 6),
+        "allCustomers");
+    for (int i = 0; i < 5000; i++)
+    {
+      w.write("customer", new Customer(i));
+    }
+    w.close();
+    size = BlockGzipOutputStream.memberSize(ByteBuffer.wrap(
+        Files.readAllBytes(f.toPath())));
+    assertTrue(size > 0 && size < f.length());
+    new ChunkedFragmentParser(4, true).parseGzip(
+        f, "allCustomers/customer", new FragmentProcessor() {
+      public void processFragment(DocumentFragment frag)
+      {
+        ids.add(frag.getAttrStringNotNull("id"));
+      }
+    });
+    assertEqual(ids.size(), 5000);
+    for (int i = 0; i < 5000; i++)
+    {
+      assertEqual(ids.get(i), "" + i);
+    }
+  }
+
+  /**
+     Run the unit test
+   */
+  public static void main(String[] args) throws Throwable
+  {
+    testSameAsUnparse();
+    testEmpty();
+    testFlush();
+    testGzip();
+  }
+};
@@ -0,0 +1,133 @@
+/*
+  Copyright (C) 2013 Juha-Matti Tilli
+  
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+  
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+  
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  SOFTWARE.
+ */
+package fi.iki.jmtilli.javaxmlfrag;
+import java.util.*;
+import java.util.zip.*;
+import java.io.*;
+/**
+   Unit test for ReadAheadInputStream.
+ */
+public class UnitTestReadAheadInputStream {
+  private static void assertEqual(Object a, Object b)
+  {
+    if (a == null ? b != null : !a.equals(b))
+    {
+      throw new RuntimeException("inequal: " + a + ", " + b);
+    }
+  }
+  private static void assertTrue(boolean b)
+  {
+    if (!b)
+    {
+      throw new RuntimeException("false");
+    }
+  }
+  private static byte[] readAll(InputStream is, int chunk) throws IOException
+  {
+    ByteArrayOutputStream bs = new ByteArrayOutputStream();
+    byte[] buf = new byte[chunk];
+    int n;
+    while ((n = is.read(buf, 0, buf.length)) >= 0)
+    {
+      bs.write(buf, 0, n);
+    }
+    return bs.toByteArray();
+  }
+
+  private static void testReadAhead() throws Throwable
+  {
+    byte[] data = new byte[1000000];
+    ReadAheadInputStream is;
+    new Random(1).nextBytes(data);
+    is = new ReadAheadInputStream(new ByteArrayInputStream(data), 1000, 3);
+    assertTrue(Arrays.equals(readAll(is, 777), data));
+    assertEqual(is.read(), -1);
+    is.close();
+    is = new ReadAheadInputStream(new ByteArrayInputStream(data), 4096, 2);
+    for (int i = 0; i < data.length; i++)
+    {
+      assertEqual(is.read(), data[i] & 0xFF);
+    }
+    assertEqual(is.read(), -1);
+    assertTrue(is.getConsumerWaitNanos() >= 0);
+    assertTrue(is.getProducerWaitNanos() >= 0);
+    is = new ReadAheadInputStream(new ByteArrayInputStream(new byte[0]));
+    assertEqual(is.read(), -1);
+  }
+
+  private static void testFailure() throws Throwable
+  {
+    InputStream failing = new InputStream() {
+      private int count = 0;
+      public int read() throws IOException
+      {
+        if (count++ >= 5000)
+        {
+          throw new IOException("failed");
+        }
+        return 'x';
+      }
+    };
+    ReadAheadInputStream is = new ReadAheadInputStream(failing, 1024, 2);
+    try {
+      readAll(is, 100);
+      throw new RuntimeException("no failure");
+    }
+    catch (IOException e)
+    {
+      assertEqual(e.getMessage(), "failed");
+    }
+  }
+
+  private static void testGzip() throws Throwable
+  {
+    File f = File.createTempFile("customers", ".xml.gz");
+    Writer w = new OutputStreamWriter(
+        new GZIPOutputStream(new FileOutputStream(f)), "UTF-8");
+    DocumentFragment doc;
+    ReadAheadInputStream is;
+    f.deleteOnExit();
+    w.write("<allCustomers>");
+    for (int i = 0; i < 10000; i++)
+    {
+      w.write("<customer id='" + i + "'><name>Customer " + i +
+              "</name></customer>");
+    }
+    w.write("</allCustomers>");
+    w.close();
+    is = ReadAheadInputStream.openGzip(f);
+    doc = DocumentFragmentHandler.parseWhole(is);
+    assertEqual(doc.getMulti("customer").size(), 10000);
+    assertEqual(doc.getMulti("customer").get(9999).getStringNotNull("name"),
+                "Customer 9999");
+  }
+
+  /**
+     Run the unit test
+   */
+  public static void main(String[] args) throws Throwable
+  {
+    testReadAhead();
+    testFailure();
+    testGzip();
+  }
+};
@@ -0,0 +1,147 @@
+/*
+  Copyright (C) 2013 Juha-Matti Tilli
+  
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+  
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+  
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  SOFTWARE.
+ */
+package fi.iki.jmtilli.javaxmlfrag;
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+import javax.xml.parsers.*;
+import org.xml.sax.SAXException;
+/**
+   Unit test for SAXParserPool.
+ */
+public class UnitTestSAXParserPool {
+  private static final String INPUT_BUFFER_SIZE =
+    "http://apache.org/xml/properties/input-buffer-size";
+  private static void assertEqual(Object a, Object b)
+  {
+    if (a == null ? b != null : !a.equals(b))
+    {
+      throw new RuntimeException("inequal: " + a + ", " + b);
+    }
+  }
+  private static void assertTrue(boolean b)
+  {
+    if (!b)
+    {
+      throw new RuntimeException("false");
+    }
+  }
+  private static InputStream doc(String s) throws IOException
+  {
+    return new ByteArrayInputStream(s.getBytes("UTF-8"));
+  }
+
+  private static void testReuse() throws Throwable
+  {
+    SAXParserPool pool = new SAXParserPool(SAXParserFactory.newInstance(), 2);
+    SAXParser p1 = pool.acquire();
+    SAXParser p2 = pool.acquire();
+    SAXParser p3 = pool.acquire();
+    assertEqual(pool.getIdleCount(), 0);
+    pool.release(p1);
+    pool.release(p2);
+    pool.release(p3);
+    assertEqual(pool.getIdleCount(), 2);
+    assertTrue(pool.acquire() == p1);
+    pool.release(p1);
+    try {
+      DocumentFragmentHandler.parseWhole(pool, doc("<a><b></a>"));
+      throw new RuntimeException("no error");
+    }
+    catch (SAXException e)
+    {
+    }
+    assertEqual(pool.getIdleCount(), 2);
+    assertEqual(DocumentFragmentHandler.parseWhole(pool,
+                  doc("<a><b>x</b></a>")).getStringNotNull("b"), "x");
+    assertTrue(SAXParserPool.getDefault() == SAXParserPool.getDefault());
+  }
+
+  private static void testConcurrent() throws Throwable
+  {
+    final SAXParserPool pool = SAXParserPool.getDefault();
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+    for (int i = 0; i < 200; i++)
+    {
+      final int n = i;
+      results.add(executor.submit(new Callable<Integer>() {
+        public Integer call() throws Exception
+        {
+          return DocumentFragmentHandler.parseWhole(pool,
+              doc("<a><n>" + n + "</n></a>")).getIntNotNull("n");
+        }
+      }));
+    }
+    for (int i = 0; i < 200; i++)
+    {
+      assertEqual(results.get(i).get(), i);
+    }
+    executor.shutdown();
+    assertTrue(pool.getIdleCount() <= SAXParserPool.DEFAULT_MAX_IDLE);
+  }
+
+  private static void testBufferOverloads() throws Throwable
+  {
+    SAXParserPool pool = new SAXParserPool(SAXParserFactory.newInstance(), 1);
+    byte[] b = "<a><b>x</b></a>".getBytes("UTF-8");
+    File f = File.createTempFile("javaxmlfrag", ".xml");
+    SAXParser p;
+    try {
+      OutputStream os = new FileOutputStream(f);
+      try {
+        os.write(b);
+      }
+      finally
+      {
+        os.close();
+      }
+      assertEqual(DocumentFragmentHandler.parseWhole(pool,
+                    java.nio.ByteBuffer.wrap(b)).getStringNotNull("b"), "x");
+      assertEqual(pool.getIdleCount(), 1);
+      assertEqual(DocumentFragmentHandler.parseWhole(pool, f, 16)
+                    .getStringNotNull("b"), "x");
+      assertEqual(DocumentFragmentHandler.parseWholeMapped(pool, f)
+                    .getStringNotNull("b"), "x");
+      assertEqual(pool.getIdleCount(), 1);
+      p = pool.acquire();
+      assertEqual(p.getProperty(INPUT_BUFFER_SIZE),
+                  pool.getFactory().newSAXParser()
+                    .getProperty(INPUT_BUFFER_SIZE));
+      pool.release(p);
+    }
+    finally
+    {
+      f.delete();
+    }
+  }
+
+  /**
+     Run the unit test
+   */
+  public static void main(String[] args) throws Throwable
+  {
+    testReuse();
+    testConcurrent();
+    testBufferOverloads();
+  }
+};
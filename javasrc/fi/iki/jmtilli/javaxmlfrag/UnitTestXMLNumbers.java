@@ -0,0 +1,118 @@
+/*
+  Copyright (C) 2013 Juha-Matti Tilli
+  
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+  
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+  
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  SOFTWARE.
+ */
+package fi.iki.jmtilli.javaxmlfrag;
+import java.util.*;
+/**
+   Unit test for XMLNumbers.
+ */
+public class UnitTestXMLNumbers {
+  private static final String[] CASES = {
+    "0", "-0", "+0", "1", "-1", "+1", "007", "2147483647", "-2147483648",
+    "2147483648", "-2147483649", "9223372036854775807",
+    "-9223372036854775808", "9223372036854775808", "123456789012345678",
+    "1234567890123456789", "", "-", "+", "1a", " 1", "1 ", "1.", ".5",
+    ".", "-.5", "1e", "1e+", "1e5", "1E-5", "1.5e300", "1e400", "1e-400",
+    "123.45", "-123.45", "0.1", "0.3", "3.0e-3", "0.000001", "1e22",
+    "1e23", "9007199254740993", "123456789012345.6", "1234567.5",
+    "16777217", "1.17549435E-38", "3.4028235E38", "4.9e-324", "NaN",
+    "-Infinity", "0x1p3", "1d", "1f", "1e99999", "0e99999",
+    "\u0661\u0662", "12345678901234567890.5", "1.0000000000000000",
+  };
+  private static String result(Callable c)
+  {
+    try {
+      return String.valueOf(c.call());
+    }
+    catch(NumberFormatException ex)
+    {
+      return "NumberFormatException";
+    }
+  }
+  private interface Callable {
+    Object call();
+  }
+  private static void check(final String s)
+  {
+    String[] jdk = {
+      result(new Callable() {
+        public Object call() { return Integer.parseInt(s); }
+      }),
+      result(new Callable() {
+        public Object call() { return Long.parseLong(s); }
+      }),
+      result(new Callable() {
+        public Object call() { return Double.parseDouble(s); }
+      }),
+      result(new Callable() {
+        public Object call() { return Float.parseFloat(s); }
+      }),
+    };
+    String[] ours = {
+      result(new Callable() {
+        public Object call() { return XMLNumbers.parseInt(s); }
+      }),
+      result(new Callable() {
+        public Object call() { return XMLNumbers.parseLong(s); }
+      }),
+      result(new Callable() {
+        public Object call() { return XMLNumbers.parseDouble(s); }
+      }),
+      result(new Callable() {
+        public Object call() { return XMLNumbers.parseFloat(s); }
+      }),
+    };
+    if (!Arrays.equals(jdk, ours))
+    {
+      throw new RuntimeException("inequal for " + s + ": " +
+                                 Arrays.toString(jdk) + ", " +
+                                 Arrays.toString(ours));
+    }
+  }
+  /**
+     Run the unit test
+   */
+  public static void main(String[] args) throws Throwable
+  {
+    Random r = new Random(1);
+    for (String s: CASES)
+    {
+      check(s);
+    }
+    for (int i = 0; i < 100000; i++)
+    {
+      long digits = r.nextLong() % 1000000000000000L;
+      int exp = r.nextInt(60) - 30;
+      int point = r.nextInt(18);
+      String str = Long.toString(digits);
+      if (point < str.length() && r.nextBoolean())
+      {
+        str = str.substring(0, str.length() - point) + "." +
+              str.substring(str.length() - point);
+      }
+      check(str);
+      check(str + "e" + exp);
+      check(Long.toString(digits % 10000000) + "e" + (exp/3));
+      check(Double.toString(r.nextDouble() * Math.pow(10, exp)));
+      check(Integer.toString(r.nextInt()));
+    }
+  }
+};
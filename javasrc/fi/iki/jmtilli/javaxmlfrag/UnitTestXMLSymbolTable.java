@@ -0,0 +1,101 @@
+/*
+  Copyright (C) 2013 Juha-Matti Tilli
+  
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+  
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+  
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  SOFTWARE.
+ */
+package fi.iki.jmtilli.javaxmlfrag;
+import java.util.*;
+import java.io.*;
+/**
+   Unit test for XMLSymbolTable.
+ */
+public class UnitTestXMLSymbolTable {
+  private static void assertEqual(Object a, Object b)
+  {
+    if (a == null ? b != null : !a.equals(b))
+    {
+      throw new RuntimeException("inequal: " + a + ", " + b);
+    }
+  }
+  private static void assertTrue(boolean b)
+  {
+    if (!b)
+    {
+      throw new RuntimeException("false");
+    }
+  }
+  private static String attrName(DocumentFragment f)
+  {
+    return f.getAttributes().keySet().iterator().next();
+  }
+
+  private static void testIntern() throws Throwable
+  {
+    XMLSymbolTable t = new XMLSymbolTable(4);
+    String a = new String("customer");
+    String b = new String("customer");
+    char[] ch = "xcustomerx".toCharArray();
+    assertTrue(t.intern(a) == a);
+    assertTrue(t.intern(b) == a);
+    assertTrue(t.intern(ch, 1, 8) == a);
+    assertTrue(t.intern(ch, 0, 8) != a);
+    assertEqual(t.intern(ch, 0, 8), "xcustome");
+    for (int i = 0; i < 100; i++)
+    {
+      assertEqual(t.intern("name" + i), "name" + i);
+    }
+    assertEqual(t.intern(ch, 1, 8), "customer");
+  }
+
+  private static void testShared() throws Throwable
+  {
+    String doc = "<all><customer id='1'/><customer id='2'/>" +
+                 "<x:customer x:id='3'/><x:customer x:id='4'/></all>";
+    DocumentFragment f;
+    List<DocumentFragment> l;
+    DocumentFragmentReader r;
+
+    f = DocumentFragmentScanner.parseWhole(doc.getBytes("UTF-8"));
+    l = f.getChildren();
+    assertTrue(l.get(0).getTag() == l.get(1).getTag());
+    assertTrue(attrName(l.get(0)) == attrName(l.get(1)));
+
+    r = new DocumentFragmentReader(new StringReader(doc));
+    f = r.readFragment();
+    l = f.getChildren();
+    assertEqual(l.get(2).getTag(), "x:customer");
+    assertTrue(l.get(0).getTag() == l.get(1).getTag());
+    assertTrue(l.get(2).getTag() == l.get(3).getTag());
+    assertTrue(attrName(l.get(2)) == attrName(l.get(3)));
+
+    f = DocumentFragmentHandler.parseWhole(
+        new ByteArrayInputStream(doc.getBytes("UTF-8")));
+    l = f.getChildren();
+    assertTrue(l.get(2).getTag() == l.get(3).getTag());
+  }
+
+  /**
+     Run the unit test
+   */
+  public static void main(String[] args) throws Throwable
+  {
+    testIntern();
+    testShared();
+  }
+};
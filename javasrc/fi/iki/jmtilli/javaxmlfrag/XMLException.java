@@ -35,4 +35,14 @@ public class XMLException extends RuntimeException {
   {
     super(s);
   }
+  /**
+     Create an exception, optionally without a stack trace.
+
+     @param s The message
+     @param writableStackTrace Whether to capture the stack trace
+   */
+  protected XMLException(String s, boolean writableStackTrace)
+  {
+    super(s, null, true, writableStackTrace);
+  }
 }
@@ -0,0 +1,294 @@
+/*
+  Copyright (C) 2013 Juha-Matti Tilli
+  
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+  
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+  
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  SOFTWARE.
+ */
+package fi.iki.jmtilli.javaxmlfrag;
+/**
+   Number parsing for the typed getters.
+
+   The common forms, ASCII digits with an optional sign and for floating
+   point numbers an optional fraction and exponent, are parsed directly
+   from the characters of the string. Everything else, including invalid
+   input, is handed to the parse methods of the JDK, so the results and
+   the exceptions thrown are the same as theirs.
+
+   Floating point numbers take Clinger's fast path: when the decimal
+   significand and the power of ten are both exactly representable, a
+   single correctly rounded multiplication or division gives the exact
+   result. Other numbers are parsed by the JDK.
+ */
+final class XMLNumbers {
+  private static final double[] DOUBLE_POW10 = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+    1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20,
+    1e21, 1e22,
+  };
+  private static final float[] FLOAT_POW10 = {
+    1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f,
+  };
+  private static final int DOUBLE_MAX_DIGITS = 15;
+  private static final int FLOAT_MAX_DIGITS = 7;
+  private static final int MAX_EXPONENT_DIGITS = 4;
+
+  private XMLNumbers() {}
+
+  /*
+    Parse an optional sign and up to maxDigits ASCII digits. Returns
+    Long.MIN_VALUE if the string isn't of that form.
+   */
+  private static long parseDigits(String s, int maxDigits)
+  {
+    int n = s.length();
+    int i = 0;
+    long result = 0;
+    boolean neg = false;
+    if (n > 0 && (s.charAt(0) == '-' || s.charAt(0) == '+'))
+    {
+      neg = s.charAt(0) == '-';
+      i++;
+    }
+    if (i == n || n - i > maxDigits)
+    {
+      return Long.MIN_VALUE;
+    }
+    for (; i < n; i++)
+    {
+      int d = s.charAt(i) - '0';
+      if (d < 0 || d > 9)
+      {
+        return Long.MIN_VALUE;
+      }
+      result = 10*result + d;
+    }
+    return neg ? -result : result;
+  }
+  /**
+     Parse an int like Integer.parseInt.
+
+     @param s The string
+     @return The value
+     @throws NumberFormatException if the string isn't a valid int
+   */
+  public static int parseInt(String s)
+  {
+    long l = parseDigits(s, 10);
+    if (l >= Integer.MIN_VALUE && l <= Integer.MAX_VALUE)
+    {
+      return (int)l;
+    }
+    return Integer.parseInt(s);
+  }
+  /**
+     Parse a long like Long.parseLong.
+
+     @param s The string
+     @return The value
+     @throws NumberFormatException if the string isn't a valid long
+   */
+  public static long parseLong(String s)
+  {
+    long l = parseDigits(s, 18);
+    if (l != Long.MIN_VALUE)
+    {
+      return l;
+    }
+    return Long.parseLong(s);
+  }
+  /*
+    Decimal significand and exponent scanned from a string. A new
+    instance is used for each parse; it doesn't escape the parse method,
+    so the JIT can replace it with local variables.
+   */
+  private static final class Decimal {
+    boolean neg;
+    long significand;
+    int digits;
+    int exponent;
+
+    /*
+      Scan [+-]digits[.digits][(e|E)[+-]digits]. Returns false if the
+      string is of some other form or has too many significant digits.
+     */
+    boolean scan(String s, int maxDigits)
+    {
+      int n = s.length();
+      int i = 0;
+      int exp = 0;
+      boolean any = false;
+      if (n > 0 && (s.charAt(0) == '-' || s.charAt(0) == '+'))
+      {
+        neg = s.charAt(0) == '-';
+        i++;
+      }
+      for (; i < n; i++)
+      {
+        int d = s.charAt(i) - '0';
+        if (d < 0 || d > 9)
+        {
+          break;
+        }
+        any = true;
+        if (!digit(d, maxDigits))
+        {
+          return false;
+        }
+      }
+      if (i < n && s.charAt(i) == '.')
+      {
+        for (i++; i < n; i++)
+        {
+          int d = s.charAt(i) - '0';
+          if (d < 0 || d > 9)
+          {
+            break;
+          }
+          any = true;
+          if (!digit(d, maxDigits))
+          {
+            return false;
+          }
+          exponent--;
+        }
+      }
+      if (!any)
+      {
+        return false;
+      }
+      if (i < n && (s.charAt(i) == 'e' || s.charAt(i) == 'E'))
+      {
+        boolean expNeg = false;
+        int start;
+        i++;
+        if (i < n && (s.charAt(i) == '-' || s.charAt(i) == '+'))
+        {
+          expNeg = s.charAt(i) == '-';
+          i++;
+        }
+        start = i;
+        for (; i < n; i++)
+        {
+          int d = s.charAt(i) - '0';
+          if (d < 0 || d > 9)
+          {
+            break;
+          }
+          exp = 10*exp + d;
+        }
+        if (i == start || i - start > MAX_EXPONENT_DIGITS)
+        {
+          return false;
+        }
+        exponent += expNeg ? -exp : exp;
+      }
+      return i == n;
+    }
+    private boolean digit(int d, int maxDigits)
+    {
+      if (significand == 0 && d == 0)
+      {
+        return true;
+      }
+      if (++digits > maxDigits)
+      {
+        return false;
+      }
+      significand = 10*significand + d;
+      return true;
+    }
+  }
+  /**
+     Parse a double like Double.parseDouble.
+
+     @param s The string
+     @return The value
+     @throws NumberFormatException if the string isn't a valid double
+   */
+  public static double parseDouble(String s)
+  {
+    Decimal dec = new Decimal();
+    double v;
+    int exp;
+    if (!dec.scan(s, DOUBLE_MAX_DIGITS))
+    {
+      return Double.parseDouble(s);
+    }
+    exp = dec.exponent;
+    if (dec.significand == 0)
+    {
+      return dec.neg ? -0.0 : 0.0;
+    }
+    v = dec.significand;
+    if (exp > 22 && exp <= 22 + DOUBLE_MAX_DIGITS - dec.digits)
+    {
+      /* significand * 10^(exp-22) still has at most 15 digits */
+      v *= DOUBLE_POW10[exp - 22];
+      exp = 22;
+    }
+    if (exp >= 0 && exp <= 22)
+    {
+      v *= DOUBLE_POW10[exp];
+    }
+    else if (exp < 0 && exp >= -22)
+    {
+      v /= DOUBLE_POW10[-exp];
+    }
+    else
+    {
+      return Double.parseDouble(s);
+    }
+    return dec.neg ? -v : v;
+  }
+  /**
+     Parse a float like Float.parseFloat.
+
+     @param s The string
+     @return The value
+     @throws NumberFormatException if the string isn't a valid float
+   */
+  public static float parseFloat(String s)
+  {
+    Decimal dec = new Decimal();
+    float v;
+    int exp;
+    if (!dec.scan(s, FLOAT_MAX_DIGITS))
+    {
+      return Float.parseFloat(s);
+    }
+    exp = dec.exponent;
+    if (dec.significand == 0)
+    {
+      return dec.neg ? -0.0f : 0.0f;
+    }
+    v = dec.significand;
+    if (exp >= 0 && exp <= 10)
+    {
+      v *= FLOAT_POW10[exp];
+    }
+    else if (exp < 0 && exp >= -10)
+    {
+      v /= FLOAT_POW10[-exp];
+    }
+    else
+    {
+      return Float.parseFloat(s);
+    }
+    return dec.neg ? -v : v;
+  }
+}
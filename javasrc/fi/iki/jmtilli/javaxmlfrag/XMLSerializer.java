@@ -0,0 +1,598 @@
+/*
+  Copyright (C) 2013 Juha-Matti Tilli
+  
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+  
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+  
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  SOFTWARE.
+ */
+package fi.iki.jmtilli.javaxmlfrag;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Arrays;
+/**
+   Streaming serializer writing document fragments as XML text.
+
+   Writes escaped characters to a Writer or UTF-8 to an OutputStream
+   through its own buffer, without building a DOM tree. Attributes are
+   sorted by name. When indenting, elements are indented by two spaces
+   per level and text following an element starts on a new line with its
+   leading line feeds dropped, except within xml:space="preserve".
+   Whitespace text is written like any other text. These are the rules of
+   the identity Transformer of JDK 9 to 17, but the output here is the
+   same on every JDK, while the Transformer of other versions indents
+   mixed content differently.
+
+   Characters that XML 1.0 does not allow, that is control characters
+   other than tab, line feed and carriage return, U+FFFE, U+FFFF and
+   unpaired surrogates, are rejected with an IOException instead of
+   being written as character references.
+
+   The serializer is driven by start and end events so that it can write
+   one part of a document at a time. A serializer is not thread-safe.
+ */
+final class XMLSerializer {
+  /**
+     The default size of the buffer in characters.
+   */
+  public static final int DEFAULT_BUFFER_SIZE = 8192;
+  private static final int INDENT_AMOUNT = 2;
+  private static final String DECLARATION =
+    "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>";
+  /*
+    Characters below 0xA0 that are escaped in text and in attribute
+    values. Line feeds in text are written as the line separator. Like
+    the JDK serializer, C1 control characters are escaped in text only.
+    Control characters not allowed in XML are rejected when escaped.
+   */
+  private static final boolean[] TEXT_ESCAPED = new boolean[0xA0];
+  private static final boolean[] ATTR_ESCAPED = new boolean[0xA0];
+  static {
+    for (int c = 0; c < 0xA0; c++)
+    {
+      boolean special = c < 0x20 || c == '&' || c == '<' || c == '>';
+      TEXT_ESCAPED[c] = special || c >= 0x7F;
+      ATTR_ESCAPED[c] = special || c == '"';
+    }
+    TEXT_ESCAPED['\t'] = false;
+  }
+
+  private final Writer w;
+  private final OutputStream os;
+  private final char[] buf;
+  private final byte[] bytes;
+  private int pos;
+  private final boolean indent;
+  private final String lineSeparator = System.lineSeparator();
+
+  private int depth;
+  private boolean startTagOpen;
+  private boolean prevText;
+  private boolean startNewLine;
+  private boolean preserve;
+  private int childNodeNum;
+  private int[] childNodeNums = new int[16];
+  private boolean[] preserves = new boolean[16];
+  private CharSequence[] pending = new CharSequence[4];
+  private int pendingCount;
+  private final char[] digits = new char[20];
+
+  /**
+     Create a serializer writing characters.
+
+     @param w The writer
+     @param indent Whether to indent the output
+     @param bufferSize The size of the buffer in characters
+   */
+  public XMLSerializer(Writer w, boolean indent, int bufferSize)
+  {
+    if (bufferSize < 2)
+    {
+      throw new IllegalArgumentException("bufferSize must be at least 2");
+    }
+    this.w = w;
+    this.os = null;
+    this.buf = new char[bufferSize];
+    this.bytes = null;
+    this.indent = indent;
+  }
+  /**
+     Create a serializer writing UTF-8.
+
+     @param os The output stream
+     @param indent Whether to indent the output
+     @param bufferSize The size of the buffer in characters
+   */
+  public XMLSerializer(OutputStream os, boolean indent, int bufferSize)
+  {
+    if (bufferSize < 2)
+    {
+      throw new IllegalArgumentException("bufferSize must be at least 2");
+    }
+    this.w = null;
+    this.os = os;
+    this.buf = new char[bufferSize];
+    this.bytes = new byte[3*bufferSize];
+    this.indent = indent;
+  }
+  public XMLSerializer(Writer w, boolean indent)
+  {
+    this(w, indent, DEFAULT_BUFFER_SIZE);
+  }
+  public XMLSerializer(OutputStream os, boolean indent)
+  {
+    this(os, indent, DEFAULT_BUFFER_SIZE);
+  }
+  private boolean shouldFormat()
+  {
+    return indent && !preserve;
+  }
+  private boolean shouldIndent()
+  {
+    return indent && !preserve && depth > 0;
+  }
+  /**
+     Start the document.
+
+     @param declaration Whether to write the XML declaration
+   */
+  public void startDocument(boolean declaration) throws IOException
+  {
+    if (declaration)
+    {
+      put(DECLARATION);
+      if (indent)
+      {
+        put(lineSeparator);
+      }
+    }
+  }
+  /**
+     End the document, writing out the buffer.
+
+     The underlying stream is not flushed.
+   */
+  public void endDocument() throws IOException
+  {
+    if (indent)
+    {
+      flushText();
+      if (!prevText)
+      {
+        put(lineSeparator);
+      }
+    }
+    writeBuffer();
+  }
+  /**
+     Start an element. Its attributes are written by attribute() calls
+     before any other call.
+
+     @param tag The name of the element
+   */
+  public void startElement(String tag) throws IOException
+  {
+    if (indent)
+    {
+      childNodeNum++;
+      flushText();
+    }
+    closeStartTag();
+    if (shouldIndent() && startNewLine)
+    {
+      indent(depth);
+    }
+    startNewLine = true;
+    put('<');
+    put(tag);
+    if (depth == childNodeNums.length)
+    {
+      childNodeNums = Arrays.copyOf(childNodeNums, 2*depth);
+      preserves = Arrays.copyOf(preserves, 2*depth);
+    }
+    childNodeNums[depth] = childNodeNum;
+    preserves[depth] = preserve;
+    childNodeNum = 0;
+    depth++;
+    startTagOpen = true;
+    prevText = false;
+  }
+  /**
+     Write an attribute of the element just started.
+
+     @param key The name of the attribute
+     @param value The value of the attribute
+   */
+  public void attribute(String key, CharSequence value) throws IOException
+  {
+    if (!startTagOpen)
+    {
+      throw new IllegalStateException("no start tag");
+    }
+    put(' ');
+    put(key);
+    put('=');
+    put('"');
+    putEscaped(value, ATTR_ESCAPED);
+    put('"');
+    if (key.equals("xml:space"))
+    {
+      if (value.toString().equals("preserve"))
+      {
+        preserve = true;
+      }
+      else if (value.toString().equals("default"))
+      {
+        preserve = false;
+      }
+    }
+  }
+  /**
+     Write text. Empty text is ignored.
+
+     @param text The text, a String or ParsedValue or other CharSequence
+                 that is not modified before the next call
+   */
+  public void text(CharSequence text) throws IOException
+  {
+    if (!isNonEmpty(text))
+    {
+      return;
+    }
+    closeStartTag();
+    if (shouldFormat())
+    {
+      if (pendingCount == pending.length)
+      {
+        pending = Arrays.copyOf(pending, 2*pendingCount);
+      }
+      pending[pendingCount++] = text;
+      return;
+    }
+    putEscaped(text, TEXT_ESCAPED);
+    prevText = true;
+  }
+  /**
+     End the innermost open element.
+
+     @param tag The name of the element
+   */
+  public void endElement(String tag) throws IOException
+  {
+    if (indent)
+    {
+      flushText();
+    }
+    if (startTagOpen)
+    {
+      put('/');
+      put('>');
+      startTagOpen = false;
+    }
+    else
+    {
+      if (shouldIndent() && (childNodeNum > 1 || !prevText))
+      {
+        indent(depth - 1);
+      }
+      put('<');
+      put('/');
+      put(tag);
+      put('>');
+    }
+    depth--;
+    childNodeNum = childNodeNums[depth];
+    preserve = preserves[depth];
+    prevText = false;
+  }
+  /**
+     Write out the buffer and flush the underlying stream.
+   */
+  public void flush() throws IOException
+  {
+    writeBuffer();
+    if (w != null)
+    {
+      w.flush();
+    }
+    else
+    {
+      os.flush();
+    }
+  }
+  private static boolean isUnformatted(CharSequence text)
+  {
+    return text instanceof ParsedValue && !((ParsedValue)text).isFormatted();
+  }
+  private static boolean isNonEmpty(CharSequence text)
+  {
+    return isUnformatted(text) || text.length() > 0;
+  }
+  /**
+     Finish the start tag of the element just started, if any, so that
+     the element can no longer be written as an empty element tag.
+   */
+  public void closeStartTag() throws IOException
+  {
+    if (startTagOpen)
+    {
+      put('>');
+      startTagOpen = false;
+    }
+  }
+  /*
+    Write the buffered text nodes, indenting before them if they follow
+    an element. Leading line feeds of indented text are dropped.
+   */
+  private void flushText() throws IOException
+  {
+    boolean skipNewlines = false;
+    if (pendingCount == 0 || !shouldFormat())
+    {
+      pendingCount = 0;
+      return;
+    }
+    childNodeNum++;
+    if (shouldIndent() && childNodeNum > 1)
+    {
+      indent(depth);
+      startNewLine = true;
+      skipNewlines = true;
+    }
+    for (int i = 0; i < pendingCount; i++)
+    {
+      CharSequence text = pending[i];
+      pending[i] = null;
+      if (skipNewlines && !isUnformatted(text))
+      {
+        String s = text.toString();
+        int start = 0;
+        while (start < s.length() && s.charAt(start) == '\n')
+        {
+          start++;
+        }
+        if (start == s.length())
+        {
+          continue;
+        }
+        putEscaped(s, start, TEXT_ESCAPED);
+      }
+      else
+      {
+        putEscaped(text, TEXT_ESCAPED);
+      }
+      skipNewlines = false;
+      prevText = true;
+    }
+    pendingCount = 0;
+  }
+  private void indent(int d) throws IOException
+  {
+    if (startNewLine)
+    {
+      put(lineSeparator);
+    }
+    for (int i = 0; i < d*INDENT_AMOUNT; i++)
+    {
+      put(' ');
+    }
+  }
+  private void putEscaped(CharSequence text, boolean[] escaped)
+    throws IOException
+  {
+    if (isUnformatted(text))
+    {
+      putNumber((ParsedValue)text);
+      return;
+    }
+    putEscaped(text.toString(), 0, escaped);
+  }
+  /*
+    Write the digits of a value that has not been formatted, without
+    creating its text. Numbers never need escaping.
+   */
+  private void putNumber(ParsedValue pv) throws IOException
+  {
+    long v;
+    int n = digits.length;
+    if (pv.kind == ParsedValue.INT)
+    {
+      v = pv.intValue();
+    }
+    else if (pv.kind == ParsedValue.LONG && pv.longValue() != Long.MIN_VALUE)
+    {
+      v = pv.longValue();
+    }
+    else
+    {
+      put(pv.format());
+      return;
+    }
+    boolean negative = v < 0;
+    if (negative)
+    {
+      v = -v;
+    }
+    do
+    {
+      digits[--n] = (char)('0' + v % 10);
+      v /= 10;
+    }
+    while (v != 0);
+    if (negative)
+    {
+      digits[--n] = '-';
+    }
+    for (int i = n; i < digits.length; i++)
+    {
+      put(digits[i]);
+    }
+  }
+  private void putEscaped(String s, int start, boolean[] escaped)
+    throws IOException
+  {
+    int len = s.length();
+    for (int i = start; i < len; i++)
+    {
+      char c = s.charAt(i);
+      if (c < 0xA0 ? !escaped[c] :
+          c < Character.MIN_SURROGATE ||
+          (c > Character.MAX_SURROGATE && c < 0xFFFE))
+      {
+        if (pos == buf.length)
+        {
+          writeBuffer();
+        }
+        buf[pos++] = c;
+        continue;
+      }
+      switch (c)
+      {
+        case '&':
+          put("&amp;");
+          break;
+        case '<':
+          put("&lt;");
+          break;
+        case '>':
+          put("&gt;");
+          break;
+        case '"':
+          put("&quot;");
+          break;
+        case '\n':
+          put(escaped == TEXT_ESCAPED ? lineSeparator : "&#10;");
+          break;
+        default:
+          if (Character.isHighSurrogate(c) && i + 1 < len &&
+              Character.isLowSurrogate(s.charAt(i + 1)))
+          {
+            putCharRef(Character.toCodePoint(c, s.charAt(++i)));
+          }
+          else if (Character.isSurrogate(c))
+          {
+            throw new IOException("invalid UTF-16 surrogate: " + (int)c);
+          }
+          else if ((c < 0x20 && c != '\t' && c != '\r') || c >= 0xFFFE)
+          {
+            throw new IOException("invalid XML character: " + (int)c);
+          }
+          else
+          {
+            putCharRef(c);
+          }
+          break;
+      }
+    }
+  }
+  private void putCharRef(int c) throws IOException
+  {
+    put('&');
+    put('#');
+    put(Integer.toString(c));
+    put(';');
+  }
+  private void put(char c) throws IOException
+  {
+    if (pos == buf.length)
+    {
+      writeBuffer();
+    }
+    buf[pos++] = c;
+  }
+  private void put(String s) throws IOException
+  {
+    int len = s.length();
+    int off = 0;
+    while (off < len)
+    {
+      int n;
+      if (pos == buf.length)
+      {
+        writeBuffer();
+      }
+      n = Math.min(len - off, buf.length - pos);
+      s.getChars(off, off + n, buf, pos);
+      pos += n;
+      off += n;
+    }
+  }
+  /**
+     Write out the buffer without flushing the underlying stream.
+
+     When writing UTF-8, a high surrogate at the end of a full buffer is
+     kept until its low surrogate arrives.
+   */
+  public void writeBuffer() throws IOException
+  {
+    int end = pos;
+    int n = 0;
+    if (w != null)
+    {
+      w.write(buf, 0, pos);
+      pos = 0;
+      return;
+    }
+    if (end > 0 && Character.isHighSurrogate(buf[end - 1]) &&
+        end == buf.length)
+    {
+      end--;
+    }
+    for (int i = 0; i < end; i++)
+    {
+      char c = buf[i];
+      if (c < 0x80)
+      {
+        bytes[n++] = (byte)c;
+      }
+      else if (c < 0x800)
+      {
+        bytes[n++] = (byte)(0xC0 | (c >> 6));
+        bytes[n++] = (byte)(0x80 | (c & 0x3F));
+      }
+      else if (Character.isHighSurrogate(c) && i + 1 < end &&
+               Character.isLowSurrogate(buf[i + 1]))
+      {
+        int cp = Character.toCodePoint(c, buf[++i]);
+        bytes[n++] = (byte)(0xF0 | (cp >> 18));
+        bytes[n++] = (byte)(0x80 | ((cp >> 12) & 0x3F));
+        bytes[n++] = (byte)(0x80 | ((cp >> 6) & 0x3F));
+        bytes[n++] = (byte)(0x80 | (cp & 0x3F));
+      }
+      else if (Character.isSurrogate(c))
+      {
+        bytes[n++] = (byte)'?';
+      }
+      else
+      {
+        bytes[n++] = (byte)(0xE0 | (c >> 12));
+        bytes[n++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+        bytes[n++] = (byte)(0x80 | (c & 0x3F));
+      }
+    }
+    os.write(bytes, 0, n);
+    if (end < pos)
+    {
+      buf[0] = buf[end];
+      pos = 1;
+    }
+    else
+    {
+      pos = 0;
+    }
+  }
+}
@@ -0,0 +1,139 @@
+/*
+  Copyright (C) 2013 Juha-Matti Tilli
+  
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+  
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+  
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  SOFTWARE.
+ */
+package fi.iki.jmtilli.javaxmlfrag;
+/**
+   Bounded table of canonical tag and attribute name strings.
+
+   Interning the names makes all fragments of a document share one String
+   instance per distinct name instead of holding a copy each, and the hash
+   codes of the shared instances are computed only once. Lookups of equal
+   strings then succeed on the identity check of String.equals.
+
+   The table is direct-mapped: each name hashes to one slot, and a name
+   evicts a different name in its slot. Memory use is thus bounded however
+   many distinct names are seen, and the table may be shared between
+   threads without locking, as a lost update only costs a duplicate string.
+ */
+public final class XMLSymbolTable {
+  /**
+     The default number of slots.
+   */
+  public static final int DEFAULT_SIZE = 1024;
+  private static final XMLSymbolTable GLOBAL = new XMLSymbolTable(8192);
+
+  private final String[] symbols;
+  private final int mask;
+
+  /**
+     Create a table.
+
+     @param size The number of slots, rounded up to a power of two
+   */
+  public XMLSymbolTable(int size)
+  {
+    int n = 1;
+    if (size <= 0)
+    {
+      throw new IllegalArgumentException("size must be positive");
+    }
+    while (n < size)
+    {
+      n *= 2;
+    }
+    symbols = new String[n];
+    mask = n - 1;
+  }
+  /**
+     Create a table with the default number of slots.
+   */
+  public XMLSymbolTable()
+  {
+    this(DEFAULT_SIZE);
+  }
+  /**
+     Get the global table shared by all users.
+
+     @return The global table
+   */
+  public static XMLSymbolTable getGlobal()
+  {
+    return GLOBAL;
+  }
+  private int slot(int hash)
+  {
+    return (hash ^ (hash >>> 16)) & mask;
+  }
+  /**
+     Get the canonical instance of a string.
+
+     @param s The string
+     @return A string equal to s
+   */
+  public String intern(String s)
+  {
+    int i = slot(s.hashCode());
+    String sym = symbols[i];
+    if (sym != null && sym.equals(s))
+    {
+      return sym;
+    }
+    symbols[i] = s;
+    return s;
+  }
+  /**
+     Get the canonical instance of a string given as characters.
+
+     No string is allocated if the string is in the table.
+
+     @param ch The character array
+     @param start Start position of the string within ch
+     @param length The length of the string
+     @return A string having the characters
+   */
+  public String intern(char[] ch, int start, int length)
+  {
+    int hash = 0;
+    int i;
+    String sym;
+    for (int j = 0; j < length; j++)
+    {
+      hash = 31*hash + ch[start+j];
+    }
+    i = slot(hash);
+    sym = symbols[i];
+    if (sym != null && sym.length() == length)
+    {
+      int j = 0;
+      while (j < length && sym.charAt(j) == ch[start+j])
+      {
+        j++;
+      }
+      if (j == length)
+      {
+        return sym;
+      }
+    }
+    sym = new String(ch, start, length);
+    symbols[i] = sym;
+    return sym;
+  }
+}
@@ -24,14 +24,18 @@ package fi.iki.jmtilli.javaxmlfrag;
    An XML value missing exception.
   
    Thrown when the value we're looking for is missing.
+
+   A missing value is an expected condition that callers commonly catch,
+   so the exception does not capture a stack trace. The message tells
+   what was missing.
  */
 public class XMLValueMissingException extends XMLException {
   public XMLValueMissingException()
   {
-    super();
+    super(null, false);
   }
   public XMLValueMissingException(String s)
   {
-    super(s);
+    super(s, false);
   }
 }
@@ -0,0 +1,51 @@
+/*
+  Copyright (C) 2013 Juha-Matti Tilli
+  
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+  
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+  
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  SOFTWARE.
+ */
+package fi.iki.jmtilli.javaxmlfrag;
+/**
+   Handling of whitespace text when building document fragments.
+ */
+public enum XMLWhitespace {
+  /**
+     Keep all text as it is.
+   */
+  PRESERVE,
+  /**
+     Drop whitespace-only text next to child elements, such as indentation.
+     Text of elements without child elements is kept as it is.
+   */
+  STRIP,
+  /**
+     Like STRIP, but also remove leading and trailing whitespace from the
+     text of elements without child elements.
+   */
+  TRIM;
+  /**
+     Test whether a character is XML whitespace.
+
+     @param c The character
+     @return Whether c is a space, tab, carriage return or line feed
+   */
+  static boolean isWhitespace(char c)
+  {
+    return c == ' ' || c == '\n' || c == '\t' || c == '\r';
+  }
+};